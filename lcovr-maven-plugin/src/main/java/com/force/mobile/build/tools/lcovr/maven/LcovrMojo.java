@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+
+import com.force.mobile.build.tools.lcovr.CoberturaCoverageWriter;
+import com.force.mobile.build.tools.lcovr.CoverageMerger;
+import com.force.mobile.build.tools.lcovr.CoverageTraversal;
+import com.force.mobile.build.tools.lcovr.CoverageWriter;
+import com.force.mobile.build.tools.lcovr.JsonSummaryCoverageWriter;
+import com.force.mobile.build.tools.lcovr.LcovCoverageWriter;
+import com.force.mobile.build.tools.lcovr.LcovReader;
+import com.force.mobile.build.tools.lcovr.Lcovr;
+import com.force.mobile.build.tools.lcovr.ParseDiagnostics;
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Converts <code>.lcov</code> files into a Cobertura XML report, like the
+ * &lt;lcov&gt; Ant task.
+ * <p>
+ * The goal does nothing when the inputs and settings are unchanged since
+ * the last run and the outputs are still the ones it wrote, so that
+ * incremental builds don't pay for the conversion again.
+ */
+@Mojo(name = "report", defaultPhase = LifecyclePhase.VERIFY,
+        threadSafe = true)
+public class LcovrMojo extends AbstractMojo {
+    /**
+     * Directory to look for <code>.lcov</code> files in.
+     */
+    @Parameter(defaultValue = "${project.build.directory}", required = true)
+    private File inputDirectory;
+
+    /**
+     * Patterns of the <code>.lcov</code> files, relative to
+     * {@link #inputDirectory}.
+     */
+    @Parameter
+    private String[] includes = {"**/*.lcov"};
+
+    /**
+     * Directories where source code can be found. Defaults to the project's
+     * base directory.
+     */
+    @Parameter
+    private List<File> sourceDirectories;
+
+    /**
+     * The project's base directory.
+     */
+    @Parameter(defaultValue = "${basedir}", readonly = true)
+    private File basedir;
+
+    /**
+     * The file to export the Cobertura XML report.
+     */
+    @Parameter(property = "lcovr.output",
+            defaultValue = "${project.build.directory}/coverage.xml")
+    private File output;
+
+    /**
+     * Optional file to export a JSON summary, in the same pass.
+     */
+    @Parameter(property = "lcovr.jsonSummary")
+    private File jsonSummary;
+
+    /**
+     * Optional file to export the merged data as LCOV, in the same pass.
+     */
+    @Parameter(property = "lcovr.lcovOutput")
+    private File lcovOutput;
+
+    /**
+     * Whether to skip malformed input instead of failing.
+     */
+    @Parameter(property = "lcovr.lenient", defaultValue = "false")
+    private boolean lenient;
+
+    /**
+     * Whether to keep line information in memory-mapped temporary files
+     * instead of on the Java heap.
+     */
+    @Parameter(property = "lcovr.offHeap", defaultValue = "false")
+    private boolean offHeap;
+
+    /**
+     * How much heap the merged coverage may use before it is spilled to
+     * temporary files, such as <code>512m</code>.
+     */
+    @Parameter(property = "lcovr.maxMemory")
+    private String maxMemory;
+
+    /**
+     * Where the fingerprints of the last run are kept.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/lcovr/state.properties",
+            required = true)
+    private File stateFile;
+
+    /**
+     * Convert even if nothing changed since the last run.
+     */
+    @Parameter(property = "lcovr.force", defaultValue = "false")
+    private boolean force;
+
+    /**
+     * Skip the conversion.
+     */
+    @Parameter(property = "lcovr.skip", defaultValue = "false")
+    private boolean skip;
+
+    /**
+     * Execute this goal.
+     * @throws MojoExecutionException if the conversion fails.
+     */
+    public final void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping coverage conversion.");
+            return;
+        }
+        List<File> outputs = getOutputs();
+        List<File> excluded = new Vector<File>(outputs);
+        excluded.add(stateFile);
+        List<File> inputs;
+        try {
+            inputs = findInputFiles(inputDirectory, includes, excluded);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Couldn't list inputs: "
+                    + e.getMessage(), e);
+        }
+        if (inputs.isEmpty()) {
+            getLog().info("No .lcov files found in " + inputDirectory);
+            return;
+        }
+        List<File> sources = getSourceDirectories();
+        UpToDateCheck check = new UpToDateCheck(stateFile, inputs,
+                sources + "," + outputs + "," + lenient);
+        try {
+            if (!force && check.isUpToDate(outputs)) {
+                getLog().info("Coverage report is up to date.");
+                return;
+            }
+            check.clear();
+            convert(inputs, sources);
+            check.save(outputs);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Couldn't convert coverage: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the inputs and write every output in a single pass.
+     * @param inputs the <code>.lcov</code> files.
+     * @param sources the source directories.
+     * @throws IOException if a file can't be read or written.
+     * @throws MojoExecutionException if the settings are invalid.
+     */
+    private void convert(final List<File> inputs, final List<File> sources)
+            throws IOException, MojoExecutionException {
+        long limit = Long.MAX_VALUE;
+        if (null != maxMemory) {
+            try {
+                limit = Lcovr.parseSize(maxMemory);
+            } catch (BuildException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+        }
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        CoverageMerger merger = new CoverageMerger(limit, tempDir);
+        if (offHeap || limit != Long.MAX_VALUE) {
+            merger.setLineStorage(new OffHeapLineStorage(tempDir,
+                    OffHeapLineStorage.DEFAULT_SEGMENT_SIZE));
+        }
+        ParseDiagnostics diagnostics = new ParseDiagnostics();
+        NamePool names = new NamePool();
+        for (File input : inputs) {
+            LcovReader reader = new LcovReader(input);
+            reader.setLenient(lenient);
+            reader.setNamePool(names);
+            for (SourceFileInfo info : reader.parseLazy()) {
+                merger.add(info);
+            }
+            diagnostics.add(reader.getDiagnostics());
+        }
+        Vector<SourceFileInfo> allInfos = merger.finish();
+        if (diagnostics.getProblemCount() > 0) {
+            getLog().warn(diagnostics.getSummary());
+        }
+        getLog().info("Read information for " + allInfos.size()
+                + " source files from " + merger.getRecordCount()
+                + " records.");
+        CoverageTraversal traversal = new CoverageTraversal(allInfos);
+        traversal.setSourceDirectories(sources);
+        List<CoverageWriter> writers = new Vector<CoverageWriter>();
+        writers.add(new CoberturaCoverageWriter(output));
+        if (null != jsonSummary) {
+            writers.add(new JsonSummaryCoverageWriter(jsonSummary));
+        }
+        if (null != lcovOutput) {
+            writers.add(new LcovCoverageWriter(lcovOutput));
+        }
+        traversal.traverse(writers.toArray(new CoverageWriter[writers.size()]));
+    }
+
+    /**
+     * Find the <code>.lcov</code> files, in a stable order.
+     * <p>
+     * Files the goal writes itself are left out, so that an LCOV output
+     * inside the input directory isn't merged back into the next report.
+     * @param dir the directory to scan.
+     * @param patterns patterns of the files, relative to <code>dir</code>.
+     * @param excluded files that must not be read.
+     * @return the input files.
+     * @throws IOException if a path can't be resolved.
+     */
+    static List<File> findInputFiles(final File dir, final String[] patterns,
+            final List<File> excluded) throws IOException {
+        List<File> inputs = new Vector<File>();
+        if (!dir.isDirectory()) {
+            return inputs;
+        }
+        Set<File> skip = new HashSet<File>();
+        for (File f : excluded) {
+            skip.add(f.getCanonicalFile());
+        }
+        DirectoryScanner ds = new DirectoryScanner();
+        ds.setBasedir(dir);
+        ds.setIncludes(patterns);
+        ds.scan();
+        String[] files = ds.getIncludedFiles();
+        Arrays.sort(files);
+        for (String f : files) {
+            File input = new File(dir, f);
+            if (!skip.contains(input.getCanonicalFile())) {
+                inputs.add(input);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the configured source directories, or the base directory.
+     */
+    private List<File> getSourceDirectories() {
+        if (null == sourceDirectories || sourceDirectories.isEmpty()) {
+            return Arrays.asList(basedir);
+        }
+        return sourceDirectories;
+    }
+
+    /**
+     * @return every file this goal writes.
+     */
+    private List<File> getOutputs() {
+        List<File> outputs = new Vector<File>();
+        outputs.add(output);
+        if (null != jsonSummary) {
+            outputs.add(jsonSummary);
+        }
+        if (null != lcovOutput) {
+            outputs.add(lcovOutput);
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Remembers what a conversion read and wrote, so that it can be skipped
+ * when it would produce the same outputs again.
+ * <p>
+ * The inputs are fingerprinted by path, length and modification time, along
+ * with the settings that affect the outputs. Each output is fingerprinted by
+ * the MD5 of its content, so that an output that was deleted or edited since
+ * is written again.
+ */
+final class UpToDateCheck {
+    /**
+     * Key of the input fingerprint in the state file.
+     */
+    private static final String INPUTS = "inputs";
+
+    /**
+     * Prefix of the output digests in the state file.
+     */
+    private static final String OUTPUT = "output.";
+
+    /**
+     * Where the fingerprints are kept between builds.
+     */
+    private final File stateFile;
+
+    /**
+     * Fingerprint of the current inputs and settings.
+     */
+    private final String inputs;
+
+    /**
+     * Constructor.
+     * @param state where the fingerprints are kept between builds.
+     * @param inputFiles files that are read, in order.
+     * @param settings anything else that changes the outputs.
+     */
+    UpToDateCheck(final File state, final List<File> inputFiles,
+            final String settings) {
+        stateFile = state;
+        MessageDigest md5 = newDigest();
+        Charset utf8 = Charset.forName("UTF-8");
+        md5.update(settings.getBytes(utf8));
+        for (File f : inputFiles) {
+            md5.update(("\0" + f.getAbsolutePath() + "\0" + f.length() + "\0"
+                    + f.lastModified()).getBytes(utf8));
+        }
+        inputs = hex(md5.digest());
+    }
+
+    /**
+     * Check whether the inputs are unchanged since {@link #save(List)},
+     * and the outputs are still the ones written then.
+     * @param outputs files that are written.
+     * @return true if the conversion can be skipped.
+     * @throws IOException if an output can't be read.
+     */
+    boolean isUpToDate(final List<File> outputs) throws IOException {
+        if (!stateFile.isFile()) {
+            return false;
+        }
+        Properties state = new Properties();
+        InputStream in = new FileInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        if (!inputs.equals(state.getProperty(INPUTS))) {
+            return false;
+        }
+        for (File output : outputs) {
+            String digest = state.getProperty(OUTPUT
+                    + output.getAbsolutePath());
+            if (null == digest || !output.isFile()
+                    || !digest.equals(digest(output))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remember the current inputs, and the outputs just written from them.
+     * @param outputs files that were written.
+     * @throws IOException if the state can't be written.
+     */
+    void save(final List<File> outputs) throws IOException {
+        Properties state = new Properties();
+        state.setProperty(INPUTS, inputs);
+        for (File output : outputs) {
+            state.setProperty(OUTPUT + output.getAbsolutePath(),
+                    digest(output));
+        }
+        File parent = stateFile.getParentFile();
+        if (null != parent && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create " + parent);
+        }
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            state.store(out, "lcovr up-to-date state");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Forget the recorded state, before the outputs are written again.
+     */
+    void clear() {
+        if (stateFile.isFile() && !stateFile.delete()) {
+            stateFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * MD5 of a file's content.
+     * @param f the file.
+     * @return the digest in hexadecimal.
+     * @throws IOException if the file can't be read.
+     */
+    static String digest(final File f) throws IOException {
+        MessageDigest md5 = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(f);
+        try {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md5.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return hex(md5.digest());
+    }
+
+    /**
+     * @return a new MD5 digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes bytes to format.
+     * @return the bytes in hexadecimal.
+     */
+    private static String hex(final byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
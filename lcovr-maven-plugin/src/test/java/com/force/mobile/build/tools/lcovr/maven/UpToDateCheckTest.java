@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UpToDateCheckTest {
+
+    private static File write(final File f, final String content) throws Exception {
+        FileWriter w = new FileWriter(f);
+        w.write(content);
+        w.close();
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File temp(final String suffix) throws Exception {
+        File f = File.createTempFile("uptodate", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Test
+    public void testUpToDate() throws Exception {
+        File input = write(temp(".lcov"), "SF:a.js\nDA:1,1\nend_of_record\n");
+        File output = write(temp(".xml"), "<coverage/>");
+        File state = temp(".properties");
+        state.delete();
+        List<File> inputs = Arrays.asList(input);
+        List<File> outputs = Arrays.asList(output);
+
+        UpToDateCheck check = new UpToDateCheck(state, inputs, "settings");
+        assertFalse(check.isUpToDate(outputs));
+        check.save(outputs);
+        assertTrue(new UpToDateCheck(state, inputs, "settings").isUpToDate(outputs));
+
+        // Other settings.
+        assertFalse(new UpToDateCheck(state, inputs, "lenient").isUpToDate(outputs));
+
+        // Edited output.
+        write(output, "<coverage lines-valid=\"1\"/>");
+        assertFalse(new UpToDateCheck(state, inputs, "settings").isUpToDate(outputs));
+        check.save(outputs);
+
+        // Changed input.
+        write(input, "SF:a.js\nDA:1,2\nDA:2,0\nend_of_record\n");
+        assertFalse(new UpToDateCheck(state, inputs, "settings").isUpToDate(outputs));
+
+        // Deleted output.
+        check = new UpToDateCheck(state, inputs, "settings");
+        check.save(outputs);
+        assertTrue(check.isUpToDate(outputs));
+        output.delete();
+        assertFalse(check.isUpToDate(outputs));
+    }
+
+    @Test
+    public void testOutputInsideInputDirectory() throws Exception {
+        File dir = temp(".dir");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        File input = write(new File(dir, "a.lcov"), "SF:a.js\nDA:1,1\nend_of_record\n");
+        File lcovOutput = new File(dir, "merged.lcov");
+        File state = new File(dir, "state.properties");
+        List<File> outputs = Arrays.asList(lcovOutput);
+        List<File> excluded = Arrays.asList(lcovOutput, state);
+        String[] includes = {"**/*.lcov", "**/*.properties"};
+
+        List<File> inputs = LcovrMojo.findInputFiles(dir, includes, excluded);
+        assertEquals(Arrays.asList(input), inputs);
+        write(lcovOutput, "SF:a.js\nDA:1,1\nend_of_record\n");
+        new UpToDateCheck(state, inputs, "settings").save(outputs);
+        state.deleteOnExit();
+
+        // The merged output isn't read back, so the next run is up to date.
+        inputs = LcovrMojo.findInputFiles(dir, includes, excluded);
+        assertEquals(Arrays.asList(input), inputs);
+        assertTrue(new UpToDateCheck(state, inputs, "settings").isUpToDate(outputs));
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.force.mobile.build.tools.lcovr.data.LineChecksums;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Detects stale coverage, by comparing the per-line checksums of
+ * <code>DA:</code> lines with the MD5 digests of the checked-out source
+ * lines.
+ *
+ * Source files are resolved through the source directories, and checked in
+ * parallel. Each one is memory-mapped and read only once, however many
+ * records refer to it; its line digests are cached for later calls to
+ * {@link #verify()}.
+ *
+ * @see LcovReader#setKeepChecksums(boolean)
+ */
+public class ChecksumVerifier {
+
+    /**
+     * Directories the file names are relative to.
+     */
+    private final List<File> sourceDirectories;
+
+    /**
+     * Number of threads to verify with.
+     */
+    private final int threads;
+
+    /**
+     * Checksums to verify, by file name.
+     */
+    private final Map<String, List<LineChecksums>> pending =
+        new TreeMap<String, List<LineChecksums>>();
+
+    /**
+     * Source files read so far.
+     */
+    private final ConcurrentMap<File, Future<SourceLines>> cache =
+        new ConcurrentHashMap<File, Future<SourceLines>>();
+
+    /**
+     * File names that could not be found in the last {@link #verify()}.
+     */
+    private final List<String> unresolved = new Vector<String>();
+
+    /**
+     * Constructor.
+     *
+     * @param sourceDirs
+     *            Directories the file names are relative to.
+     * @param threadCount
+     *            Number of threads to verify with.
+     */
+    public ChecksumVerifier(final List<File> sourceDirs,
+            final int threadCount) {
+        sourceDirectories = sourceDirs;
+        threads = Math.max(1, threadCount);
+    }
+
+    /**
+     * Queue the checksums of a record for verification. Records without
+     * checksums are ignored.
+     *
+     * @param info
+     *            The record.
+     */
+    public final void add(final SourceFileInfo info) {
+        LineChecksums checksums = info.getChecksums();
+        if (null == checksums) {
+            return;
+        }
+        List<LineChecksums> l = pending.get(info.getFileName());
+        if (null == l) {
+            l = new Vector<LineChecksums>(1);
+            pending.put(info.getFileName(), l);
+        }
+        l.add(checksums);
+    }
+
+    /**
+     * Verify the queued checksums.
+     *
+     * @return The names of the files whose coverage doesn't match the
+     *         source, sorted.
+     * @throws IOException
+     *             if a source file can't be read.
+     */
+    public final List<String> verify() throws IOException {
+        unresolved.clear();
+        List<String> stale = new Vector<String>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<Boolean>> results =
+                new TreeMap<String, Future<Boolean>>();
+            for (final Map.Entry<String, List<LineChecksums>> e
+                    : pending.entrySet()) {
+                final File source = resolve(e.getKey());
+                if (null == source) {
+                    unresolved.add(e.getKey());
+                    continue;
+                }
+                results.put(e.getKey(), pool.submit(new Callable<Boolean>() {
+                    public Boolean call() throws IOException {
+                        return isStale(source, e.getValue());
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<Boolean>> e : results.entrySet()) {
+                if (get(e.getValue())) {
+                    stale.add(e.getKey());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        pending.clear();
+        return stale;
+    }
+
+    /**
+     * Get the file names that could not be found in any source directory,
+     * during the last {@link #verify()}.
+     *
+     * @return File names, sorted.
+     */
+    public final List<String> getUnresolved() {
+        return Collections.unmodifiableList(unresolved);
+    }
+
+    /**
+     * Find a source file.
+     *
+     * @param fileName
+     *            The file name from the coverage data.
+     * @return The file, or <code>null</code>.
+     */
+    private File resolve(final String fileName) {
+        return resolve(sourceDirectories, fileName);
+    }
+
+    /**
+     * Find a source file.
+     *
+     * @param dirs
+     *            Directories the file name may be relative to.
+     * @param fileName
+     *            The file name from the coverage data.
+     * @return The file, or <code>null</code>.
+     */
+    static File resolve(final List<File> dirs, final String fileName) {
+        File f = new File(fileName);
+        if (f.isAbsolute()) {
+            return f.isFile() ? f : null;
+        }
+        for (File dir : dirs) {
+            f = new File(dir, fileName);
+            if (f.isFile()) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check checksums against a source file.
+     *
+     * @param source
+     *            The source file.
+     * @param checksums
+     *            Checksums of the records for that file.
+     * @return true if any checksum doesn't match.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    private boolean isStale(final File source,
+            final List<LineChecksums> checksums) throws IOException {
+        SourceLines lines = read(source);
+        for (LineChecksums c : checksums) {
+            for (int i = 0; i < c.size(); i++) {
+                byte[] digest = lines.digest(c.getLine(i));
+                if (null == digest || !c.matches(i, digest)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read a source file, or get it from the cache.
+     *
+     * @param source
+     *            The source file.
+     * @return Its lines.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    private SourceLines read(final File source) throws IOException {
+        Future<SourceLines> f = cache.get(source);
+        if (null == f) {
+            FutureTask<SourceLines> task = new FutureTask<SourceLines>(
+                    new Callable<SourceLines>() {
+                        public SourceLines call() throws IOException {
+                            return new SourceLines(source);
+                        }
+                    });
+            f = cache.putIfAbsent(source, task);
+            if (null == f) {
+                f = task;
+                task.run();
+            }
+        }
+        return get(f);
+    }
+
+    /**
+     * Wait for a result, unwrapping i/o errors.
+     *
+     * @param <T>
+     *            Type of the result.
+     * @param f
+     *            The result.
+     * @return Its value.
+     * @throws IOException
+     *             if computing the result failed with one.
+     */
+    static <T> T get(final Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * A memory-mapped source file, split into lines, whose line digests are
+     * computed on demand and kept.
+     */
+    private static final class SourceLines {
+        /**
+         * The file's content.
+         */
+        private final ByteBuffer content;
+
+        /**
+         * Start offset of each line, plus the end of the content.
+         */
+        private final int[] starts;
+
+        /**
+         * Digest of each line, once computed.
+         */
+        private final byte[][] digests;
+
+        /**
+         * Digest algorithm, used under the lock.
+         */
+        private final MessageDigest md5;
+
+        /**
+         * Map and split a file.
+         *
+         * @param source
+         *            The file.
+         * @throws IOException
+         *             if the file can't be read.
+         */
+        SourceLines(final File source) throws IOException {
+            FileInputStream in = new FileInputStream(source);
+            try {
+                FileChannel channel = in.getChannel();
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                in.close();
+            }
+            int limit = content.limit();
+            int[] s = new int[256];
+            int count = 0;
+            int start = 0;
+            while (start < limit) {
+                if (count + 1 >= s.length) {
+                    s = Arrays.copyOf(s, s.length * 2);
+                }
+                s[count++] = start;
+                int end = LcovReader.indexOfNewline(content, start, limit);
+                start = end < 0 ? limit : end + 1;
+            }
+            s[count] = limit;
+            starts = Arrays.copyOf(s, count + 1);
+            digests = new byte[count][];
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Get the MD5 digest of a line, without its line terminator.
+         *
+         * @param lineNumber
+         *            The line number, from 1.
+         * @return The digest, or <code>null</code> if there is no such
+         *         line.
+         */
+        synchronized byte[] digest(final int lineNumber) {
+            int i = lineNumber - 1;
+            if (i < 0 || i >= digests.length) {
+                return null;
+            }
+            if (null == digests[i]) {
+                int from = starts[i];
+                int to = starts[i + 1];
+                if (to > from && content.get(to - 1) == '\n') {
+                    to--;
+                }
+                if (to > from && content.get(to - 1) == '\r') {
+                    to--;
+                }
+                ByteBuffer line = content.duplicate();
+                line.limit(to);
+                line.position(from);
+                md5.update(line);
+                digests[i] = md5.digest();
+            }
+            return digests[i];
+        }
+    }
+}
@@ -25,39 +25,57 @@
  */
 package com.force.mobile.build.tools.lcovr;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.util.Collections;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Vector;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.dom.DOMResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
-import org.w3c.dom.Element;
 
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
 import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
 
 /**
  * A Writer to format {@link SourceFileInfo} metrics into a Cobertura XML
  * report.
  *
+ * The report is streamed out as the {@link CoverageWriter} callbacks arrive,
+ * so no DOM is built unless {@link #populateXmlDocument(Document)} asks for
+ * one.
+ *
  * @author Jason Schroeder
  * @see http://cobertura.sourceforge.net/xml/coverage-03.dtd
  */
-public class CoberturaCoverageWriter {
+public class CoberturaCoverageWriter implements CoverageWriter {
+
+    /**
+     * System identifier of the DTD.
+     */
+    private static final String DTD =
+        "http://cobertura.sourceforge.net/xml/coverage-03.dtd";
+
+    /**
+     * Indentation per level, when writing to a file.
+     */
+    private static final String INDENT = "    ";
 
     /**
-     * List of Infos to process. Set in the constructor.
+     * List of Infos to process, for {@link #process(File)}. Set in the
+     * constructor.
      */
     private final List<SourceFileInfo> infos;
 
@@ -68,6 +86,43 @@ public class CoberturaCoverageWriter {
      */
     private List<File> sources;
 
+    /**
+     * The file {@link #begin(List, int, int, int, int)} opens.
+     */
+    private File outputFile;
+
+    /**
+     * The underlying character stream, when writing to a file.
+     */
+    private Writer out;
+
+    /**
+     * Where the XML goes, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private XMLStreamWriter xml;
+
+    /**
+     * Whether to indent the output.
+     */
+    private boolean indent;
+
+    /**
+     * Current nesting depth, for indenting.
+     */
+    private int depth;
+
+    /**
+     * Branches of the current class, or <code>null</code>.
+     */
+    private BranchData branches;
+
+    /**
+     * Sorted packed lines of the current class, while its methods are
+     * written. Reused from class to class.
+     */
+    private long[] classLines = new long[1024];
+
     /**
      * Constructor.
      *
@@ -80,6 +135,18 @@ public class CoberturaCoverageWriter {
         this.infos = information;
     }
 
+    /**
+     * Constructor, for use as a {@link CoverageWriter} fed by a
+     * {@link CoverageTraversal}.
+     *
+     * @param output
+     *            The file to write the report to.
+     */
+    public CoberturaCoverageWriter(final File output) {
+        this.infos = null;
+        this.outputFile = output;
+    }
+
     /**
      * Set a list of source directories. Your filenames in your
      * {@link SourceFileInfo} will be relative to one of these directories.
@@ -103,8 +170,7 @@ public class CoberturaCoverageWriter {
         DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
         DocumentBuilder docBuilder = dbfac.newDocumentBuilder();
         DocumentType docType = docBuilder.getDOMImplementation().
-                createDocumentType("coverage", null,
-                "http://cobertura.sourceforge.net/xml/coverage-03.dtd");
+                createDocumentType("coverage", null, DTD);
         Document doc = docBuilder.getDOMImplementation().createDocument(null,
                 "coverage", docType);
         return doc;
@@ -113,164 +179,474 @@ public class CoberturaCoverageWriter {
     /**
      * Process the information and write it to the given {@link File}.
      *
-     * @param outputFile
+     * @param output
      *            File to write to.
      * @throws Exception
      *             Any IOExceptions.
      */
-    public final void process(final File outputFile) throws Exception {
-        writeDocument(populateXmlDocument(createDocument()), outputFile);
+    public final void process(final File output) throws Exception {
+        outputFile = output;
+        traversal().traverse(this);
     }
 
     /**
      * Transform the <code>infos</code> into the XML DOM.
      *
      * @param doc
-     *            Document to populate.
+     *            Document to populate. Its root element is replaced.
      * @return a populated Document.
+     * @throws Exception
+     *             on any XML error.
      */
-    protected final Document populateXmlDocument(final Document doc) {
-        Element root = doc.getDocumentElement();
-        root.setAttribute("timestamp",
-                Long.toString(System.currentTimeMillis()));
-        root.setAttribute("branch-rate", "0.0");
-        root.setAttribute("version",
-                "lcovr " + getClass().getPackage().getImplementationVersion());
-
-        Element sourcesXml = doc.createElement("sources");
-        root.appendChild(sourcesXml);
+    protected final Document populateXmlDocument(final Document doc)
+    throws Exception {
+        if (null != doc.getDocumentElement()) {
+            doc.removeChild(doc.getDocumentElement());
+        }
+        xml = XMLOutputFactory.newInstance().createXMLStreamWriter(
+                new DOMResult(doc));
+        indent = false;
+        traversal().traverse(this);
+        return doc;
+    }
 
+    /**
+     * Build a traversal over <code>infos</code>.
+     *
+     * @return a new traversal.
+     */
+    private CoverageTraversal traversal() {
+        CoverageTraversal traversal = new CoverageTraversal(infos);
         if (null != sources) {
-            for (File sourceDirectory : sources) {
-                Element sourceXml = doc.createElement("source");
-                sourceXml.appendChild(
-                        doc.createTextNode(sourceDirectory.getAbsolutePath()));
-                sourcesXml.appendChild(sourceXml);
-            }
+            traversal.setSourceDirectories(sources);
         }
+        return traversal;
+    }
 
-        Element packagesXml = doc.createElement("packages");
-        root.appendChild(packagesXml);
-
-        int totalLineCount = 0;
-        int totalCoveredLineCount = 0;
-        Map<String, Set<SourceFileInfo>> allPackages =
-            SourceFileInfo.splitIntoPackages(infos);
-        Vector<String> packageNames = new Vector<String>(allPackages.keySet());
-        Collections.sort(packageNames);
-        for (String packageName : packageNames) {
-            Element packageXml = doc.createElement("package");
-            packagesXml.appendChild(packageXml);
-            packageXml.setAttribute("name", packageName);
-            packageXml.setAttribute("branch-rate", "0.0");
-            packageXml.setAttribute("complexity", "0.0");
-            Element classesXml = doc.createElement("classes");
-            packageXml.appendChild(classesXml);
-            Vector<SourceFileInfo> childSources =
-                new Vector<SourceFileInfo>(allPackages.get(packageName));
-            Collections.sort(childSources);
-            int packageLineCount = 0;
-            int coveredPackageLineCount = 0;
-            for (SourceFileInfo info : childSources) {
-                addClass(info, classesXml);
-                packageLineCount += info.getLf();
-                coveredPackageLineCount += info.getLh();
+    /**
+     * {@inheritDoc}
+     */
+    public final void begin(final List<File> sourceDirectories,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit) throws IOException {
+        try {
+            if (null == xml) {
+                out = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(outputFile), "UTF-8"));
+                xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out);
+                indent = true;
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeCharacters("\n");
+                xml.writeDTD("<!DOCTYPE coverage SYSTEM \"" + DTD + "\">");
+                xml.writeCharacters("\n");
             }
-            double lineRate = 0;
-            if (packageLineCount > 0) {
-                lineRate = (double) coveredPackageLineCount / (double) packageLineCount;
+            depth = 0;
+            startElement("coverage");
+            xml.writeAttribute("branch-rate",
+                    Double.toString(rate(branchesHit, branchesFound)));
+            xml.writeAttribute("line-rate",
+                    Double.toString(rate(linesHit, linesFound)));
+            xml.writeAttribute("timestamp",
+                    Long.toString(System.currentTimeMillis()));
+            xml.writeAttribute("version",
+                    "lcovr " + getClass().getPackage().getImplementationVersion());
+
+            startElement("sources");
+            for (File sourceDirectory : sourceDirectories) {
+                startElement("source");
+                xml.writeCharacters(sourceDirectory.getAbsolutePath());
+                endElement(false);
             }
-            packageXml.setAttribute("line-rate", Double.toString(lineRate));
+            endElement(!sourceDirectories.isEmpty());
 
-            totalLineCount += packageLineCount;
-            totalCoveredLineCount += coveredPackageLineCount;
+            startElement("packages");
+        } catch (XMLStreamException e) {
+            throw wrap(e);
         }
-        double totalLineRate = 0;
-        if (totalLineCount > 0) {
-            totalLineRate = (double) totalCoveredLineCount / (double) totalLineCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginPackage(final String packageName,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit,
+            final double complexity) throws IOException {
+        try {
+            startElement("package");
+            xml.writeAttribute("branch-rate",
+                    Double.toString(rate(branchesHit, branchesFound)));
+            xml.writeAttribute("complexity", Double.toString(complexity));
+            xml.writeAttribute("line-rate",
+                    Double.toString(rate(linesHit, linesFound)));
+            xml.writeAttribute("name", packageName);
+            startElement("classes");
+        } catch (XMLStreamException e) {
+            throw wrap(e);
         }
-        root.setAttribute("line-rate", Double.toString(totalLineRate));
+    }
 
-        return doc;
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginClass(final SourceFileInfo info)
+    throws IOException {
+        try {
+            startElement("class");
+            xml.writeAttribute("branch-rate",
+                    Double.toString(info.getBranchRate()));
+            xml.writeAttribute("complexity",
+                    Double.toString(info.getComplexity()));
+            xml.writeAttribute("filename", info.getFileName());
+            xml.writeAttribute("line-rate",
+                    Double.toString(info.getLineRate()));
+            xml.writeAttribute("name", info.getSourceFullClassName());
+            branches = info.getBranches();
+            FunctionData functions = info.getFunctions();
+            if (null == functions || functions.size() == 0) {
+                emptyElement("methods");
+                endEmptyElement();
+            } else {
+                startElement("methods");
+                methods(info, functions);
+                endElement(true);
+            }
+            startElement("lines");
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void line(final int lineNumber, final int hits)
+    throws IOException {
+        try {
+            writeLine(lineNumber, hits);
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endClass() throws IOException {
+        branches = null;
+        try {
+            endElement(true);
+            endElement(true);
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        }
     }
 
     /**
-     * Populate a new <code>&lt;class&gt;</code> node, and append it to
-     * <code>parentNode</code>.
+     * {@inheritDoc}
+     */
+    public final void endPackage() throws IOException {
+        try {
+            endElement(true);
+            endElement(true);
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void end() throws IOException {
+        try {
+            endElement(true);
+            endElement(true);
+            xml.writeEndDocument();
+            xml.flush();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        } finally {
+            xml = null;
+            if (null != out) {
+                out.write('\n');
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void abort() throws IOException {
+        try {
+            if (null != xml) {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw wrap(e);
+        } finally {
+            xml = null;
+            if (null != out) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Write a <code>&lt;method&gt;</code> per function, over the lines from
+     * its first line to {@link FunctionData#getLastLine(int)}. Its
+     * complexity is written when it was computed, as in later versions of
+     * the DTD.
      *
      * @param info
-     *            Information about a source file (class)
-     * @param parentNode
-     *            Node to append to.
-     */
-    private void addClass(final SourceFileInfo info, final Element parentNode) {
-        Document doc = parentNode.getOwnerDocument();
-        Element classXml = doc.createElement("class");
-        parentNode.appendChild(classXml);
-        classXml.setAttribute("branch-rate",
-                Double.toString(info.getBranchRate()));
-        classXml.setAttribute("complexity",
-                Double.toString(info.getComplexity()));
-        classXml.setAttribute("line-rate",
-                Double.toString(info.getLineRate()));
-        classXml.setAttribute("filename", info.getFileName());
-        classXml.setAttribute("name", info.getSourceFullClassName());
-        Element methodsXml = doc.createElement("methods");
-        classXml.appendChild(methodsXml);
-
-        Element linesXml = doc.createElement("lines");
-        classXml.appendChild(linesXml);
-        addLines(info, linesXml);
+     *            The class.
+     * @param functions
+     *            Its functions.
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void methods(final SourceFileInfo info,
+            final FunctionData functions) throws XMLStreamException {
+        final int[] count = new int[1];
+        info.forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                if (count[0] == classLines.length) {
+                    classLines = Arrays.copyOf(classLines,
+                            classLines.length * 2);
+                }
+                classLines[count[0]++] = CoverageMerger.pack(lineNumber, hits);
+            }
+        });
+        int length = CoverageMerger.normalize(classLines, count[0]);
+        for (int f = 0; f < functions.size(); f++) {
+            int first = functions.getLine(f);
+            int last = functions.getLastLine(f);
+            int from = lowerBound(classLines, length, first);
+            int to = from;
+            int linesHit = 0;
+            int branchesFound = 0;
+            int branchesHit = 0;
+            for (; to < length && (int) (classLines[to] >> 32) <= last; to++) {
+                if ((int) classLines[to] > 0) {
+                    linesHit++;
+                }
+                long b = countBranches((int) (classLines[to] >> 32));
+                branchesFound += (int) (b >> 32);
+                branchesHit += (int) b;
+            }
+            double lineRate = to > from ? rate(linesHit, to - from)
+                : functions.getHits(f) > 0 ? 1.0 : 0.0;
+            startElement("method");
+            xml.writeAttribute("branch-rate",
+                    Double.toString(rate(branchesHit, branchesFound)));
+            if (functions.getComplexity(f) > 0) {
+                xml.writeAttribute("complexity",
+                        Double.toString(functions.getComplexity(f)));
+            }
+            xml.writeAttribute("line-rate", Double.toString(lineRate));
+            xml.writeAttribute("name", functions.getName(f));
+            xml.writeAttribute("signature", "");
+            if (to == from) {
+                emptyElement("lines");
+                endEmptyElement();
+            } else {
+                startElement("lines");
+                for (int i = from; i < to; i++) {
+                    writeLine((int) (classLines[i] >> 32), (int) classLines[i]);
+                }
+                endElement(true);
+            }
+            endElement(true);
+        }
     }
 
     /**
-     * Create new <code>&lt;line&gt;</code> nodes and append to the
-     * <code>parentNode</code>.
+     * Find the first of some sorted packed lines numbered at least
+     * <code>line</code>.
      *
-     * @param info
-     *            Information about a source file (class)
-     * @param parentNode
-     *            Node to append the newly created nodes.
-     */
-    private void addLines(final SourceFileInfo info, final Element parentNode) {
-        Document doc = parentNode.getOwnerDocument();
-        for (Integer lineNumber : info.getLineInfo().keySet()) {
-            Element line = doc.createElement("line");
-            parentNode.appendChild(line);
-            line.setAttribute("hits",
-                    Integer.toString(info.getLineInfo().get(lineNumber)));
-            line.setAttribute("number", Integer.toString(lineNumber));
+     * @param lines
+     *            Sorted packed lines.
+     * @param length
+     *            Number of lines used in <code>lines</code>.
+     * @param line
+     *            A line number.
+     * @return Its position, or <code>length</code> if there is none.
+     */
+    private static int lowerBound(final long[] lines, final int length,
+            final int line) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if ((int) (lines[mid] >> 32) < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
+        return low;
     }
 
     /**
-     * Write the provided <code>Document</code> to the given <code>File</code>.
+     * Count the branches of a line of the current class.
      *
-     * @param doc
-     *            Document to transform
-     * @param file
-     *            File to write
-     * @throws Exception
-     *             on any I/O error.
+     * @param lineNumber
+     *            The line number.
+     * @return The number of branches in the high <code>int</code>, and of
+     *         those taken in the low one.
      */
-    private static void writeDocument(final Document doc, final File file)
-    throws Exception {
-        // Set up a transformer
-        TransformerFactory transfac = TransformerFactory.newInstance();
-        Transformer trans = transfac.newTransformer();
-        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-        trans.setOutputProperty(OutputKeys.INDENT, "yes");
-
-        DocumentType doctype = doc.getDoctype();
-        if (doctype != null) {
-            trans.setOutputProperty(OutputKeys.DOCTYPE_SYSTEM,
-                    doctype.getSystemId());
+    private long countBranches(final int lineNumber) {
+        int first = null == branches ? -1 : branches.find(lineNumber);
+        if (first < 0) {
+            return 0;
+        }
+        int found = 0;
+        int hit = 0;
+        for (int i = first; i < branches.size()
+                && branches.getLine(i) == lineNumber; i++) {
+            found++;
+            if (branches.getTaken(i) > 0) {
+                hit++;
+            }
+        }
+        return ((long) found << 32) | hit;
+    }
+
+    /**
+     * Write a <code>&lt;line&gt;</code>, with the condition coverage of its
+     * branches if it has any.
+     *
+     * @param lineNumber
+     *            The line number.
+     * @param hits
+     *            Its hits.
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void writeLine(final int lineNumber, final int hits)
+    throws XMLStreamException {
+        emptyElement("line");
+        long b = countBranches(lineNumber);
+        if (b != 0) {
+            int found = (int) (b >> 32);
+            int hit = (int) b;
+            xml.writeAttribute("branch", "true");
+            xml.writeAttribute("condition-coverage", (100 * hit / found)
+                    + "% (" + hit + '/' + found + ')');
+        }
+        xml.writeAttribute("hits", Integer.toString(hits));
+        xml.writeAttribute("number", Integer.toString(lineNumber));
+        endEmptyElement();
+    }
+
+    /**
+     * Start an element on a new, indented line.
+     *
+     * @param name
+     *            Element name.
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void startElement(final String name) throws XMLStreamException {
+        newLine();
+        xml.writeStartElement(name);
+        depth++;
+    }
+
+    /**
+     * Write an empty element on a new, indented line. Its attributes follow.
+     *
+     * @param name
+     *            Element name.
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void emptyElement(final String name) throws XMLStreamException {
+        newLine();
+        if (indent) {
+            xml.writeEmptyElement(name);
+        } else {
+            // the DOM-backed writer loses the attributes of empty elements
+            xml.writeStartElement(name);
+        }
+    }
+
+    /**
+     * Finish an element started by {@link #emptyElement(String)}.
+     *
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void endEmptyElement() throws XMLStreamException {
+        if (!indent) {
+            xml.writeEndElement();
+        }
+    }
+
+    /**
+     * End the current element.
+     *
+     * @param onNewLine
+     *            Whether the element had children on their own lines.
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void endElement(final boolean onNewLine)
+    throws XMLStreamException {
+        depth--;
+        if (onNewLine) {
+            newLine();
+        }
+        xml.writeEndElement();
+    }
+
+    /**
+     * Start an indented line, when writing to a file.
+     *
+     * @throws XMLStreamException
+     *             on any XML error.
+     */
+    private void newLine() throws XMLStreamException {
+        if (indent && depth > 0) {
+            StringBuilder sb = new StringBuilder(1 + depth * INDENT.length());
+            sb.append('\n');
+            for (int i = 0; i < depth; i++) {
+                sb.append(INDENT);
+            }
+            xml.writeCharacters(sb.toString());
+        }
+    }
+
+    /**
+     * Compute a rate.
+     *
+     * @param hit
+     *            Numerator.
+     * @param found
+     *            Denominator.
+     * @return the rate, or <code>0.0</code> when nothing was found.
+     */
+    static double rate(final int hit, final int found) {
+        if (found > 0) {
+            return (double) hit / (double) found;
         }
+        return 0;
+    }
 
-        // Write file from xml tree
-        FileWriter fw = new FileWriter(file);
-        StreamResult result = new StreamResult(fw);
-        DOMSource source = new DOMSource(doc);
-        trans.transform(source, result);
+    /**
+     * Wrap an XML error.
+     *
+     * @param e
+     *            The error.
+     * @return an IOException.
+     */
+    private static IOException wrap(final XMLStreamException e) {
+        IOException ioe = new IOException("Couldn't write cobertura .xml: "
+                + e.getMessage());
+        ioe.initCause(e);
+        return ioe;
     }
 }
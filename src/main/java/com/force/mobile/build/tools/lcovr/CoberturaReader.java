@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Reads a Cobertura XML report into {@link SourceFileInfo}s, one per
+ * <code>&lt;class&gt;</code> element, so that it can be merged with LCOV
+ * input.
+ *
+ * The report is streamed with StAX, without building a DOM, and the DTD is
+ * not loaded. Only the <code>&lt;lines&gt;</code> of each class are read;
+ * those repeated under <code>&lt;methods&gt;</code> are skipped. With
+ * {@link #mergeInto(CoverageMerger)}, each class is handed to the merger as
+ * soon as it ends, so the memory used does not grow with the report.
+ *
+ * @author Jason Schroeder
+ */
+public class CoberturaReader {
+
+    /**
+     * Size of the input buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of bytes looked at by {@link #accepts(File)}.
+     */
+    private static final int SNIFF_SIZE = 256;
+
+    /**
+     * The input file.
+     */
+    private final File file;
+
+    /**
+     * Whether to skip malformed lines instead of failing.
+     */
+    private boolean lenient;
+
+    /**
+     * Problems skipped by the last read.
+     */
+    private ParseDiagnostics diagnostics = new ParseDiagnostics();
+
+    /**
+     * Constructor.
+     *
+     * @param inputFile
+     *            File to read from.
+     */
+    public CoberturaReader(final File inputFile) {
+        file = inputFile;
+    }
+
+    /**
+     * Check whether a file looks like XML rather than LCOV, from its first
+     * bytes.
+     *
+     * @param f
+     *            The file.
+     * @return true if the first character, after any byte order mark and
+     *         white space, is <code>'&lt;'</code>.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    public static boolean accepts(final File f) throws IOException {
+        byte[] head = new byte[SNIFF_SIZE];
+        int n = 0;
+        InputStream in = new FileInputStream(f);
+        try {
+            int r;
+            while (n < head.length
+                    && (r = in.read(head, n, head.length - n)) > 0) {
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        int i = 0;
+        if (n >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB
+                && (head[2] & 0xFF) == 0xBF) {
+            i = 3;
+        }
+        while (i < n && head[i] <= ' ' && head[i] >= 0) {
+            i++;
+        }
+        return i < n && head[i] == '<';
+    }
+
+    /**
+     * Skip <code>&lt;line&gt;</code> elements whose numbers can't be parsed,
+     * instead of failing. They are counted in {@link #getDiagnostics()}.
+     *
+     * @param b
+     *            true to be lenient.
+     */
+    public final void setLenient(final boolean b) {
+        lenient = b;
+    }
+
+    /**
+     * Get the problems skipped by the last read, in lenient mode.
+     *
+     * @return The problems.
+     */
+    public final ParseDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Read the report.
+     *
+     * @return One object per class, in document order.
+     * @throws IOException
+     *             if the report can't be read or parsed.
+     */
+    public final Vector<SourceFileInfo> parse() throws IOException {
+        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        read(infos, null, 1);
+        return infos;
+    }
+
+    /**
+     * Read the report into a merger, one class at a time.
+     *
+     * @param merger
+     *            Receives each class as soon as it is read.
+     * @return The number of classes read.
+     * @throws IOException
+     *             if the report can't be read or parsed, or the merger
+     *             fails.
+     */
+    public final int mergeInto(final CoverageMerger merger)
+    throws IOException {
+        return mergeInto(merger, 1);
+    }
+
+    /**
+     * Read the report into a merger, one class at a time, as if it had been
+     * read several times.
+     *
+     * @param merger
+     *            Receives each class as soon as it is read.
+     * @param copies
+     *            Number of copies of the report.
+     * @return The number of classes read, once.
+     * @throws IOException
+     *             if the report can't be read or parsed, or the merger
+     *             fails.
+     */
+    public final int mergeInto(final CoverageMerger merger, final int copies)
+    throws IOException {
+        return read(null, merger, copies);
+    }
+
+    /**
+     * Stream the report.
+     *
+     * @param infos
+     *            Receives each class, or <code>null</code>.
+     * @param merger
+     *            Receives each class, or <code>null</code>.
+     * @param copies
+     *            Number of copies of each class given to the merger.
+     * @return The number of classes read.
+     * @throws IOException
+     *             if the report can't be read or parsed.
+     */
+    private int read(final List<SourceFileInfo> infos,
+            final CoverageMerger merger, final int copies)
+    throws IOException {
+        diagnostics = new ParseDiagnostics();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+        InputStream in = new BufferedInputStream(new FileInputStream(file),
+                BUFFER_SIZE);
+        int count = 0;
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                SourceFileInfo current = null;
+                int methodsDepth = 0;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if ("class".equals(name)) {
+                            String fileName =
+                                xml.getAttributeValue(null, "filename");
+                            current = null;
+                            if (null == fileName) {
+                                // skipped with its lines, when lenient
+                                malformed(xml, "class");
+                            } else {
+                                current = new SourceFileInfo(fileName);
+                            }
+                            methodsDepth = 0;
+                        } else if (null == current) {
+                            continue;
+                        } else if ("methods".equals(name)) {
+                            methodsDepth++;
+                        } else if ("line".equals(name) && methodsDepth == 0) {
+                            line(xml, current);
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT
+                            && null != current) {
+                        String name = xml.getLocalName();
+                        if ("methods".equals(name)) {
+                            methodsDepth--;
+                        } else if ("class".equals(name)) {
+                            finish(current);
+                            if (null != infos) {
+                                infos.add(current);
+                            }
+                            if (null != merger) {
+                                merger.add(current, copies);
+                            }
+                            count++;
+                            current = null;
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Couldn't parse " + file + ": "
+                    + e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+        return count;
+    }
+
+    /**
+     * Read a <code>&lt;line&gt;</code> element of a class.
+     *
+     * @param xml
+     *            The reader, on the element.
+     * @param info
+     *            The class.
+     * @throws IOException
+     *             if the element is malformed, and not lenient.
+     */
+    private void line(final XMLStreamReader xml, final SourceFileInfo info)
+    throws IOException {
+        String number = xml.getAttributeValue(null, "number");
+        String hitsValue = xml.getAttributeValue(null, "hits");
+        int lineNumber = -1;
+        long hits = -1;
+        if (null != number && null != hitsValue) {
+            try {
+                lineNumber = Integer.parseInt(number.trim());
+                hits = Long.parseLong(hitsValue.trim());
+            } catch (NumberFormatException e) {
+                lineNumber = -1;
+            }
+        }
+        if (lineNumber <= 0 || hits < 0) {
+            malformed(xml, "line");
+            return;
+        }
+        int h = (int) Math.min(hits, Integer.MAX_VALUE);
+        Map<Integer, Integer> lines = info.getLineInfo();
+        Integer before = lines.get(lineNumber);
+        lines.put(lineNumber, null == before ? h
+                : CoverageMerger.addHits(before, h));
+    }
+
+    /**
+     * Fail on a malformed element, or count it when lenient.
+     *
+     * @param xml
+     *            The reader, on the element.
+     * @param element
+     *            The element's name, for the error.
+     * @throws IOException
+     *             if not lenient.
+     */
+    private void malformed(final XMLStreamReader xml, final String element)
+    throws IOException {
+        int at = xml.getLocation().getLineNumber();
+        if (!lenient) {
+            throw new IOException("Malformed " + element + " at "
+                    + file.getPath() + ':' + at);
+        }
+        diagnostics.add(ParseDiagnostics.Problem.MALFORMED_LINE,
+                file.getPath(), at);
+    }
+
+    /**
+     * Count the lines of a class.
+     *
+     * @param info
+     *            The class.
+     */
+    private static void finish(final SourceFileInfo info) {
+        int hit = 0;
+        for (int h : info.getLineInfo().values()) {
+            if (h > 0) {
+                hit++;
+            }
+        }
+        info.setLf(info.getLineInfo().size());
+        info.setLh(hit);
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Computes the cyclomatic complexity of source files, per file and per
+ * function, for the <code>complexity</code> attributes of the Cobertura
+ * report.
+ * <p>
+ * Sources are found through the source directories and scanned in
+ * parallel by a token scanner for C-like languages (Java, JavaScript,
+ * TypeScript, C, C++, C#, Go, Kotlin, Swift...), which skips comments and
+ * string literals and counts one decision point per <code>if</code>,
+ * <code>for</code>, <code>foreach</code>, <code>while</code>,
+ * <code>case</code>, <code>catch</code>, <code>&amp;&amp;</code>,
+ * <code>||</code> and conditional <code>?</code>. A function's complexity
+ * is one more than the decision points of its lines; a file's is the
+ * average of its functions', or one more than all its decision points if
+ * the coverage data names no function.
+ * <p>
+ * With a cache file, the decision points of each source are kept under
+ * the MD5 of its content, so later runs scan only the sources that
+ * changed.
+ */
+public class ComplexityCalculator {
+
+    /**
+     * Version of the scanner, stored in the cache so that decision points
+     * counted by another version are scanned again.
+     */
+    static final String VERSION = "1";
+
+    /**
+     * Key of the scanner version in the cache file.
+     */
+    private static final String VERSION_KEY = "version";
+
+    /**
+     * Extensions of the files the scanner understands.
+     */
+    private static final String[] EXTENSIONS = {
+        ".java", ".js", ".jsx", ".mjs", ".cjs", ".ts", ".tsx", ".c", ".cc",
+        ".cpp", ".cxx", ".h", ".hh", ".hpp", ".cs", ".go", ".kt", ".scala",
+        ".swift", ".m", ".mm", ".groovy", ".dart", ".php",
+    };
+
+    /**
+     * Keywords that are decision points.
+     */
+    private static final byte[][] KEYWORDS = {
+        bytes("if"), bytes("for"), bytes("foreach"), bytes("while"),
+        bytes("case"), bytes("catch"),
+    };
+
+    /**
+     * Directories the file names are relative to.
+     */
+    private final List<File> sourceDirectories;
+
+    /**
+     * Number of threads to scan with.
+     */
+    private final int threads;
+
+    /**
+     * Where decision points are cached between runs, or <code>null</code>.
+     */
+    private File cacheFile;
+
+    /**
+     * Number of sources scanned by the last {@link #calculate(List)}.
+     */
+    private int scannedCount;
+
+    /**
+     * Number of sources found in the cache by the last
+     * {@link #calculate(List)}.
+     */
+    private int cachedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param sourceDirs
+     *            Directories the file names are relative to.
+     * @param threadCount
+     *            Number of threads to scan with.
+     */
+    public ComplexityCalculator(final List<File> sourceDirs,
+            final int threadCount) {
+        sourceDirectories = sourceDirs;
+        threads = Math.max(1, threadCount);
+    }
+
+    /**
+     * Keep the decision points of each source in a file, and reuse them
+     * for sources whose content didn't change.
+     *
+     * @param f
+     *            The cache file. It is created if it doesn't exist.
+     */
+    public final void setCacheFile(final File f) {
+        cacheFile = f;
+    }
+
+    /**
+     * @return Number of sources scanned by the last
+     *         {@link #calculate(List)}.
+     */
+    public final int getScannedCount() {
+        return scannedCount;
+    }
+
+    /**
+     * @return Number of sources whose decision points came from the cache
+     *         in the last {@link #calculate(List)}.
+     */
+    public final int getCachedCount() {
+        return cachedCount;
+    }
+
+    /**
+     * Compute the complexity of files and their functions. Files whose
+     * source can't be found, or isn't in a language the scanner knows, are
+     * left alone.
+     *
+     * @param infos
+     *            The files.
+     * @throws IOException
+     *             if a source, or the cache, can't be read or written.
+     */
+    public final void calculate(final List<SourceFileInfo> infos)
+    throws IOException {
+        final Map<String, int[]> previous = load();
+        final Map<String, int[]> current =
+            new ConcurrentHashMap<String, int[]>();
+        final AtomicInteger scanned = new AtomicInteger();
+        final AtomicInteger cached = new AtomicInteger();
+        List<Future<int[]>> results = new Vector<Future<int[]>>(infos.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (final SourceFileInfo info : infos) {
+                results.add(pool.submit(new Callable<int[]>() {
+                    public int[] call() throws IOException {
+                        File source = isScannable(info.getFileName())
+                            ? ChecksumVerifier.resolve(sourceDirectories,
+                                    info.getFileName())
+                            : null;
+                        if (null == source) {
+                            return null;
+                        }
+                        ByteBuffer content = map(source);
+                        String key = digest(content);
+                        int[] decisions = previous.get(key);
+                        if (null == decisions) {
+                            decisions = scan(content);
+                            scanned.incrementAndGet();
+                        } else {
+                            cached.incrementAndGet();
+                        }
+                        current.put(key, decisions);
+                        return decisions;
+                    }
+                }));
+            }
+            for (int i = 0; i < infos.size(); i++) {
+                int[] decisions = ChecksumVerifier.get(results.get(i));
+                if (null != decisions) {
+                    apply(infos.get(i), decisions);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        scannedCount = scanned.get();
+        cachedCount = cached.get();
+        save(current);
+    }
+
+    /**
+     * Set the complexity of a file, and of its functions, from the
+     * decision points of its source.
+     *
+     * @param info
+     *            The file.
+     * @param decisions
+     *            The line of each decision point, in order.
+     */
+    static void apply(final SourceFileInfo info, final int[] decisions) {
+        FunctionData functions = info.getFunctions();
+        if (null == functions || functions.size() == 0) {
+            info.setComplexity(1 + decisions.length);
+            return;
+        }
+        long sum = 0;
+        for (int f = 0; f < functions.size(); f++) {
+            int last = functions.getLastLine(f);
+            int count = lowerBound(decisions, last == Integer.MAX_VALUE
+                ? last : last + 1)
+                - lowerBound(decisions, functions.getLine(f));
+            functions.setComplexity(f, 1 + count);
+            sum += 1 + count;
+        }
+        info.setComplexity((double) sum / functions.size());
+    }
+
+    /**
+     * Count the decision points of a source.
+     *
+     * @param src
+     *            The source's content.
+     * @return The line of each decision point, in order; a line appears
+     *         once per decision point on it.
+     */
+    static int[] scan(final ByteBuffer src) {
+        int[] decisions = new int[64];
+        int count = 0;
+        int line = 1;
+        int n = src.limit();
+        int i = 0;
+        byte previous = 0;
+        while (i < n) {
+            byte c = src.get(i);
+            boolean decision = false;
+            if (c == '\n') {
+                line++;
+                i++;
+                continue;
+            } else if (c <= ' ' && c >= 0) {
+                i++;
+                continue;
+            } else if (c == '/' && i + 1 < n && src.get(i + 1) == '/') {
+                while (i < n && src.get(i) != '\n') {
+                    i++;
+                }
+                continue;
+            } else if (c == '/' && i + 1 < n && src.get(i + 1) == '*') {
+                i += 2;
+                while (i < n && !(src.get(i) == '*' && i + 1 < n
+                        && src.get(i + 1) == '/')) {
+                    if (src.get(i) == '\n') {
+                        line++;
+                    }
+                    i++;
+                }
+                i += 2;
+                continue;
+            } else if (c == '"' || c == '\'' || c == '`') {
+                // a string; only template literals span lines
+                i++;
+                while (i < n && src.get(i) != c
+                        && (c == '`' || src.get(i) != '\n')) {
+                    if (src.get(i) == '\n') {
+                        line++;
+                    } else if (src.get(i) == '\\' && i + 1 < n) {
+                        i++;
+                        if (src.get(i) == '\n') {
+                            line++;
+                        }
+                    }
+                    i++;
+                }
+                if (i < n && src.get(i) == c) {
+                    i++;
+                }
+            } else if (isIdentifierStart(c)) {
+                int start = i;
+                while (i < n && (isIdentifierStart(src.get(i))
+                        || (src.get(i) >= '0' && src.get(i) <= '9'))) {
+                    i++;
+                }
+                // #if and #elif are preprocessor directives
+                decision = previous != '#' && isKeyword(src, start, i);
+                c = 'a';
+            } else if (c >= '0' && c <= '9') {
+                while (i < n && (isIdentifierStart(src.get(i))
+                        || (src.get(i) >= '0' && src.get(i) <= '9')
+                        || src.get(i) == '.')) {
+                    i++;
+                }
+            } else if ((c == '&' || c == '|') && i + 1 < n
+                    && src.get(i + 1) == c) {
+                decision = true;
+                i += 2;
+            } else if (c == '?') {
+                int next = nextSignificant(src, i + 1);
+                decision = !isTypeOperand(previous) && next != '.'
+                    && next != '?' && next != ':' && next != '>'
+                    && next != ',' && next != ')';
+                i++;
+                if (i < n && (src.get(i) == '?' || src.get(i) == '.')) {
+                    // ?? and ?. are one token
+                    i++;
+                }
+            } else {
+                i++;
+            }
+            previous = c;
+            if (decision) {
+                if (count == decisions.length) {
+                    decisions = Arrays.copyOf(decisions, count * 2);
+                }
+                decisions[count++] = line;
+            }
+        }
+        return Arrays.copyOf(decisions, count);
+    }
+
+    /**
+     * @param fileName
+     *            A file name from the coverage data.
+     * @return Whether the scanner understands the file's language.
+     */
+    static boolean isScannable(final String fileName) {
+        for (String extension : EXTENSIONS) {
+            if (fileName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a byte may start an identifier. Bytes of multi-byte UTF-8
+     * characters may.
+     *
+     * @param c
+     *            The byte.
+     * @return true for letters, <code>_</code>, <code>$</code> and
+     *         non-ASCII bytes.
+     */
+    private static boolean isIdentifierStart(final byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+            || c == '$' || c < 0;
+    }
+
+    /**
+     * Whether a <code>?</code> after a byte is a type wildcard, as in
+     * <code>List&lt;?&gt;</code> or <code>Map&lt;K, ?&gt;</code>, rather
+     * than a condition.
+     *
+     * @param previous
+     *            The last byte of the previous token.
+     * @return true after <code>&lt;</code> or <code>,</code>.
+     */
+    private static boolean isTypeOperand(final byte previous) {
+        return previous == '<' || previous == ',';
+    }
+
+    /**
+     * Find the next byte that isn't a space.
+     *
+     * @param src
+     *            The source.
+     * @param from
+     *            Where to start.
+     * @return The byte, or <code>0</code> at the end of the source.
+     */
+    private static int nextSignificant(final ByteBuffer src,
+            final int from) {
+        for (int i = from; i < src.limit(); i++) {
+            byte c = src.get(i);
+            if (c < 0 || c > ' ') {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param src
+     *            The source.
+     * @param from
+     *            First byte of an identifier.
+     * @param to
+     *            End of the identifier.
+     * @return Whether the identifier is a decision keyword.
+     */
+    private static boolean isKeyword(final ByteBuffer src, final int from,
+            final int to) {
+        for (byte[] keyword : KEYWORDS) {
+            if (keyword.length != to - from) {
+                continue;
+            }
+            int k = 0;
+            while (k < keyword.length && src.get(from + k) == keyword[k]) {
+                k++;
+            }
+            if (k == keyword.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first of some sorted line numbers that is at least
+     * <code>line</code>.
+     *
+     * @param lines
+     *            Sorted line numbers.
+     * @param line
+     *            A line number.
+     * @return Its position, or <code>lines.length</code>.
+     */
+    private static int lowerBound(final int[] lines, final int line) {
+        int low = 0;
+        int high = lines.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid] < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Map a source file.
+     *
+     * @param source
+     *            The file.
+     * @return Its content.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    private static ByteBuffer map(final File source) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * MD5 of some content.
+     *
+     * @param content
+     *            The content; its position is left alone.
+     * @return The digest in hexadecimal.
+     */
+    static String digest(final ByteBuffer content) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        md5.update(content.duplicate());
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : md5.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read the cache file.
+     *
+     * @return The decision points of each digest; empty without a cache
+     *         file, or with one written by another version.
+     * @throws IOException
+     *             if the cache file can't be read.
+     */
+    private Map<String, int[]> load() throws IOException {
+        Map<String, int[]> decisions = new HashMap<String, int[]>();
+        if (null == cacheFile || !cacheFile.isFile()) {
+            return decisions;
+        }
+        Properties cache = new Properties();
+        InputStream in = new FileInputStream(cacheFile);
+        try {
+            cache.load(in);
+        } finally {
+            in.close();
+        }
+        if (!VERSION.equals(cache.getProperty(VERSION_KEY))) {
+            return decisions;
+        }
+        for (String key : cache.stringPropertyNames()) {
+            if (VERSION_KEY.equals(key)) {
+                continue;
+            }
+            String value = cache.getProperty(key);
+            String[] lines = value.isEmpty() ? new String[0]
+                : value.split(",");
+            int[] parsed = new int[lines.length];
+            try {
+                for (int i = 0; i < lines.length; i++) {
+                    parsed[i] = Integer.parseInt(lines[i]);
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            decisions.put(key, parsed);
+        }
+        return decisions;
+    }
+
+    /**
+     * Write the cache file, with the sources of this run only, so that
+     * the decision points of old versions of sources don't pile up.
+     *
+     * @param decisions
+     *            The decision points of each digest.
+     * @throws IOException
+     *             if the cache file can't be written.
+     */
+    private void save(final Map<String, int[]> decisions)
+    throws IOException {
+        if (null == cacheFile) {
+            return;
+        }
+        Properties cache = new Properties();
+        cache.setProperty(VERSION_KEY, VERSION);
+        for (Map.Entry<String, int[]> e : decisions.entrySet()) {
+            StringBuilder sb = new StringBuilder();
+            for (int line : e.getValue()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(line);
+            }
+            cache.setProperty(e.getKey(), sb.toString());
+        }
+        File parent = cacheFile.getParentFile();
+        if (null != parent && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create " + parent);
+        }
+        OutputStream out = new FileOutputStream(cacheFile);
+        try {
+            cache.store(out, "lcovr complexity cache");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param s
+     *            An ASCII string.
+     * @return Its bytes.
+     */
+    private static byte[] bytes(final String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+
+/**
+ * Queries over a coverage index written by {@link CoverageIndexWriter}. The
+ * file is memory-mapped and read in place: opening it reads only the
+ * header, a file is found by binary search over the sorted directory, and
+ * a line by binary search over that file's sorted line numbers. Queries
+ * don't allocate, apart from the file names compared along the way, and are
+ * safe from several threads.
+ *
+ * <pre>
+ * header    magic "LCVI", version, file count, lines found, lines hit,
+ *           unused, directory offset (long), names offset (long)
+ * data      per file: int line numbers, ascending, then int hit counts
+ * names     UTF-8 file names
+ * directory per file, sorted by name: data offset (long), line count,
+ *           lines hit, name offset, name length
+ * </pre>
+ *
+ * All numbers are little-endian. Index files are limited to 2 GB.
+ */
+public final class CoverageIndex {
+    /**
+     * First four bytes of an index: <code>LCVI</code>.
+     */
+    static final int MAGIC = 0x4956434c;
+
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Size of the header.
+     */
+    static final int HEADER_SIZE = 40;
+
+    /**
+     * Size of a directory entry.
+     */
+    static final int ENTRY_SIZE = 24;
+
+    /**
+     * Encoding of file names.
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The mapped index.
+     */
+    private final ByteBuffer index;
+
+    /**
+     * Number of files.
+     */
+    private final int fileCount;
+
+    /**
+     * Offset of the directory.
+     */
+    private final int directory;
+
+    /**
+     * Offset of the names.
+     */
+    private final int names;
+
+    /**
+     * Constructor. Use {@link #open(File)}.
+     * @param buffer the mapped index.
+     * @throws IOException if it isn't an index.
+     */
+    private CoverageIndex(final ByteBuffer buffer) throws IOException {
+        index = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (index.limit() < HEADER_SIZE || index.getInt(0) != MAGIC) {
+            throw new IOException("Not a coverage index");
+        }
+        if (index.getInt(4) != VERSION) {
+            throw new IOException("Unsupported coverage index version "
+                    + index.getInt(4));
+        }
+        fileCount = index.getInt(8);
+        directory = (int) index.getLong(24);
+        names = (int) index.getLong(32);
+    }
+
+    /**
+     * Map an index.
+     *
+     * @param f
+     *            The index file.
+     * @return The index.
+     * @throws IOException
+     *             if it can't be mapped, or isn't an index.
+     */
+    public static CoverageIndex open(final File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(f + " is larger than 2 GB");
+            }
+            return new CoverageIndex(channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return The number of files.
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return The number of instrumented lines of every file.
+     */
+    public int getLinesFound() {
+        return index.getInt(12);
+    }
+
+    /**
+     * @return The number of lines of every file executed at least once.
+     */
+    public int getLinesHit() {
+        return index.getInt(16);
+    }
+
+    /**
+     * Get a file's name.
+     *
+     * @param file
+     *            The file's position, from 0 to {@link #getFileCount()}.
+     * @return Its name.
+     */
+    public String getFileName(final int file) {
+        int entry = directory + file * ENTRY_SIZE;
+        byte[] name = new byte[index.getInt(entry + 20)];
+        ByteBuffer b = index.duplicate();
+        b.position(names + index.getInt(entry + 16));
+        b.get(name);
+        return new String(name, UTF8);
+    }
+
+    /**
+     * Find a file by name.
+     *
+     * @param fileName
+     *            The file's name, as in the coverage records.
+     * @return Its position, or <code>-1</code> if it isn't in the index.
+     */
+    public int find(final String fileName) {
+        int low = 0;
+        int high = fileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = getFileName(mid).compareTo(fileName);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param file
+     *            A file's position.
+     * @return Its number of instrumented lines.
+     */
+    public int getLinesFound(final int file) {
+        return index.getInt(directory + file * ENTRY_SIZE + 8);
+    }
+
+    /**
+     * @param file
+     *            A file's position.
+     * @return Its number of lines executed at least once.
+     */
+    public int getLinesHit(final int file) {
+        return index.getInt(directory + file * ENTRY_SIZE + 12);
+    }
+
+    /**
+     * Get the hit count of a line.
+     *
+     * @param fileName
+     *            The file's name.
+     * @param line
+     *            The line number.
+     * @return Its hit count, or <code>-1</code> if the file isn't in the
+     *         index or the line isn't instrumented.
+     */
+    public int getHits(final String fileName, final int line) {
+        int file = find(fileName);
+        if (file < 0) {
+            return -1;
+        }
+        int data = data(file);
+        int count = getLinesFound(file);
+        int i = search(data, count, line);
+        return i < count && index.getInt(data + 4 * i) == line
+            ? index.getInt(data + 4 * (count + i)) : -1;
+    }
+
+    /**
+     * Visit the instrumented lines of a file numbered <code>first</code> to
+     * <code>last</code>, in order.
+     *
+     * @param fileName
+     *            The file's name.
+     * @param first
+     *            First line number, inclusive.
+     * @param last
+     *            Last line number, inclusive.
+     * @param visitor
+     *            Receives each line.
+     * @return <code>false</code> if the file isn't in the index.
+     */
+    public boolean forEachLine(final String fileName, final int first,
+            final int last, final LineVisitor visitor) {
+        int file = find(fileName);
+        if (file < 0) {
+            return false;
+        }
+        int data = data(file);
+        int count = getLinesFound(file);
+        for (int i = search(data, count, first); i < count; i++) {
+            int line = index.getInt(data + 4 * i);
+            if (line > last) {
+                break;
+            }
+            visitor.line(line, index.getInt(data + 4 * (count + i)));
+        }
+        return true;
+    }
+
+    /**
+     * @param file
+     *            A file's position.
+     * @return The offset of its line numbers.
+     */
+    private int data(final int file) {
+        return (int) index.getLong(directory + file * ENTRY_SIZE);
+    }
+
+    /**
+     * Find the first line numbered at least <code>line</code>.
+     *
+     * @param data
+     *            Offset of the file's line numbers.
+     * @param count
+     *            Number of line numbers.
+     * @param line
+     *            The line number.
+     * @return Its position, or <code>count</code> if every line is before.
+     */
+    private int search(final int data, final int count, final int line) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getInt(data + 4 * mid) < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * A {@link CoverageWriter} that writes a binary index, to be memory-mapped
+ * and queried by {@link CoverageIndex} without parsing a report. The lines
+ * of each file are written as soon as the file ends; only the directory,
+ * one small entry per file, is kept until {@link #end()} sorts it by name.
+ */
+public class CoverageIndexWriter implements CoverageWriter {
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The file to write.
+     */
+    private final File outputFile;
+
+    /**
+     * The open output, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private FileChannel channel;
+
+    /**
+     * Bytes not written to {@link #channel} yet.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * One entry per file written.
+     */
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * Totals, for the header.
+     */
+    private int totalFound;
+
+    /**
+     * Totals, for the header.
+     */
+    private int totalHit;
+
+    /**
+     * Packed lines of the current file, as in {@link CoverageMerger}.
+     */
+    private long[] lines = new long[1024];
+
+    /**
+     * Number of lines in {@link #lines}.
+     */
+    private int lineCount;
+
+    /**
+     * The file being written.
+     */
+    private String current;
+
+    /**
+     * Constructor.
+     *
+     * @param output
+     *            The file to write the index to.
+     */
+    public CoverageIndexWriter(final File output) {
+        outputFile = output;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void begin(final List<File> sourceDirectories,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        channel.position(CoverageIndex.HEADER_SIZE);
+        buffer.clear();
+        entries.clear();
+        totalFound = linesFound;
+        totalHit = linesHit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginPackage(final String packageName,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit,
+            final double complexity) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginClass(final SourceFileInfo info) {
+        current = info.getFileName();
+        lineCount = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void line(final int lineNumber, final int hits) {
+        if (lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, lineCount * 2);
+        }
+        lines[lineCount++] = CoverageMerger.pack(lineNumber, hits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endClass() throws IOException {
+        int length = CoverageMerger.normalize(lines, lineCount);
+        int hit = 0;
+        long offset = position();
+        for (int i = 0; i < length; i++) {
+            putInt((int) (lines[i] >> 32));
+        }
+        for (int i = 0; i < length; i++) {
+            putInt((int) lines[i]);
+            if ((int) lines[i] > 0) {
+                hit++;
+            }
+        }
+        entries.add(new Entry(current, offset, length, hit));
+        current = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endPackage() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void end() throws IOException {
+        try {
+            Collections.sort(entries, new Comparator<Entry>() {
+                public int compare(final Entry a, final Entry b) {
+                    return a.fileName.compareTo(b.fileName);
+                }
+            });
+            long names = position();
+            int nameOffset = 0;
+            for (Entry e : entries) {
+                e.nameOffset = nameOffset;
+                nameOffset += e.name.length;
+                for (byte b : e.name) {
+                    if (!buffer.hasRemaining()) {
+                        flush();
+                    }
+                    buffer.put(b);
+                }
+            }
+            long directory = position();
+            for (Entry e : entries) {
+                if (buffer.remaining() < CoverageIndex.ENTRY_SIZE) {
+                    flush();
+                }
+                buffer.putLong(e.data);
+                buffer.putInt(e.lineCount);
+                buffer.putInt(e.linesHit);
+                buffer.putInt(e.nameOffset);
+                buffer.putInt(e.name.length);
+            }
+            if (position() > Integer.MAX_VALUE) {
+                throw new IOException(outputFile + " would be larger than 2 GB");
+            }
+            flush();
+            buffer.putInt(CoverageIndex.MAGIC);
+            buffer.putInt(CoverageIndex.VERSION);
+            buffer.putInt(entries.size());
+            buffer.putInt(totalFound);
+            buffer.putInt(totalHit);
+            buffer.putInt(0);
+            buffer.putLong(directory);
+            buffer.putLong(names);
+            channel.position(0);
+            flush();
+        } finally {
+            channel.close();
+            channel = null;
+            entries.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void abort() throws IOException {
+        entries.clear();
+        if (null != channel) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * @return The offset the next byte is written at.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private long position() throws IOException {
+        return channel.position() + buffer.position();
+    }
+
+    /**
+     * Write a little-endian int.
+     *
+     * @param n
+     *            The number.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void putInt(final int n) throws IOException {
+        if (buffer.remaining() < 4) {
+            flush();
+        }
+        buffer.putInt(n);
+    }
+
+    /**
+     * Write the buffer to the channel.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * A file of the directory.
+     */
+    private static final class Entry {
+        /**
+         * The file's name.
+         */
+        private final String fileName;
+
+        /**
+         * The file's name, in UTF-8.
+         */
+        private final byte[] name;
+
+        /**
+         * Offset of its line numbers.
+         */
+        private final long data;
+
+        /**
+         * Number of lines.
+         */
+        private final int lineCount;
+
+        /**
+         * Number of lines hit.
+         */
+        private final int linesHit;
+
+        /**
+         * Offset of its name among the names.
+         */
+        private int nameOffset;
+
+        /**
+         * Constructor.
+         * @param file the file's name.
+         * @param dataOffset offset of its line numbers.
+         * @param count number of lines.
+         * @param hit number of lines hit.
+         */
+        Entry(final String file, final long dataOffset, final int count,
+                final int hit) {
+            fileName = file;
+            name = file.getBytes(CoverageIndex.UTF8);
+            data = dataOffset;
+            lineCount = count;
+            linesHit = hit;
+        }
+    }
+}
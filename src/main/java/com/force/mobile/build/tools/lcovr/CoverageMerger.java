@@ -0,0 +1,935 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
+import com.force.mobile.build.tools.lcovr.data.SortedLineStore;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Merges {@link SourceFileInfo}s that describe the same source file, summing
+ * the hit counts of each line.
+ *
+ * The aggregate is kept in memory, sorted by file name. When its estimated
+ * size passes a limit, it is spilled to a temporary file as a sorted run,
+ * and the runs are k-way merged by {@link #finish()}. The memory used is
+ * therefore bounded by the limit, however large the input.
+ *
+ * @author Jason Schroeder
+ */
+public class CoverageMerger {
+
+    /**
+     * Estimated heap bytes per source file, besides its name and lines.
+     */
+    private static final int FILE_OVERHEAD = 128;
+
+    /**
+     * Heap bytes per line: one packed <code>long</code>.
+     */
+    private static final int LINE_SIZE = 8;
+
+    /**
+     * Heap bytes per branch: four <code>int</code>s.
+     */
+    private static final int BRANCH_SIZE = 16;
+
+    /**
+     * Heap bytes per function: three <code>int</code>s and a reference to a
+     * pooled name.
+     */
+    private static final int FUNCTION_SIZE = 16;
+
+    /**
+     * Size of the buffers used to read and write runs.
+     */
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Estimated heap bytes after which the aggregate is spilled.
+     */
+    private final long maxMemory;
+
+    /**
+     * Directory for the spilled runs.
+     */
+    private final File tempDirectory;
+
+    /**
+     * The in-memory aggregate, sorted by file name.
+     */
+    private final Map<String, Accumulator> pending =
+        new TreeMap<String, Accumulator>();
+
+    /**
+     * Estimated heap bytes used by {@link #pending}.
+     */
+    private long pendingBytes;
+
+    /**
+     * Spilled runs, each sorted by file name.
+     */
+    private final List<File> runs = new Vector<File>();
+
+    /**
+     * Number of runs spilled.
+     */
+    private int spillCount;
+
+    /**
+     * Where the merged line information is kept, or <code>null</code> for
+     * the heap.
+     */
+    private OffHeapLineStorage lineStorage;
+
+    /**
+     * Number of records added.
+     */
+    private int recordCount;
+
+    /**
+     * Where the function names of spilled runs are kept, once read back.
+     */
+    private final NamePool names = new NamePool();
+
+    /**
+     * Reusable buffer for the lines of the record being added.
+     */
+    private long[] scratch = new long[1024];
+
+    /**
+     * Create a merger that keeps everything in memory.
+     */
+    public CoverageMerger() {
+        this(Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Create a merger with a memory limit.
+     *
+     * @param maxMemoryBytes
+     *            Estimated heap bytes after which the aggregate is spilled to
+     *            disk.
+     * @param tempDir
+     *            Directory for the spilled runs, or <code>null</code> for the
+     *            default temporary directory.
+     */
+    public CoverageMerger(final long maxMemoryBytes, final File tempDir) {
+        maxMemory = maxMemoryBytes;
+        tempDirectory = tempDir;
+    }
+
+    /**
+     * Keep the line information of the merged objects off the Java heap.
+     *
+     * @param storage
+     *            Where to keep line information, or <code>null</code> for the
+     *            heap.
+     */
+    public final void setLineStorage(final OffHeapLineStorage storage) {
+        lineStorage = storage;
+    }
+
+    /**
+     * Get the number of records added so far.
+     *
+     * @return Number of records added.
+     */
+    public final int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Get the number of runs spilled to disk so far.
+     *
+     * @return Number of spilled runs.
+     */
+    public final int getSpillCount() {
+        return spillCount;
+    }
+
+    /**
+     * Merge a record into the aggregate. Its line information is copied, so
+     * it may be discarded afterwards.
+     *
+     * @param info
+     *            Record to add.
+     * @throws IOException
+     *             if the aggregate has to be spilled, and can't be.
+     */
+    public final void add(final SourceFileInfo info) throws IOException {
+        add(info, 1);
+    }
+
+    /**
+     * Merge several copies of a record into the aggregate, as if it had been
+     * added that many times.
+     *
+     * @param info
+     *            Record to add.
+     * @param copies
+     *            Number of copies, at least 1.
+     * @throws IOException
+     *             if the aggregate has to be spilled, and can't be.
+     */
+    public final void add(final SourceFileInfo info, final int copies)
+    throws IOException {
+        final int[] count = new int[1];
+        info.forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                if (count[0] == scratch.length) {
+                    scratch = Arrays.copyOf(scratch, scratch.length * 2);
+                }
+                scratch[count[0]++] = pack(lineNumber,
+                        multiplyHits(hits, copies));
+            }
+        });
+        int length = SourceFileInfo.normalizeLines(scratch, count[0]);
+        recordCount += copies;
+
+        Accumulator acc = pending.get(info.getFileName());
+        if (null == acc) {
+            acc = new Accumulator(info.getFileName(), copies, info.getLf(),
+                    info.getLh(), Arrays.copyOf(scratch, length), length);
+            acc.brf = info.getBrf();
+            acc.brh = info.getBrh();
+            acc.fnf = info.getFnf();
+            acc.fnh = info.getFnh();
+            pending.put(acc.name, acc);
+            pendingBytes += FILE_OVERHEAD + 2L * acc.name.length()
+                + (long) LINE_SIZE * length;
+        } else {
+            int before = acc.length;
+            acc.merge(copies, scratch, length);
+            pendingBytes += (long) LINE_SIZE * (acc.length - before);
+        }
+        if (null != info.getBranches()) {
+            int before = acc.branchCount();
+            acc.branches = BranchData.merge(acc.branches, info.getBranches(),
+                    copies);
+            pendingBytes += (long) BRANCH_SIZE
+                * (acc.branchCount() - before);
+        }
+        if (null != info.getFunctions()) {
+            int before = acc.functionCount();
+            acc.functions = FunctionData.merge(acc.functions,
+                    info.getFunctions(), copies);
+            pendingBytes += (long) FUNCTION_SIZE
+                * (acc.functionCount() - before);
+        }
+        if (pendingBytes > maxMemory) {
+            spill();
+        }
+    }
+
+    /**
+     * Add a sorted run, as returned by {@link #finishRun()} of another
+     * merger. The run is merged, and deleted, by the next call to
+     * {@link #finish()} or {@link #finishRun()}.
+     *
+     * @param run
+     *            The run file.
+     */
+    final void addRun(final File run) {
+        runs.add(run);
+    }
+
+    /**
+     * Finish merging.
+     *
+     * @return The merged objects, sorted by file name.
+     * @throws IOException
+     *             if a spilled run can't be read.
+     */
+    public final Vector<SourceFileInfo> finish() throws IOException {
+        final Vector<SourceFileInfo> merged = new Vector<SourceFileInfo>();
+        if (runs.isEmpty()) {
+            for (Accumulator acc : pending.values()) {
+                merged.add(toInfo(acc));
+            }
+            pending.clear();
+            pendingBytes = 0;
+            return merged;
+        }
+        mergeRuns(new Sink() {
+            public void accept(final Accumulator acc) throws IOException {
+                merged.add(toInfo(acc));
+            }
+        });
+        return merged;
+    }
+
+    /**
+     * Finish merging into a single sorted run, instead of objects, so that
+     * it can be merged again with {@link #addRun(File)}. The caller owns the
+     * returned file.
+     *
+     * @return The run file.
+     * @throws IOException
+     *             if a run can't be read or written.
+     */
+    final File finishRun() throws IOException {
+        if (runs.isEmpty() || (runs.size() == 1 && pending.isEmpty())) {
+            if (runs.isEmpty()) {
+                spill();
+            }
+            return runs.remove(0);
+        }
+        File run = File.createTempFile("lcovr", ".run", tempDirectory);
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run),
+                        RUN_BUFFER_SIZE));
+        boolean done = false;
+        try {
+            mergeRuns(new Sink() {
+                public void accept(final Accumulator acc) throws IOException {
+                    write(out, acc);
+                }
+            });
+            out.close();
+            done = true;
+        } finally {
+            if (!done) {
+                out.close();
+                if (!run.delete()) {
+                    run.deleteOnExit();
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Spill the in-memory aggregate, k-way merge every run, and delete them.
+     *
+     * @param sink
+     *            Receives the merged entries, sorted by file name.
+     * @throws IOException
+     *             if a run can't be read, or the sink fails.
+     */
+    private void mergeRuns(final Sink sink) throws IOException {
+        if (!pending.isEmpty()) {
+            spill();
+        }
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+                runs.size(), new Comparator<RunReader>() {
+                    public int compare(final RunReader a, final RunReader b) {
+                        return a.current.name.compareTo(b.current.name);
+                    }
+                });
+        try {
+            for (File run : runs) {
+                advance(new RunReader(run, names), queue);
+            }
+            while (!queue.isEmpty()) {
+                RunReader head = queue.poll();
+                Accumulator acc = head.current;
+                advance(head, queue);
+                while (!queue.isEmpty()
+                        && queue.peek().current.name.equals(acc.name)) {
+                    RunReader same = queue.poll();
+                    acc.merge(same.current.records, same.current.lines,
+                            same.current.length);
+                    acc.branches = BranchData.merge(acc.branches,
+                            same.current.branches, 1);
+                    acc.functions = FunctionData.merge(acc.functions,
+                            same.current.functions, 1);
+                    advance(same, queue);
+                }
+                sink.accept(acc);
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+            for (File run : runs) {
+                if (!run.delete()) {
+                    run.deleteOnExit();
+                }
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * Move a run reader to its next entry, and back into the queue if it has
+     * one. Otherwise, or if the entry can't be read, close it.
+     *
+     * @param reader
+     *            The reader whose entry was consumed.
+     * @param queue
+     *            The queue to put it back to.
+     * @throws IOException
+     *             if the run can't be read.
+     */
+    private static void advance(final RunReader reader,
+            final PriorityQueue<RunReader> queue) throws IOException {
+        boolean more = false;
+        try {
+            more = reader.next();
+        } finally {
+            if (more) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Write the in-memory aggregate to a new run, and clear it.
+     *
+     * @throws IOException
+     *             if the run can't be written.
+     */
+    private void spill() throws IOException {
+        File run = File.createTempFile("lcovr", ".run", tempDirectory);
+        runs.add(run);
+        spillCount++;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run), RUN_BUFFER_SIZE));
+        try {
+            for (Accumulator acc : pending.values()) {
+                write(out, acc);
+            }
+        } finally {
+            out.close();
+        }
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Write one entry of a run.
+     *
+     * @param out
+     *            The run being written.
+     * @param acc
+     *            The entry.
+     * @throws IOException
+     *             if the run can't be written.
+     */
+    private static void write(final DataOutputStream out,
+            final Accumulator acc) throws IOException {
+        out.writeUTF(acc.name);
+        out.writeInt(acc.records);
+        out.writeInt(acc.lf);
+        out.writeInt(acc.lh);
+        out.writeInt(acc.length);
+        for (int i = 0; i < acc.length; i++) {
+            out.writeLong(acc.lines[i]);
+        }
+        out.writeInt(acc.brf);
+        out.writeInt(acc.brh);
+        BranchData b = acc.branches;
+        out.writeInt(null == b ? -1 : b.size());
+        for (int i = 0; null != b && i < b.size(); i++) {
+            out.writeInt(b.getLine(i));
+            out.writeInt(b.getBlock(i));
+            out.writeInt(b.getBranch(i));
+            out.writeInt(b.getTaken(i));
+        }
+        out.writeInt(acc.fnf);
+        out.writeInt(acc.fnh);
+        FunctionData f = acc.functions;
+        out.writeInt(null == f ? -1 : f.size());
+        for (int i = 0; null != f && i < f.size(); i++) {
+            out.writeUTF(f.getName(i));
+            out.writeInt(f.getLine(i));
+            out.writeInt(f.getEndLine(i));
+            out.writeInt(f.getHits(i));
+        }
+    }
+
+    /**
+     * Turn an accumulator into a {@link SourceFileInfo}. Merged records get
+     * their <code>LF</code>/<code>LH</code> recounted from the summed lines,
+     * their <code>BRF</code>/<code>BRH</code> from the summed branches, and
+     * their <code>FNF</code>/<code>FNH</code> from the summed functions.
+     *
+     * @param acc
+     *            The accumulator.
+     * @return A new object holding the accumulated information.
+     * @throws IOException
+     *             if the line storage fails.
+     */
+    private SourceFileInfo toInfo(final Accumulator acc) throws IOException {
+        SourceFileInfo info = new SourceFileInfo(acc.name);
+        if (acc.records > 1) {
+            int hit = 0;
+            for (int i = 0; i < acc.length; i++) {
+                if ((int) acc.lines[i] > 0) {
+                    hit++;
+                }
+            }
+            info.setLf(acc.length);
+            info.setLh(hit);
+        } else {
+            info.setLf(acc.lf);
+            info.setLh(acc.lh);
+        }
+        info.setBranches(acc.branches);
+        if (null == acc.branches || acc.records == 1) {
+            info.setBrf(acc.brf);
+            info.setBrh(acc.brh);
+        }
+        info.setFunctions(acc.functions);
+        if (null == acc.functions || acc.records == 1) {
+            info.setFnf(acc.fnf);
+            info.setFnh(acc.fnh);
+        }
+        if (null == lineStorage) {
+            info.setLineStore(new PackedLineStore(acc.lines, acc.length));
+        } else {
+            info.setLineStore(lineStorage.store(acc.lines, acc.length));
+        }
+        return info;
+    }
+
+    /**
+     * Pack a line number and its hits into one <code>long</code>, sorting by
+     * line number.
+     *
+     * @param lineNumber
+     *            The source line number.
+     * @param hits
+     *            The number of times that line was executed.
+     * @return The packed line.
+     */
+    static long pack(final int lineNumber, final int hits) {
+        return ((long) lineNumber << 32) | (hits & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Add two hit counts, without overflowing.
+     *
+     * @param a
+     *            A hit count.
+     * @param b
+     *            Another hit count.
+     * @return The sum, capped at <code>Integer.MAX_VALUE</code>.
+     */
+    static int addHits(final int a, final int b) {
+        long sum = (long) a + b;
+        if (sum > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Multiply a hit count, without overflowing.
+     *
+     * @param hits
+     *            A hit count.
+     * @param copies
+     *            Number of copies.
+     * @return The product, capped at <code>Integer.MAX_VALUE</code>.
+     */
+    static int multiplyHits(final int hits, final int copies) {
+        if (copies == 1) {
+            return hits;
+        }
+        return (int) Math.min((long) hits * copies, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sort packed lines, and sum the hits of repeated line numbers.
+     *
+     * @param lines
+     *            Packed lines, modified in place.
+     * @param length
+     *            Number of packed lines.
+     * @return The number of distinct lines left at the front of
+     *         <code>lines</code>.
+     */
+    static int normalize(final long[] lines, final int length) {
+        Arrays.sort(lines, 0, length);
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            if (out > 0 && lines[out - 1] >> 32 == lines[i] >> 32) {
+                lines[out - 1] = pack((int) (lines[i] >> 32),
+                        addHits((int) lines[out - 1], (int) lines[i]));
+            } else {
+                lines[out++] = lines[i];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Merge two sorted arrays of distinct packed lines, summing the hits of
+     * lines in both.
+     *
+     * @param a
+     *            Packed lines.
+     * @param aLength
+     *            Number of lines in <code>a</code>.
+     * @param b
+     *            Other packed lines.
+     * @param bLength
+     *            Number of lines in <code>b</code>.
+     * @return A new array; its length is the number of distinct lines.
+     */
+    static long[] mergeLines(final long[] a, final int aLength,
+            final long[] b, final int bLength) {
+        long[] out = new long[aLength + bLength];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < aLength && j < bLength) {
+            long lineA = a[i] >> 32;
+            long lineB = b[j] >> 32;
+            if (lineA < lineB) {
+                out[k++] = a[i++];
+            } else if (lineB < lineA) {
+                out[k++] = b[j++];
+            } else {
+                out[k++] = pack((int) lineA, addHits((int) a[i++], (int) b[j++]));
+            }
+        }
+        while (i < aLength) {
+            out[k++] = a[i++];
+        }
+        while (j < bLength) {
+            out[k++] = b[j++];
+        }
+        return k == out.length ? out : Arrays.copyOf(out, k);
+    }
+
+    /**
+     * Receives merged entries.
+     */
+    private interface Sink {
+        /**
+         * Receive one merged entry.
+         *
+         * @param acc
+         *            The entry.
+         * @throws IOException
+         *             on any i/o error.
+         */
+        void accept(Accumulator acc) throws IOException;
+    }
+
+    /**
+     * The merged information about one source file.
+     */
+    private static final class Accumulator {
+        /**
+         * The file name.
+         */
+        private final String name;
+
+        /**
+         * Number of records merged.
+         */
+        private int records;
+
+        /**
+         * <code>LF</code> of the first record.
+         */
+        private final int lf;
+
+        /**
+         * <code>LH</code> of the first record.
+         */
+        private final int lh;
+
+        /**
+         * Sorted, distinct packed lines.
+         */
+        private long[] lines;
+
+        /**
+         * Number of lines used in {@link #lines}.
+         */
+        private int length;
+
+        /**
+         * Sorted, distinct branches, or <code>null</code>.
+         */
+        private BranchData branches;
+
+        /**
+         * <code>BRF</code> of the first record.
+         */
+        private int brf;
+
+        /**
+         * <code>BRH</code> of the first record.
+         */
+        private int brh;
+
+        /**
+         * Functions with distinct names, or <code>null</code>.
+         */
+        private FunctionData functions;
+
+        /**
+         * <code>FNF</code> of the first record.
+         */
+        private int fnf;
+
+        /**
+         * <code>FNH</code> of the first record.
+         */
+        private int fnh;
+
+        /**
+         * Constructor.
+         *
+         * @param fileName
+         *            The file name.
+         * @param recordCount
+         *            Number of records already merged.
+         * @param linesFound
+         *            <code>LF</code> of the first record.
+         * @param linesHit
+         *            <code>LH</code> of the first record.
+         * @param packedLines
+         *            Sorted, distinct packed lines.
+         * @param lineCount
+         *            Number of lines used in <code>packedLines</code>.
+         */
+        Accumulator(final String fileName, final int recordCount,
+                final int linesFound, final int linesHit,
+                final long[] packedLines, final int lineCount) {
+            name = fileName;
+            records = recordCount;
+            lf = linesFound;
+            lh = linesHit;
+            lines = packedLines;
+            length = lineCount;
+        }
+
+        /**
+         * Sum other lines into this accumulator.
+         *
+         * @param recordCount
+         *            Number of records the other lines come from.
+         * @param other
+         *            Sorted, distinct packed lines.
+         * @param otherLength
+         *            Number of lines used in <code>other</code>.
+         */
+        void merge(final int recordCount, final long[] other,
+                final int otherLength) {
+            lines = mergeLines(lines, length, other, otherLength);
+            length = lines.length;
+            records += recordCount;
+        }
+
+        /**
+         * @return The number of branches.
+         */
+        int branchCount() {
+            return null == branches ? 0 : branches.size();
+        }
+
+        /**
+         * @return The number of functions.
+         */
+        int functionCount() {
+            return null == functions ? 0 : functions.size();
+        }
+    }
+
+    /**
+     * Reads a spilled run back, one source file at a time.
+     */
+    private static final class RunReader {
+        /**
+         * The run.
+         */
+        private final DataInputStream in;
+
+        /**
+         * The entry read by the last call to {@link #next()}.
+         */
+        private Accumulator current;
+
+        /**
+         * Where function names are kept.
+         */
+        private final NamePool names;
+
+        /**
+         * Open a run.
+         *
+         * @param run
+         *            The run file.
+         * @param pool
+         *            Where function names are kept.
+         * @throws IOException
+         *             if the run can't be opened.
+         */
+        RunReader(final File run, final NamePool pool) throws IOException {
+            names = pool;
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        /**
+         * Read the next entry into {@link #current}.
+         *
+         * @return false at the end of the run.
+         * @throws IOException
+         *             if the run can't be read.
+         */
+        boolean next() throws IOException {
+            String name;
+            try {
+                name = in.readUTF();
+            } catch (EOFException eof) {
+                current = null;
+                return false;
+            }
+            int records = in.readInt();
+            int lf = in.readInt();
+            int lh = in.readInt();
+            int length = in.readInt();
+            long[] lines = new long[length];
+            for (int i = 0; i < length; i++) {
+                lines[i] = in.readLong();
+            }
+            current = new Accumulator(name, records, lf, lh, lines, length);
+            current.brf = in.readInt();
+            current.brh = in.readInt();
+            int branchCount = in.readInt();
+            if (branchCount >= 0) {
+                current.branches = new BranchData(branchCount);
+                for (int i = 0; i < branchCount; i++) {
+                    current.branches.add(in.readInt(), in.readInt(),
+                            in.readInt(), in.readInt());
+                }
+            }
+            current.fnf = in.readInt();
+            current.fnh = in.readInt();
+            int functionCount = in.readInt();
+            if (functionCount >= 0) {
+                current.functions = new FunctionData(functionCount);
+                for (int i = 0; i < functionCount; i++) {
+                    String function = names.intern(in.readUTF());
+                    int line = in.readInt();
+                    int end = in.readInt();
+                    current.functions.add(line, end, function, in.readInt());
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Close the run.
+         *
+         * @throws IOException
+         *             on any i/o error.
+         */
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A {@link SortedLineStore} over sorted packed lines on the heap.
+     */
+    private static final class PackedLineStore implements SortedLineStore {
+        /**
+         * Sorted packed lines.
+         */
+        private final long[] lines;
+
+        /**
+         * Number of lines used in {@link #lines}.
+         */
+        private final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param packedLines
+         *            Sorted packed lines.
+         * @param lineCount
+         *            Number of lines used in <code>packedLines</code>.
+         */
+        PackedLineStore(final long[] packedLines, final int lineCount) {
+            lines = packedLines;
+            length = lineCount;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void accept(final LineVisitor visitor) {
+            for (int i = 0; i < length; i++) {
+                visitor.line((int) (lines[i] >> 32), (int) lines[i]);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void accept(final int first, final int last,
+                final LineVisitor visitor) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if ((int) (lines[mid] >> 32) < first) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < length && (int) (lines[i] >> 32) <= last;
+                    i++) {
+                visitor.line((int) (lines[i] >> 32), (int) lines[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.force.mobile.build.tools.lcovr.data.CoverageModel;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Walks a list of {@link SourceFileInfo}s once, package by package, and
+ * feeds the result to any number of {@link CoverageWriter}s. The packages,
+ * their files and their line counts come from a {@link CoverageModel}.
+ *
+ * @author Jason Schroeder
+ */
+public class CoverageTraversal {
+
+    /**
+     * The model to traverse. Set in the constructor.
+     */
+    private final CoverageModel model;
+
+    /**
+     * List of sources.
+     *
+     * @see #setSourceDirectories(List)
+     */
+    private List<File> sources = Collections.emptyList();
+
+    /**
+     * Constructor.
+     *
+     * @param information
+     *            A list of {@link SourceFileInfo} objects to traverse.
+     */
+    public CoverageTraversal(final List<SourceFileInfo> information) {
+        this(new CoverageModel(information));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param coverage
+     *            The model to traverse.
+     */
+    public CoverageTraversal(final CoverageModel coverage) {
+        this.model = coverage;
+    }
+
+    /**
+     * Set a list of source directories. Your filenames in your
+     * {@link SourceFileInfo} will be relative to one of these directories.
+     *
+     * @param dirs
+     *            Source directories.
+     */
+    public final void setSourceDirectories(final List<File> dirs) {
+        this.sources = dirs;
+    }
+
+    /**
+     * Traverse the information once, calling every writer. If the traversal
+     * fails, every writer that was begun is aborted; if a writer fails to
+     * end, the others are still ended. The first failure is rethrown.
+     *
+     * @param writers
+     *            Writers to feed.
+     * @throws IOException
+     *             if a writer fails.
+     */
+    public final void traverse(final CoverageWriter... writers)
+    throws IOException {
+        int begun = 0;
+        boolean traversed = false;
+        try {
+            while (begun < writers.length) {
+                writers[begun++].begin(sources,
+                        model.getTotal().getLinesFound(),
+                        model.getTotal().getLinesHit(),
+                        model.getTotal().getBranchesFound(),
+                        model.getTotal().getBranchesHit());
+            }
+
+            LineFanOut fanOut = new LineFanOut(writers);
+            for (CoverageModel.Rollup pkg : model.getPackages()) {
+                WritePackageEvent event = new WritePackageEvent();
+                event.begin();
+                long linesBefore = fanOut.lines;
+                List<SourceFileInfo> childSources = model.getFiles(pkg);
+                for (CoverageWriter writer : writers) {
+                    writer.beginPackage(pkg.getName(), pkg.getLinesFound(),
+                            pkg.getLinesHit(), pkg.getBranchesFound(),
+                            pkg.getBranchesHit(), pkg.getComplexity());
+                }
+                for (SourceFileInfo info : childSources) {
+                    for (CoverageWriter writer : writers) {
+                        writer.beginClass(info);
+                    }
+                    fanOut.visit(info);
+                    for (CoverageWriter writer : writers) {
+                        writer.endClass();
+                    }
+                }
+                for (CoverageWriter writer : writers) {
+                    writer.endPackage();
+                }
+                event.end();
+                if (event.shouldCommit()) {
+                    event.packageName = pkg.getName();
+                    event.classes = childSources.size();
+                    event.lines = fanOut.lines - linesBefore;
+                    event.writers = writers.length;
+                    event.commit();
+                }
+            }
+            traversed = true;
+        } finally {
+            if (!traversed) {
+                abort(writers, begun);
+            }
+        }
+        Exception failure = null;
+        for (CoverageWriter writer : writers) {
+            try {
+                writer.end();
+            } catch (IOException e) {
+                failure = null == failure ? e : failure;
+            } catch (RuntimeException e) {
+                failure = null == failure ? e : failure;
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (null != failure) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Abort writers after a failure, which is already being thrown, so that
+     * their files and threads are released.
+     *
+     * @param writers
+     *            The writers.
+     * @param begun
+     *            Number of writers, from the first, that were begun.
+     */
+    private static void abort(final CoverageWriter[] writers,
+            final int begun) {
+        for (int i = 0; i < begun; i++) {
+            try {
+                writers[i].abort();
+            } catch (IOException e) {
+                // the first failure is the one reported
+                continue;
+            } catch (RuntimeException e) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Forwards each line of a file to every writer.
+     */
+    private static final class LineFanOut implements LineVisitor {
+
+        /**
+         * Writers to call.
+         */
+        private final CoverageWriter[] writers;
+
+        /**
+         * The first failure, if any.
+         */
+        private IOException failure;
+
+        /**
+         * Number of lines visited so far.
+         */
+        private long lines;
+
+        /**
+         * Constructor.
+         *
+         * @param targets
+         *            Writers to call.
+         */
+        LineFanOut(final CoverageWriter[] targets) {
+            writers = targets;
+        }
+
+        /**
+         * Visit the lines of a file.
+         *
+         * @param info
+         *            The file.
+         * @throws IOException
+         *             if a writer fails.
+         */
+        void visit(final SourceFileInfo info) throws IOException {
+            info.forEachLine(this);
+            if (null != failure) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void line(final int lineNumber, final int hits) {
+            lines++;
+            if (null != failure) {
+                return;
+            }
+            try {
+                for (CoverageWriter writer : writers) {
+                    writer.line(lineNumber, hits);
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
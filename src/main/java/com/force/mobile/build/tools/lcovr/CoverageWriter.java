@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Receives a coverage report as a stream of callbacks from a
+ * {@link CoverageTraversal}, and writes it out in some format. Several
+ * writers may be driven by one traversal, so the data is read only once
+ * whatever the number of outputs.
+ *
+ * Callbacks arrive in this order: {@link #begin(List, int, int, int, int)},
+ * then for each package in name order
+ * {@link #beginPackage(String, int, int, int, int, double)}, then for each
+ * of its classes in name order {@link #beginClass(SourceFileInfo)},
+ * {@link #line(int, int)} for each line and {@link #endClass()}, then
+ * {@link #endPackage()}, and finally {@link #end()}. When the traversal
+ * fails, {@link #abort()} is called instead of {@link #end()}, at any point
+ * after {@link #begin(List, int, int, int, int)} was called.
+ *
+ * @author Jason Schroeder
+ */
+public interface CoverageWriter {
+
+    /**
+     * Start the report.
+     *
+     * @param sourceDirectories
+     *            Directories the file names are relative to. May be empty.
+     * @param linesFound
+     *            Total number of instrumented lines.
+     * @param linesHit
+     *            Total number of lines executed at least once.
+     * @param branchesFound
+     *            Total number of branches.
+     * @param branchesHit
+     *            Total number of branches taken at least once.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void begin(List<File> sourceDirectories, int linesFound, int linesHit,
+            int branchesFound, int branchesHit) throws IOException;
+
+    /**
+     * Start a package.
+     *
+     * @param packageName
+     *            The package name.
+     * @param linesFound
+     *            Number of instrumented lines in the package.
+     * @param linesHit
+     *            Number of lines in the package executed at least once.
+     * @param branchesFound
+     *            Number of branches in the package.
+     * @param branchesHit
+     *            Number of branches in the package taken at least once.
+     * @param complexity
+     *            Average complexity of the package's files, or
+     *            <code>0.0</code> if it wasn't computed.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void beginPackage(String packageName, int linesFound, int linesHit,
+            int branchesFound, int branchesHit, double complexity)
+    throws IOException;
+
+    /**
+     * Start a class (source file). Its lines follow.
+     *
+     * @param info
+     *            Information about the source file.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void beginClass(SourceFileInfo info) throws IOException;
+
+    /**
+     * Report one line of the current class.
+     *
+     * @param lineNumber
+     *            The source line number.
+     * @param hits
+     *            The number of times that line was executed.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void line(int lineNumber, int hits) throws IOException;
+
+    /**
+     * End the current class.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void endClass() throws IOException;
+
+    /**
+     * End the current package.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void endPackage() throws IOException;
+
+    /**
+     * End the report, and release any resource.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void end() throws IOException;
+
+    /**
+     * Give up on the report after a failure, and release any resource,
+     * without finishing the output. Also called when
+     * {@link #begin(List, int, int, int, int)} itself failed.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    void abort() throws IOException;
+}
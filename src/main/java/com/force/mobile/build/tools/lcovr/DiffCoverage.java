@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Coverage of the lines added or modified by a diff, per file and in total.
+ * <p>
+ * Each changed file of the diff is looked up among the records by its base
+ * name, and only its changed ranges are visited: records merged by
+ * {@link CoverageMerger}, on or off the heap, find each range by binary
+ * search, so the cost per changed file is proportional to its changed
+ * lines, plus the logarithm of its instrumented lines per range.
+ * Changed lines that aren't instrumented, such as comments, are not
+ * counted.
+ */
+public class DiffCoverage {
+    /**
+     * Per-file results, sorted by file name.
+     */
+    private final List<FileCoverage> files = new ArrayList<FileCoverage>();
+
+    /**
+     * Number of changed, instrumented lines.
+     */
+    private int linesFound;
+
+    /**
+     * Number of changed lines executed at least once.
+     */
+    private int linesHit;
+
+    /**
+     * Constructor.
+     *
+     * @param diff
+     *            The changed lines.
+     * @param infos
+     *            Coverage, with at most one record per source file.
+     */
+    public DiffCoverage(final DiffIndex diff,
+            final List<SourceFileInfo> infos) {
+        Map<String, List<SourceFileInfo>> byBaseName =
+            new HashMap<String, List<SourceFileInfo>>();
+        for (SourceFileInfo info : infos) {
+            String baseName = baseName(info.getFileName());
+            List<SourceFileInfo> same = byBaseName.get(baseName);
+            if (null == same) {
+                same = new ArrayList<SourceFileInfo>(1);
+                byBaseName.put(baseName, same);
+            }
+            same.add(info);
+        }
+        for (String path : diff.getFileNames()) {
+            List<SourceFileInfo> candidates = byBaseName.get(baseName(path));
+            if (null == candidates) {
+                continue;
+            }
+            for (SourceFileInfo info : candidates) {
+                if (path.equals(diff.find(info.getFileName()))) {
+                    add(info, diff.getRanges(path));
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<FileCoverage>() {
+            public int compare(final FileCoverage a, final FileCoverage b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+    }
+
+    /**
+     * Count the changed lines of a record.
+     *
+     * @param info
+     *            The record.
+     * @param ranges
+     *            Its changed ranges, as <code>{first0, last0, ...}</code>.
+     */
+    private void add(final SourceFileInfo info, final int[] ranges) {
+        final FileCoverage file = new FileCoverage(info.getFileName());
+        for (int i = 0; i < ranges.length; i += 2) {
+            file.changedLines += ranges[i + 1] - ranges[i] + 1;
+            info.forEachLine(ranges[i], ranges[i + 1], new LineVisitor() {
+                public void line(final int lineNumber, final int hits) {
+                    file.linesFound++;
+                    if (hits > 0) {
+                        file.linesHit++;
+                    }
+                }
+            });
+        }
+        linesFound += file.linesFound;
+        linesHit += file.linesHit;
+        files.add(file);
+    }
+
+    /**
+     * @param name
+     *            A path, with either separator.
+     * @return Its last part.
+     */
+    private static String baseName(final String name) {
+        int i = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        return name.substring(i + 1);
+    }
+
+    /**
+     * @return The changed files that have coverage, sorted by name.
+     */
+    public final List<FileCoverage> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return The number of changed, instrumented lines.
+     */
+    public final int getLinesFound() {
+        return linesFound;
+    }
+
+    /**
+     * @return The number of changed lines executed at least once.
+     */
+    public final int getLinesHit() {
+        return linesHit;
+    }
+
+    /**
+     * @return The fraction of changed, instrumented lines that were executed;
+     *         1 when no instrumented line changed.
+     */
+    public final double getLineRate() {
+        return 0 == linesFound ? 1.0 : (double) linesHit / linesFound;
+    }
+
+    /**
+     * Write the results as JSON, in the style of
+     * {@link JsonSummaryCoverageWriter}.
+     *
+     * <pre>
+     * {"linesFound":..., "linesHit":..., "lineRate":...,
+     *  "files":[{"name":..., "linesFound":..., "linesHit":..., "lineRate":...,
+     *            "changedLines":...}]}
+     * </pre>
+     *
+     * @param output
+     *            The file to write.
+     * @throws IOException
+     *             if it can't be written.
+     */
+    public final void write(final File output) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output), "UTF-8"));
+        try {
+            out.write('{');
+            JsonSummaryCoverageWriter.counts(out, linesFound, linesHit);
+            out.write(",\n \"files\":[");
+            for (int i = 0; i < files.size(); i++) {
+                FileCoverage file = files.get(i);
+                out.write(0 == i ? "\n  {" : ",\n  {");
+                JsonSummaryCoverageWriter.name(out, file.name);
+                JsonSummaryCoverageWriter.counts(out, file.linesFound,
+                        file.linesHit);
+                out.write(",\"changedLines\":");
+                out.write(Integer.toString(file.changedLines));
+                out.write('}');
+            }
+            out.write("]}\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Coverage of the changed lines of one file.
+     */
+    public static final class FileCoverage {
+        /**
+         * The record's file name.
+         */
+        private final String name;
+
+        /**
+         * Number of changed lines, instrumented or not.
+         */
+        private int changedLines;
+
+        /**
+         * Number of changed, instrumented lines.
+         */
+        private int linesFound;
+
+        /**
+         * Number of changed lines executed at least once.
+         */
+        private int linesHit;
+
+        /**
+         * Constructor.
+         * @param fileName the record's file name.
+         */
+        FileCoverage(final String fileName) {
+            name = fileName;
+        }
+
+        /**
+         * @return The record's file name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The number of changed lines, instrumented or not.
+         */
+        public int getChangedLines() {
+            return changedLines;
+        }
+
+        /**
+         * @return The number of changed, instrumented lines.
+         */
+        public int getLinesFound() {
+            return linesFound;
+        }
+
+        /**
+         * @return The number of changed lines executed at least once.
+         */
+        public int getLinesHit() {
+            return linesHit;
+        }
+    }
+}
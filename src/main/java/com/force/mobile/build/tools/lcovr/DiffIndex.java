@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The lines added or modified by a unified diff, such as the output of
+ * <code>git diff</code>, as sorted ranges of line numbers per file.
+ * <p>
+ * Files are found by their path in the diff, or by any trailing part of it,
+ * so that a record for <code>com/x/A.java</code>, relative to a source
+ * directory, or for <code>/work/repo/src/com/x/A.java</code>, matches the
+ * diff's <code>src/com/x/A.java</code>.
+ */
+public final class DiffIndex {
+    /**
+     * Marks a trailing path shared by several changed files.
+     */
+    private static final String AMBIGUOUS = "";
+
+    /**
+     * Changed ranges per path, as <code>{first0, last0, first1, ...}</code>.
+     */
+    private final Map<String, int[]> ranges = new TreeMap<String, int[]>();
+
+    /**
+     * Path of each changed file, by each of its trailing parts.
+     */
+    private final Map<String, String> suffixes = new HashMap<String, String>();
+
+    /**
+     * Constructor. Use {@link #read(File)}.
+     */
+    private DiffIndex() {
+    }
+
+    /**
+     * Read a unified diff. Deleted files, and removed lines, are left out.
+     *
+     * @param diff
+     *            The diff file.
+     * @return The changed lines of each file.
+     * @throws IOException
+     *             if the diff can't be read, or a hunk header is malformed.
+     */
+    public static DiffIndex read(final File diff) throws IOException {
+        DiffIndex index = new DiffIndex();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(diff), "UTF-8"));
+        try {
+            String path = null;
+            int[] changed = new int[64];
+            int count = 0;
+            for (String s = in.readLine(); null != s; s = in.readLine()) {
+                if (s.startsWith("+++ ")) {
+                    index.add(path, changed, count);
+                    count = 0;
+                    path = path(s.substring(4));
+                } else if (s.startsWith("@@ ")) {
+                    int plus = s.indexOf(" +");
+                    int end = s.indexOf(" @@", plus);
+                    int minus = s.indexOf(',');
+                    if (plus < 0 || end < 0) {
+                        throw new IOException("Malformed hunk header: " + s);
+                    }
+                    int oldCount = minus > 0 && minus < plus
+                        ? number(s.substring(minus + 1, plus), s) : 1;
+                    String target = s.substring(plus + 2, end);
+                    int comma = target.indexOf(',');
+                    int line = number(comma < 0 ? target
+                            : target.substring(0, comma), s);
+                    int newCount = comma < 0 ? 1
+                        : number(target.substring(comma + 1), s);
+                    while (oldCount > 0 || newCount > 0) {
+                        String body = in.readLine();
+                        if (null == body) {
+                            throw new IOException("Truncated hunk in " + path);
+                        }
+                        char c = body.isEmpty() ? ' ' : body.charAt(0);
+                        if (c == '+') {
+                            if (count == changed.length) {
+                                changed = Arrays.copyOf(changed, count * 2);
+                            }
+                            changed[count++] = line++;
+                            newCount--;
+                        } else if (c == '-') {
+                            oldCount--;
+                        } else if (c != '\\') {
+                            line++;
+                            oldCount--;
+                            newCount--;
+                        }
+                    }
+                }
+            }
+            index.add(path, changed, count);
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+
+    /**
+     * @param header the path part of a <code>+++</code> line.
+     * @return the file's path, or <code>null</code> for a deleted file.
+     */
+    private static String path(final String header) {
+        int tab = header.indexOf('\t');
+        String path = tab < 0 ? header.trim() : header.substring(0, tab);
+        if ("/dev/null".equals(path)) {
+            return null;
+        }
+        if (path.startsWith("b/")) {
+            path = path.substring(2);
+        }
+        return path.replace('\\', '/');
+    }
+
+    /**
+     * @param s a decimal number.
+     * @param header the hunk header, for errors.
+     * @return the number.
+     * @throws IOException if it isn't a number.
+     */
+    private static int number(final String s, final String header)
+    throws IOException {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Malformed hunk header: " + header);
+        }
+    }
+
+    /**
+     * Add the changed lines of a file, coalesced into ranges.
+     *
+     * @param path
+     *            The file, or <code>null</code> to ignore the lines.
+     * @param changed
+     *            Line numbers, ascending.
+     * @param count
+     *            Number of line numbers in <code>changed</code>.
+     */
+    private void add(final String path, final int[] changed,
+            final int count) {
+        if (null == path || 0 == count) {
+            return;
+        }
+        int[] r = new int[2 * count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n > 0 && changed[i] == r[n - 1] + 1) {
+                r[n - 1] = changed[i];
+            } else {
+                r[n++] = changed[i];
+                r[n++] = changed[i];
+            }
+        }
+        ranges.put(path, Arrays.copyOf(r, n));
+        int i = -1;
+        do {
+            String suffix = path.substring(i + 1);
+            String other = suffixes.get(suffix);
+            suffixes.put(suffix,
+                    null == other || other.equals(path) ? path : AMBIGUOUS);
+            i = path.indexOf('/', i + 1);
+        } while (i >= 0);
+    }
+
+    /**
+     * @return The changed files, sorted by path.
+     */
+    public Set<String> getFileNames() {
+        return ranges.keySet();
+    }
+
+    /**
+     * Get the changed lines of a file.
+     *
+     * @param path
+     *            The file's path in the diff.
+     * @return Sorted, disjoint ranges as <code>{first0, last0, first1,
+     *         ...}</code>, or <code>null</code> if it wasn't changed.
+     */
+    public int[] getRanges(final String path) {
+        return ranges.get(path);
+    }
+
+    /**
+     * Find the changed file a coverage record is about, in time proportional
+     * to the depth of its name.
+     *
+     * @param fileName
+     *            The record's file name.
+     * @return The path in the diff, or <code>null</code> if the file wasn't
+     *         changed, or the name matches several changed files.
+     */
+    public String find(final String fileName) {
+        String name = fileName.replace('\\', '/');
+        String path = suffixes.get(name);
+        if (null != path) {
+            return AMBIGUOUS.equals(path) ? null : path;
+        }
+        for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+            if (ranges.containsKey(name.substring(i + 1))) {
+                return name.substring(i + 1);
+            }
+        }
+        return null;
+    }
+}
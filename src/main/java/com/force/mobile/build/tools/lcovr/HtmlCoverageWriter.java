@@ -0,0 +1,808 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * A {@link CoverageWriter} that writes a static HTML report: an index of the
+ * packages, a page per package listing its files, and a page per file with
+ * its source, where executed and missed lines are highlighted.
+ *
+ * File and package pages are rendered in parallel on a pool of worker
+ * threads, while the traversal goes on. Each source file is memory-mapped
+ * and read once, by the worker rendering its page. The index is streamed,
+ * one row per package as the package ends. When the workers fall behind,
+ * the traversal renders pages itself, so the number of files waiting for
+ * a worker is bounded. The workers are either the writer's own, or a pool
+ * shared with other work, such as the other conversions of an
+ * &lt;lcovbatch&gt;.
+ *
+ * <pre>
+ * index.html
+ * style.css
+ * packages/&lt;package&gt;.html
+ * files/&lt;file name&gt;.html
+ * </pre>
+ *
+ * @author Jason Schroeder
+ */
+public class HtmlCoverageWriter implements CoverageWriter {
+
+    /**
+     * Pages that may wait for a worker, per worker.
+     */
+    private static final int QUEUE_PER_THREAD = 4;
+
+    /**
+     * Encoding of the pages, and of the source files.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The style sheet, shared by every page.
+     */
+    private static final String STYLE = "body{font-family:sans-serif}\n"
+        + "table{border-collapse:collapse}\n"
+        + "td,th{padding:0 .5em;text-align:left}\n"
+        + "td.n,td.c{text-align:right;color:#777}\n"
+        + "pre{margin:0}\n"
+        + "tr.hit{background:#dfd}\n"
+        + "tr.miss{background:#fdd}\n";
+
+    /**
+     * The directory to write to.
+     */
+    private final File outputDirectory;
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Directories the file names are relative to.
+     */
+    private List<File> sources;
+
+    /**
+     * A pool shared with other work, or <code>null</code> to create one.
+     */
+    private final ExecutorService sharedPool;
+
+    /**
+     * The workers, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private ExecutorService pool;
+
+    /**
+     * Pages submitted and not checked yet.
+     */
+    private final List<FutureTask<Void>> pages =
+        new Vector<FutureTask<Void>>();
+
+    /**
+     * The index page, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private Writer index;
+
+    /**
+     * The package being written.
+     */
+    private String packageName;
+
+    /**
+     * Number of instrumented lines in the package being written.
+     */
+    private int packageFound;
+
+    /**
+     * Number of lines hit in the package being written.
+     */
+    private int packageHit;
+
+    /**
+     * Files of the package being written.
+     */
+    private List<SourceFileInfo> packageFiles;
+
+    /**
+     * The file being written.
+     */
+    private SourceFileInfo current;
+
+    /**
+     * Packed lines of the file being written.
+     *
+     * @see CoverageMerger#pack(int, int)
+     */
+    private long[] lines = new long[1024];
+
+    /**
+     * Number of packed lines of the file being written.
+     */
+    private int lineCount;
+
+    /**
+     * Constructor.
+     *
+     * @param output
+     *            The directory to write the report to.
+     * @param threadCount
+     *            Number of worker threads.
+     */
+    public HtmlCoverageWriter(final File output, final int threadCount) {
+        this(output, null, threadCount);
+    }
+
+    /**
+     * Constructor, for pages rendered on a pool shared with other work. The
+     * pool is not shut down by {@link #end()}, and pages it hasn't started
+     * yet are rendered by the traversal while it waits for them.
+     *
+     * @param output
+     *            The directory to write the report to.
+     * @param workers
+     *            The shared pool, or <code>null</code> to create one.
+     * @param threadCount
+     *            Number of threads of the pool.
+     */
+    public HtmlCoverageWriter(final File output, final ExecutorService workers,
+            final int threadCount) {
+        outputDirectory = output;
+        sharedPool = workers;
+        threads = Math.max(1, threadCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void begin(final List<File> sourceDirectories,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit) throws IOException {
+        sources = sourceDirectories;
+        mkdirs(new File(outputDirectory, "packages"));
+        mkdirs(new File(outputDirectory, "files"));
+        Writer css = open(new File(outputDirectory, "style.css"));
+        try {
+            css.write(STYLE);
+        } finally {
+            css.close();
+        }
+        if (null != sharedPool) {
+            pool = sharedPool;
+        } else {
+            pool = new ThreadPoolExecutor(threads, threads, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                            threads * QUEUE_PER_THREAD),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        index = open(new File(outputDirectory, "index.html"));
+        header(index, "Coverage", "");
+        index.write("<h1>Coverage</h1>\n");
+        summary(index, linesFound, linesHit);
+        index.write("<table>\n<tr><th>Package</th><th>Lines</th>"
+                + "<th>Hit</th><th>Rate</th></tr>\n");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginPackage(final String name, final int linesFound,
+            final int linesHit, final int branchesFound, final int branchesHit,
+            final double complexity) {
+        packageName = name;
+        packageFound = linesFound;
+        packageHit = linesHit;
+        packageFiles = new Vector<SourceFileInfo>();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginClass(final SourceFileInfo info) {
+        current = info;
+        lineCount = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void line(final int lineNumber, final int hits) {
+        if (lineCount == lines.length) {
+            lines = Arrays.copyOf(lines, lines.length * 2);
+        }
+        lines[lineCount++] = CoverageMerger.pack(lineNumber, hits);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endClass() throws IOException {
+        final SourceFileInfo info = current;
+        final long[] fileLines = Arrays.copyOf(lines, lineCount);
+        packageFiles.add(info);
+        submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                writeFilePage(info, fileLines);
+                return null;
+            }
+        });
+        current = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endPackage() throws IOException {
+        final String name = packageName;
+        final int found = packageFound;
+        final int hit = packageHit;
+        final List<SourceFileInfo> files = packageFiles;
+        submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                writePackagePage(name, found, hit, files);
+                return null;
+            }
+        });
+        row(index, "packages/" + packagePage(name), name, found, hit);
+        index.flush();
+        packageFiles = null;
+        checkDone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void end() throws IOException {
+        try {
+            for (FutureTask<Void> f : pages) {
+                // render it here if no worker has started it
+                f.run();
+                get(f);
+            }
+            pages.clear();
+            index.write("</table>\n");
+            footer(index);
+        } finally {
+            if (pool != sharedPool) {
+                pool.shutdownNow();
+            } else {
+                for (FutureTask<Void> f : pages) {
+                    f.cancel(false);
+                }
+                pages.clear();
+            }
+            pool = null;
+            index.close();
+            index = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void abort() throws IOException {
+        for (FutureTask<Void> f : pages) {
+            f.cancel(false);
+        }
+        pages.clear();
+        if (null != pool && pool != sharedPool) {
+            pool.shutdownNow();
+        }
+        pool = null;
+        if (null != index) {
+            index.close();
+            index = null;
+        }
+    }
+
+    /**
+     * Queue a page for the workers.
+     *
+     * @param page
+     *            Renders the page.
+     */
+    private void submit(final Callable<Void> page) throws IOException {
+        FutureTask<Void> task = new FutureTask<Void>(page);
+        pages.add(task);
+        pool.execute(task);
+        if (pool == sharedPool && pages.size() > threads * QUEUE_PER_THREAD) {
+            // the shared pool's queue is unbounded: render the oldest here
+            checkDone();
+            int excess = pages.size() - threads * QUEUE_PER_THREAD;
+            for (int i = 0; i < excess; i++) {
+                pages.get(i).run();
+            }
+        }
+    }
+
+    /**
+     * Forget the pages that are done, and report the first failure.
+     *
+     * @throws IOException
+     *             if a page could not be written.
+     */
+    private void checkDone() throws IOException {
+        for (Iterator<FutureTask<Void>> it = pages.iterator(); it.hasNext();) {
+            Future<Void> f = it.next();
+            if (f.isDone()) {
+                it.remove();
+                get(f);
+            }
+        }
+    }
+
+    /**
+     * Write the page of a package.
+     *
+     * @param name
+     *            The package name.
+     * @param found
+     *            Number of instrumented lines in the package.
+     * @param hit
+     *            Number of lines hit in the package.
+     * @param files
+     *            Its files.
+     * @throws IOException
+     *             if the page can't be written.
+     */
+    private void writePackagePage(final String name, final int found,
+            final int hit, final List<SourceFileInfo> files)
+    throws IOException {
+        Writer out = open(new File(outputDirectory, "packages/"
+                + packagePage(name)));
+        try {
+            header(out, name, "../");
+            out.write("<h1>");
+            escape(out, name, 0, name.length());
+            out.write("</h1>\n");
+            summary(out, found, hit);
+            out.write("<table>\n<tr><th>File</th><th>Lines</th>"
+                    + "<th>Hit</th><th>Rate</th></tr>\n");
+            for (SourceFileInfo info : files) {
+                row(out, "../files/" + filePage(info.getFileName()),
+                        info.getFileName(), info.getLf(), info.getLh());
+            }
+            out.write("</table>\n");
+            footer(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the page of a file, with its source when it can be found.
+     *
+     * @param info
+     *            The file.
+     * @param packed
+     *            Its packed lines, in any order.
+     * @throws IOException
+     *             if the source can't be read, or the page written.
+     */
+    private void writeFilePage(final SourceFileInfo info, final long[] packed)
+    throws IOException {
+        int length = CoverageMerger.normalize(packed, packed.length);
+        String page = filePage(info.getFileName());
+        StringBuilder up = new StringBuilder("../");
+        for (int i = page.indexOf('/'); i >= 0; i = page.indexOf('/', i + 1)) {
+            up.append("../");
+        }
+        File pageFile = new File(outputDirectory, "files/" + page);
+        mkdirs(pageFile.getParentFile());
+        CharBuffer source = read(info.getFileName());
+
+        Writer out = open(pageFile);
+        try {
+            header(out, info.getFileName(), up.toString());
+            out.write("<h1>");
+            escape(out, info.getFileName(), 0, info.getFileName().length());
+            out.write("</h1>\n");
+            summary(out, info.getLf(), info.getLh());
+            out.write("<table>\n");
+            int k = 0;
+            int lineNumber = 1;
+            int start = 0;
+            int limit = null == source ? 0 : source.limit();
+            while (start < limit) {
+                int end = start;
+                while (end < limit && source.get(end) != '\n') {
+                    end++;
+                }
+                int textEnd = end;
+                if (textEnd > start && source.get(textEnd - 1) == '\r') {
+                    textEnd--;
+                }
+                while (k < length && (int) (packed[k] >> 32) < lineNumber) {
+                    k++;
+                }
+                boolean covered = k < length
+                    && (int) (packed[k] >> 32) == lineNumber;
+                sourceLine(out, lineNumber, covered,
+                        covered ? (int) packed[k] : 0, source, start, textEnd);
+                lineNumber++;
+                start = end + 1;
+            }
+            for (; k < length; k++) {
+                if ((int) (packed[k] >> 32) >= lineNumber) {
+                    sourceLine(out, (int) (packed[k] >> 32), true,
+                            (int) packed[k], null, 0, 0);
+                }
+            }
+            out.write("</table>\n");
+            footer(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Map a source file and decode it.
+     *
+     * @param fileName
+     *            The file name from the coverage data.
+     * @return Its text, or <code>null</code> if it can't be found.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    private CharBuffer read(final String fileName) throws IOException {
+        File f = ChecksumVerifier.resolve(sources, fileName);
+        if (null == f) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(f);
+        try {
+            FileChannel channel = in.getChannel();
+            return UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a row of a file page.
+     *
+     * @param out
+     *            The page.
+     * @param lineNumber
+     *            The line number.
+     * @param covered
+     *            Whether the line is instrumented.
+     * @param hits
+     *            Number of times it was executed, if instrumented.
+     * @param text
+     *            The source, or <code>null</code>.
+     * @param from
+     *            Start of the line in <code>text</code>.
+     * @param to
+     *            End of the line in <code>text</code>.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void sourceLine(final Writer out, final int lineNumber,
+            final boolean covered, final int hits, final CharBuffer text,
+            final int from, final int to) throws IOException {
+        if (!covered) {
+            out.write("<tr>");
+        } else if (hits > 0) {
+            out.write("<tr class=\"hit\">");
+        } else {
+            out.write("<tr class=\"miss\">");
+        }
+        out.write("<td class=\"n\">");
+        out.write(Integer.toString(lineNumber));
+        out.write("</td><td class=\"c\">");
+        if (covered) {
+            out.write(Integer.toString(hits));
+        }
+        out.write("</td><td><pre>");
+        if (null != text) {
+            escape(out, text, from, to);
+        }
+        out.write("</pre></td></tr>\n");
+    }
+
+    /**
+     * Write a row of the index or of a package page.
+     *
+     * @param out
+     *            The page.
+     * @param href
+     *            Link to the page of the row.
+     * @param name
+     *            The package or file name.
+     * @param found
+     *            Number of instrumented lines.
+     * @param hit
+     *            Number of lines hit.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void row(final Writer out, final String href,
+            final String name, final int found, final int hit)
+    throws IOException {
+        out.write("<tr><td><a href=\"");
+        escape(out, href, 0, href.length());
+        out.write("\">");
+        escape(out, name, 0, name.length());
+        out.write("</a></td><td>");
+        out.write(Integer.toString(found));
+        out.write("</td><td>");
+        out.write(Integer.toString(hit));
+        out.write("</td><td>");
+        out.write(percent(found, hit));
+        out.write("</td></tr>\n");
+    }
+
+    /**
+     * Write the line counts of a page.
+     *
+     * @param out
+     *            The page.
+     * @param found
+     *            Number of instrumented lines.
+     * @param hit
+     *            Number of lines hit.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void summary(final Writer out, final int found,
+            final int hit) throws IOException {
+        out.write("<p>Lines: " + hit + " of " + found + " hit ("
+                + percent(found, hit) + ")</p>\n");
+    }
+
+    /**
+     * Start a page.
+     *
+     * @param out
+     *            The page.
+     * @param title
+     *            Its title.
+     * @param root
+     *            Relative path to the report directory.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void header(final Writer out, final String title,
+            final String root) throws IOException {
+        out.write("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\">"
+                + "<title>");
+        escape(out, title, 0, title.length());
+        out.write("</title><link rel=\"stylesheet\" href=\"" + root
+                + "style.css\"></head>\n<body>\n");
+        if (root.length() > 0) {
+            out.write("<p><a href=\"" + root + "index.html\">Index</a></p>\n");
+        }
+    }
+
+    /**
+     * End a page.
+     *
+     * @param out
+     *            The page.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void footer(final Writer out) throws IOException {
+        out.write("</body></html>\n");
+    }
+
+    /**
+     * Write text, escaped for HTML.
+     *
+     * @param out
+     *            The page.
+     * @param text
+     *            The text.
+     * @param from
+     *            First character to write.
+     * @param to
+     *            End of the characters to write.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private static void escape(final Writer out, final CharSequence text,
+            final int from, final int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                out.write("&amp;");
+                break;
+            case '<':
+                out.write("&lt;");
+                break;
+            case '>':
+                out.write("&gt;");
+                break;
+            case '"':
+                out.write("&quot;");
+                break;
+            default:
+                out.write(c);
+            }
+        }
+    }
+
+    /**
+     * Format a line rate as a percentage.
+     *
+     * @param found
+     *            Number of instrumented lines.
+     * @param hit
+     *            Number of lines hit.
+     * @return The rate, such as <code>75.0%</code>.
+     */
+    private static String percent(final int found, final int hit) {
+        return String.format(Locale.ROOT, "%.1f%%",
+                CoberturaCoverageWriter.rate(hit, found) * 100);
+    }
+
+    /**
+     * Path of the page of a package, relative to <code>packages/</code>.
+     *
+     * @param name
+     *            The package name.
+     * @return The page name.
+     */
+    static String packagePage(final String name) {
+        if (name.length() == 0) {
+            return "_default.html";
+        }
+        return sanitize(name) + ".html";
+    }
+
+    /**
+     * Path of the page of a file, relative to <code>files/</code>. Directories
+     * of the file name are kept, but not absolute prefixes or
+     * <code>..</code>, so that every page stays in the report.
+     *
+     * @param fileName
+     *            The file name from the coverage data.
+     * @return The page path.
+     */
+    static String filePage(final String fileName) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : fileName.replace('\\', '/').split("/")) {
+            if (segment.length() == 0 || ".".equals(segment)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append("..".equals(segment) ? "__" : sanitize(segment));
+        }
+        return sb.append(".html").toString();
+    }
+
+    /**
+     * Replace the characters that are unsafe in file names and links.
+     *
+     * @param s
+     *            A name.
+     * @return The name, with only letters, digits, '.', '-' and '_'.
+     */
+    private static String sanitize(final String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '.' || c == '-'
+                    || c == '_') {
+                sb.append(c);
+            } else {
+                sb.append('_');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Open a page for writing.
+     *
+     * @param f
+     *            The file.
+     * @return A buffered writer.
+     * @throws IOException
+     *             if the file can't be created.
+     */
+    private static Writer open(final File f) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(f), UTF8));
+    }
+
+    /**
+     * Create a directory and its parents.
+     *
+     * @param dir
+     *            The directory.
+     * @throws IOException
+     *             if it can't be created.
+     */
+    private static void mkdirs(final File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+    }
+
+    /**
+     * Wait for a page, unwrapping i/o errors.
+     *
+     * @param f
+     *            The page.
+     * @throws IOException
+     *             if the page could not be written.
+     */
+    private static void get(final Future<Void> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
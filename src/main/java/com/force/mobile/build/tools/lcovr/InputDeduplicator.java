@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds byte-identical inputs, such as the copies uploaded by retried
+ * shards, so that each content is parsed only once.
+ *
+ * Only files whose size is shared with another input can be duplicates;
+ * those are hashed, in parallel, with a fast 64-bit hash over their mapped
+ * bytes. Files with the same size and hash are compared byte for byte
+ * before being treated as copies, so a hash collision can't lose data.
+ */
+public class InputDeduplicator {
+
+    /**
+     * Number of bytes mapped from a file at one time.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Multiplier of the hash.
+     */
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Number of threads to hash with.
+     */
+    private final int threads;
+
+    /**
+     * Number of copies of each unique input, by file.
+     */
+    private final Map<File, Integer> multiplicity =
+        new HashMap<File, Integer>();
+
+    /**
+     * Number of inputs dropped by the last {@link #deduplicate(List)}.
+     */
+    private int duplicateCount;
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount
+     *            Number of threads to hash with.
+     */
+    public InputDeduplicator(final int threadCount) {
+        threads = Math.max(1, threadCount);
+    }
+
+    /**
+     * Drop the inputs whose content is the same as an earlier input.
+     *
+     * @param inputs
+     *            The input files.
+     * @return The first input of each content, in input order.
+     * @throws IOException
+     *             if an input can't be read.
+     */
+    public final List<File> deduplicate(final List<File> inputs)
+    throws IOException {
+        multiplicity.clear();
+        Map<Long, List<File>> bySize = new LinkedHashMap<Long, List<File>>();
+        for (File input : inputs) {
+            List<File> same = bySize.get(input.length());
+            if (null == same) {
+                same = new Vector<File>(1);
+                bySize.put(input.length(), same);
+            }
+            same.add(input);
+        }
+
+        Map<File, Future<Long>> hashes = new HashMap<File, Future<Long>>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (List<File> same : bySize.values()) {
+                if (same.size() < 2) {
+                    continue;
+                }
+                for (final File f : same) {
+                    hashes.put(f, pool.submit(new Callable<Long>() {
+                        public Long call() throws IOException {
+                            return hash(f);
+                        }
+                    }));
+                }
+            }
+
+            List<File> unique = new Vector<File>();
+            Map<Long, List<File>> seen = new HashMap<Long, List<File>>();
+            for (File input : inputs) {
+                Future<Long> h = hashes.get(input);
+                File original = null;
+                if (null != h) {
+                    Long key = ChecksumVerifier.get(h);
+                    List<File> candidates = seen.get(key);
+                    if (null == candidates) {
+                        candidates = new Vector<File>(1);
+                        seen.put(key, candidates);
+                    }
+                    for (File candidate : candidates) {
+                        if (candidate.length() == input.length()
+                                && sameContent(candidate, input)) {
+                            original = candidate;
+                            break;
+                        }
+                    }
+                    if (null == original) {
+                        candidates.add(input);
+                    }
+                }
+                if (null == original) {
+                    unique.add(input);
+                    multiplicity.put(input, 1);
+                } else {
+                    multiplicity.put(original, multiplicity.get(original) + 1);
+                }
+            }
+            duplicateCount = inputs.size() - unique.size();
+            return unique;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Get the number of copies of a unique input, itself included.
+     *
+     * @param unique
+     *            One of the files returned by {@link #deduplicate(List)}.
+     * @return Its number of copies, or 1 for an unknown file.
+     */
+    public final int getMultiplicity(final File unique) {
+        Integer n = multiplicity.get(unique);
+        return null == n ? 1 : n;
+    }
+
+    /**
+     * Get the number of inputs dropped by the last
+     * {@link #deduplicate(List)}.
+     *
+     * @return Number of duplicates.
+     */
+    public final int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Hash a file.
+     *
+     * @param f
+     *            The file.
+     * @return Its hash.
+     * @throws IOException
+     *             if the file can't be read.
+     */
+    static long hash(final File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long h = size * PRIME;
+            for (long position = 0; position < size; position += WINDOW_SIZE) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                h = hash(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        length).order(ByteOrder.LITTLE_ENDIAN), h);
+            }
+            return mix(h);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Fold the bytes of a buffer into a hash, eight bytes at a time.
+     *
+     * @param buf
+     *            The bytes, in little-endian order.
+     * @param seed
+     *            The hash so far.
+     * @return The new hash.
+     */
+    static long hash(final ByteBuffer buf, final long seed) {
+        long h = seed;
+        int limit = buf.limit();
+        int i = 0;
+        for (; i + 8 <= limit; i += 8) {
+            h = (h ^ mix(buf.getLong(i))) * PRIME;
+        }
+        long tail = 0;
+        for (int shift = 0; i < limit; i++, shift += 8) {
+            tail |= (buf.get(i) & 0xFFL) << shift;
+        }
+        return (h ^ mix(tail)) * PRIME;
+    }
+
+    /**
+     * Scramble the bits of a value.
+     *
+     * @param v
+     *            The value.
+     * @return The scrambled value.
+     */
+    private static long mix(final long v) {
+        long x = v;
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /**
+     * Compare the content of two files of the same size.
+     *
+     * @param a
+     *            A file.
+     * @param b
+     *            Another file.
+     * @return true if their bytes are the same.
+     * @throws IOException
+     *             if a file can't be read.
+     */
+    private static boolean sameContent(final File a, final File b)
+    throws IOException {
+        FileInputStream inA = new FileInputStream(a);
+        try {
+            FileInputStream inB = new FileInputStream(b);
+            try {
+                FileChannel ca = inA.getChannel();
+                FileChannel cb = inB.getChannel();
+                long size = ca.size();
+                if (size != cb.size()) {
+                    return false;
+                }
+                for (long position = 0; position < size;
+                        position += WINDOW_SIZE) {
+                    long length = Math.min(WINDOW_SIZE, size - position);
+                    ByteBuffer ba = ca.map(FileChannel.MapMode.READ_ONLY,
+                            position, length);
+                    ByteBuffer bb = cb.map(FileChannel.MapMode.READ_ONLY,
+                            position, length);
+                    if (!ba.equals(bb)) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                inB.close();
+            }
+        } finally {
+            inA.close();
+        }
+    }
+}
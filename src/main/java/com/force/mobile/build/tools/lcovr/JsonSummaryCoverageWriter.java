@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * A {@link CoverageWriter} that writes a JSON summary of the line rates, per
+ * file, package and in total, for dashboards. Line details are not written.
+ *
+ * <pre>
+ * {"linesFound":..., "linesHit":..., "lineRate":...,
+ *  "packages":[{"name":..., "linesFound":..., "linesHit":..., "lineRate":...,
+ *               "files":[{"name":..., "linesFound":..., ...}]}]}
+ * </pre>
+ *
+ * @author Jason Schroeder
+ */
+public class JsonSummaryCoverageWriter implements CoverageWriter {
+
+    /**
+     * The file to write.
+     */
+    private final File outputFile;
+
+    /**
+     * The open output, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private Writer out;
+
+    /**
+     * Whether the next package or file is the first of its list.
+     */
+    private boolean first;
+
+    /**
+     * Constructor.
+     *
+     * @param output
+     *            The file to write the summary to.
+     */
+    public JsonSummaryCoverageWriter(final File output) {
+        outputFile = output;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void begin(final List<File> sourceDirectories,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(outputFile), "UTF-8"));
+        out.write('{');
+        counts(out, linesFound, linesHit);
+        out.write(",\n \"packages\":[");
+        first = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginPackage(final String packageName,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit,
+            final double complexity) throws IOException {
+        out.write(first ? "\n  {" : ",\n  {");
+        name(out, packageName);
+        counts(out, linesFound, linesHit);
+        out.write(",\"files\":[");
+        first = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginClass(final SourceFileInfo info)
+    throws IOException {
+        out.write(first ? "\n   {" : ",\n   {");
+        name(out, info.getFileName());
+        counts(out, info.getLf(), info.getLh());
+        out.write('}');
+        first = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void line(final int lineNumber, final int hits) {
+        // only summaries are written
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endClass() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endPackage() throws IOException {
+        out.write("]}");
+        first = false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void end() throws IOException {
+        try {
+            out.write("]}\n");
+        } finally {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void abort() throws IOException {
+        if (null != out) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Write a <code>"name"</code> member, followed by a comma.
+     *
+     * @param out
+     *            Where to write.
+     * @param name
+     *            The name.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    static void name(final Writer out, final String name)
+    throws IOException {
+        out.write("\"name\":\"");
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < ' ') {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write("\",");
+    }
+
+    /**
+     * Write the count and rate members.
+     *
+     * @param out
+     *            Where to write.
+     * @param linesFound
+     *            Number of instrumented lines.
+     * @param linesHit
+     *            Number of lines executed at least once.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    static void counts(final Writer out, final int linesFound,
+            final int linesHit) throws IOException {
+        out.write("\"linesFound\":");
+        out.write(Integer.toString(linesFound));
+        out.write(",\"linesHit\":");
+        out.write(Integer.toString(linesHit));
+        out.write(",\"lineRate\":");
+        out.write(Double.toString(
+                CoberturaCoverageWriter.rate(linesHit, linesFound)));
+    }
+}
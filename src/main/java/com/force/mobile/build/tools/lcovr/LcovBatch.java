@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Ant task to run many conversions at once, such as one per module of a
+ * monorepo, each with its own inputs, source directories and outputs.
+ * <p>
+ * Each &lt;conversion&gt; takes the same attributes and nested elements
+ * as &lt;lcov&gt;, except those that change how inputs are read and
+ * merged (<code>lenient</code>, <code>duplicates</code>,
+ * <code>threads</code> and <code>fanin</code>), which are set on the batch
+ * or not at all. Every distinct input is parsed once, even when several
+ * conversions read it, and the conversions are then merged and written
+ * concurrently, on a pool of <code>threads</code> threads shared by the
+ * whole batch, HTML pages included.
+ */
+public class LcovBatch extends Task {
+    /**
+     * The conversions, in order.
+     */
+    private final List<Lcovr> conversions = new Vector<Lcovr>();
+
+    /**
+     * Number of inputs parsed, or conversions written, at once.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether to skip malformed input instead of failing.
+     */
+    private boolean lenient;
+
+    /**
+     * Problems skipped while parsing, in lenient mode.
+     */
+    private final ParseDiagnostics diagnostics = new ParseDiagnostics();
+
+    /**
+     * Function names, shared by every input of the batch.
+     */
+    private final NamePool names = new NamePool();
+
+    /**
+     * Parse this many inputs, or write this many conversions, at once.
+     * @param n number of threads; defaults to the number of processors.
+     */
+    public final void setThreads(final int n) {
+        threads = Math.max(1, n);
+    }
+
+    /**
+     * Skip malformed lines and truncated records instead of failing, in
+     * every input.
+     * @param b true to be lenient.
+     * @see Lcovr#setLenient(boolean)
+     */
+    public final void setLenient(final boolean b) {
+        lenient = b;
+    }
+
+    /**
+     * Factory for conversions. How inputs are read is set on the batch.
+     * @return a new conversion.
+     */
+    public final Lcovr createConversion() {
+        Lcovr conversion = new Lcovr();
+        conversion.setProject(getProject());
+        conversions.add(conversion);
+        return conversion;
+    }
+
+    /**
+     * Execute this task.
+     */
+    @Override
+    public final void execute() {
+        List<List<File>> inputs = new Vector<List<File>>();
+        Map<File, Future<Vector<SourceFileInfo>>> parsed =
+            new LinkedHashMap<File, Future<Vector<SourceFileInfo>>>();
+        boolean keepChecksums = false;
+        for (Lcovr conversion : conversions) {
+            if (!conversion.getReadSettings().isEmpty()) {
+                throw new BuildException("<conversion> doesn't support "
+                        + conversion.getReadSettings()
+                        + "; set how inputs are read on <lcovbatch>.");
+            }
+            List<File> files = new Vector<File>();
+            for (File f : conversion.getInputFiles()) {
+                files.add(canonical(f));
+            }
+            inputs.add(files);
+            keepChecksums |= conversion.isVerifyChecksums();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<CoverageWriter[]> writers = new Vector<CoverageWriter[]>();
+            for (Lcovr conversion : conversions) {
+                writers.add(conversion.createWriters(pool));
+            }
+            for (List<File> files : inputs) {
+                for (File f : files) {
+                    if (!parsed.containsKey(f)) {
+                        parsed.put(f, pool.submit(parse(f, keepChecksums)));
+                    }
+                }
+            }
+            for (Future<Vector<SourceFileInfo>> f : parsed.values()) {
+                ChecksumVerifier.get(f);
+            }
+            if (diagnostics.getProblemCount() > 0) {
+                log(diagnostics.getSummary(), Project.MSG_WARN);
+            }
+            log("Parsed " + parsed.size() + " distinct inputs for "
+                    + conversions.size() + " conversions.");
+
+            List<Future<Integer>> written = new Vector<Future<Integer>>();
+            for (int i = 0; i < conversions.size(); i++) {
+                written.add(pool.submit(convert(conversions.get(i),
+                        inputs.get(i), parsed, writers.get(i))));
+            }
+            // let every conversion finish before failing the build
+            BuildException failure = null;
+            for (int i = 0; i < written.size(); i++) {
+                try {
+                    log("Conversion " + (i + 1) + " wrote "
+                            + ChecksumVerifier.get(written.get(i))
+                            + " source files.", Project.MSG_VERBOSE);
+                } catch (BuildException be) {
+                    failure = null == failure ? be : failure;
+                }
+            }
+            if (null != failure) {
+                throw failure;
+            }
+        } catch (IOException ioe) {
+            throw new BuildException("Couldn't convert coverage: "
+                    + ioe.getClass().getName() + ':' + ioe.getMessage(), ioe);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Read an input, once for the whole batch.
+     * @param input the input file.
+     * @param keepChecksums whether a conversion verifies checksums.
+     * @return the input's records.
+     */
+    private Callable<Vector<SourceFileInfo>> parse(final File input,
+            final boolean keepChecksums) {
+        return new Callable<Vector<SourceFileInfo>>() {
+            public Vector<SourceFileInfo> call() throws IOException {
+                Vector<SourceFileInfo> infos;
+                ParseDiagnostics problems;
+                if (CoberturaReader.accepts(input)) {
+                    CoberturaReader xml = new CoberturaReader(input);
+                    xml.setLenient(lenient);
+                    infos = xml.parse();
+                    problems = xml.getDiagnostics();
+                } else {
+                    LcovReader reader = new LcovReader(input);
+                    reader.setLenient(lenient);
+                    reader.setKeepChecksums(keepChecksums);
+                    reader.setNamePool(names);
+                    infos = reader.parseLazy();
+                    problems = reader.getDiagnostics();
+                }
+                synchronized (diagnostics) {
+                    diagnostics.add(problems);
+                }
+                return infos;
+            }
+        };
+    }
+
+    /**
+     * Merge a conversion's share of the parsed inputs, and report on it as
+     * &lt;lcov&gt; would.
+     * @param conversion the conversion.
+     * @param files the conversion's inputs.
+     * @param parsed the records of every input, all parsed already.
+     * @param out the conversion's writers.
+     * @return the number of source files written.
+     */
+    private static Callable<Integer> convert(final Lcovr conversion,
+            final List<File> files,
+            final Map<File, Future<Vector<SourceFileInfo>>> parsed,
+            final CoverageWriter[] out) {
+        return new Callable<Integer>() {
+            public Integer call() throws IOException {
+                List<File> sources = conversion.getSourceDirectories();
+                ChecksumVerifier verifier = null;
+                if (conversion.isVerifyChecksums()) {
+                    verifier = new ChecksumVerifier(sources, 1);
+                }
+                CoverageMerger merger = conversion.createMerger();
+                for (File f : files) {
+                    for (SourceFileInfo info : ChecksumVerifier.get(
+                            parsed.get(f))) {
+                        if (null != verifier) {
+                            verifier.add(info);
+                        }
+                        merger.add(info);
+                    }
+                }
+                Vector<SourceFileInfo> infos = merger.finish();
+                if (null != verifier) {
+                    conversion.verify(verifier);
+                }
+                conversion.report(infos, sources, out);
+                return infos.size();
+            }
+        };
+    }
+
+    /**
+     * @param f an input file.
+     * @return the file, identified the same way however it was named.
+     */
+    private static File canonical(final File f) {
+        try {
+            return f.getCanonicalFile();
+        } catch (IOException ioe) {
+            throw new BuildException("Couldn't resolve " + f, ioe);
+        }
+    }
+}
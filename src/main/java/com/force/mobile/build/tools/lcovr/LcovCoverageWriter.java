@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * A {@link CoverageWriter} that writes the data back as LCOV, one record per
+ * source file, for uploaders that want a single merged <code>.lcov</code>.
+ *
+ * <pre>
+ * SF:&lt;file name&gt;
+ * DA:&lt;line&gt;,&lt;hits&gt;
+ * FN:&lt;line&gt;[,&lt;end line&gt;],&lt;name&gt;
+ * FNDA:&lt;calls&gt;,&lt;name&gt;
+ * FNF:&lt;functions found&gt;
+ * FNH:&lt;functions hit&gt;
+ * BRDA:&lt;line&gt;,&lt;block&gt;,&lt;branch&gt;,&lt;taken or -&gt;
+ * BRF:&lt;branches found&gt;
+ * BRH:&lt;branches hit&gt;
+ * LF:&lt;lines found&gt;
+ * LH:&lt;lines hit&gt;
+ * end_of_record
+ * </pre>
+ *
+ * Numbers are formatted straight into a buffer, which is written to a file
+ * channel as it fills, so no <code>String</code> is built per line.
+ *
+ * @author Jason Schroeder
+ */
+public class LcovCoverageWriter implements CoverageWriter {
+
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest number: <code>-2147483648</code>.
+     */
+    private static final int MAX_DIGITS = 11;
+
+    /**
+     * Encoding of file names.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * <code>SF:</code> prefix.
+     */
+    private static final byte[] SF = bytes("SF:");
+
+    /**
+     * <code>DA:</code> prefix.
+     */
+    private static final byte[] DA = bytes("DA:");
+
+    /**
+     * <code>FN:</code> prefix.
+     */
+    private static final byte[] FN = bytes("FN:");
+
+    /**
+     * <code>FNDA:</code> prefix.
+     */
+    private static final byte[] FNDA = bytes("FNDA:");
+
+    /**
+     * <code>FNF:</code> prefix.
+     */
+    private static final byte[] FNF = bytes("FNF:");
+
+    /**
+     * <code>FNH:</code> prefix.
+     */
+    private static final byte[] FNH = bytes("FNH:");
+
+    /**
+     * <code>BRDA:</code> prefix.
+     */
+    private static final byte[] BRDA = bytes("BRDA:");
+
+    /**
+     * <code>BRF:</code> prefix.
+     */
+    private static final byte[] BRF = bytes("BRF:");
+
+    /**
+     * <code>BRH:</code> prefix.
+     */
+    private static final byte[] BRH = bytes("BRH:");
+
+    /**
+     * <code>LF:</code> prefix.
+     */
+    private static final byte[] LF = bytes("LF:");
+
+    /**
+     * <code>LH:</code> prefix.
+     */
+    private static final byte[] LH = bytes("LH:");
+
+    /**
+     * Record terminator.
+     */
+    private static final byte[] END_OF_RECORD = bytes("end_of_record\n");
+
+    /**
+     * The file to write.
+     */
+    private final File outputFile;
+
+    /**
+     * The open output, between {@link #begin(List, int, int, int, int)} and
+     * {@link #end()}.
+     */
+    private FileChannel channel;
+
+    /**
+     * Bytes not written to {@link #channel} yet.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Digits of the number being formatted, from the last one.
+     */
+    private final byte[] digits = new byte[MAX_DIGITS];
+
+    /**
+     * The file being written, between {@link #beginClass(SourceFileInfo)}
+     * and {@link #endClass()}.
+     */
+    private SourceFileInfo current;
+
+    /**
+     * Constructor.
+     *
+     * @param output
+     *            The file to write the LCOV data to.
+     */
+    public LcovCoverageWriter(final File output) {
+        outputFile = output;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void begin(final List<File> sourceDirectories,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit) throws IOException {
+        channel = new FileOutputStream(outputFile).getChannel();
+        buffer.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginPackage(final String packageName,
+            final int linesFound, final int linesHit,
+            final int branchesFound, final int branchesHit,
+            final double complexity) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void beginClass(final SourceFileInfo info)
+    throws IOException {
+        current = info;
+        put(SF);
+        put(info.getFileName().getBytes(UTF8));
+        put((byte) '\n');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void line(final int lineNumber, final int hits)
+    throws IOException {
+        if (buffer.remaining() < DA.length + 2 * MAX_DIGITS + 2) {
+            flush();
+        }
+        buffer.put(DA);
+        putNumber(lineNumber);
+        buffer.put((byte) ',');
+        putNumber(hits);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endClass() throws IOException {
+        FunctionData functions = current.getFunctions();
+        if (null != functions) {
+            for (int i = 0; i < functions.size(); i++) {
+                byte[] name = functions.getName(i).getBytes(UTF8);
+                put(FN);
+                putNumber(functions.getLine(i), (byte) ',');
+                if (functions.getEndLine(i) != FunctionData.UNKNOWN) {
+                    putNumber(functions.getEndLine(i), (byte) ',');
+                }
+                put(name);
+                put((byte) '\n');
+            }
+            for (int i = 0; i < functions.size(); i++) {
+                put(FNDA);
+                putNumber(functions.getHits(i), (byte) ',');
+                put(functions.getName(i).getBytes(UTF8));
+                put((byte) '\n');
+            }
+        }
+        if (null != functions || current.getFnf() > 0) {
+            put(FNF);
+            put(current.getFnf());
+            put(FNH);
+            put(current.getFnh());
+        }
+        BranchData branches = current.getBranches();
+        if (null != branches) {
+            for (int i = 0; i < branches.size(); i++) {
+                if (buffer.remaining() < BRDA.length + 4 * MAX_DIGITS + 4) {
+                    flush();
+                }
+                buffer.put(BRDA);
+                putNumber(branches.getLine(i));
+                buffer.put((byte) ',');
+                putNumber(branches.getBlock(i));
+                buffer.put((byte) ',');
+                putNumber(branches.getBranch(i));
+                buffer.put((byte) ',');
+                int taken = branches.getTaken(i);
+                if (BranchData.NOT_EXECUTED == taken) {
+                    buffer.put((byte) '-');
+                } else {
+                    putNumber(taken);
+                }
+                buffer.put((byte) '\n');
+            }
+        }
+        if (null != branches || current.getBrf() > 0) {
+            put(BRF);
+            put(current.getBrf());
+            put(BRH);
+            put(current.getBrh());
+        }
+        put(LF);
+        put(current.getLf());
+        put(LH);
+        put(current.getLh());
+        put(END_OF_RECORD);
+        current = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void endPackage() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void end() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void abort() throws IOException {
+        if (null != channel) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Write a number and a newline.
+     *
+     * @param n
+     *            The number.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void put(final int n) throws IOException {
+        putNumber(n, (byte) '\n');
+    }
+
+    /**
+     * Write a number followed by a separator.
+     *
+     * @param n
+     *            The number.
+     * @param separator
+     *            The byte after it.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void putNumber(final int n, final byte separator)
+    throws IOException {
+        if (buffer.remaining() < MAX_DIGITS + 1) {
+            flush();
+        }
+        putNumber(n);
+        buffer.put(separator);
+    }
+
+    /**
+     * Format a number into the buffer, which must have room for it.
+     *
+     * @param n
+     *            The number.
+     */
+    private void putNumber(final int n) {
+        long v = n;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+        buffer.put(digits, i, digits.length - i);
+    }
+
+    /**
+     * Write a single byte.
+     *
+     * @param b
+     *            The byte.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void put(final byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(b);
+    }
+
+    /**
+     * Write bytes, however many.
+     *
+     * @param bytes
+     *            The bytes.
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void put(final byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    /**
+     * Write the buffer to the channel.
+     *
+     * @throws IOException
+     *             on any i/o error.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @param s
+     *            ASCII text.
+     * @return Its bytes.
+     */
+    private static byte[] bytes(final String s) {
+        return s.getBytes(UTF8);
+    }
+}
@@ -26,31 +26,240 @@
 package com.force.mobile.build.tools.lcovr;
 
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Vector;
 
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.LineChecksums;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
 import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+import com.force.mobile.build.tools.lcovr.data.TestCoverageIndex;
 
 /**
  * Reads <code>.lcov</code> files.
+ *
+ * The input is memory-mapped and scanned at the byte level, one window at a
+ * time, so no <code>String</code> is created for the (very common)
+ * <code>DA:</code> lines. Streams, such as standard input or a named pipe,
+ * are scanned the same way, through a buffer that is refilled as data
+ * arrives.
  * @author jason
  *
  */
 public class LcovReader {
     /**
-     * The input file.
+     * Default number of bytes mapped from the input file at one time.
+     */
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Size of the buffer that streams are read into.
+     */
+    static final int STREAM_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Charset of the file names in <code>SF:</code> lines.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A word with <code>'\n'</code> in every byte.
+     */
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+    /**
+     * A word with <code>0x01</code> in every byte.
+     */
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    /**
+     * A word with <code>0x80</code> in every byte.
+     */
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Returned by the number parsers for malformed input.
+     */
+    static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+    /**
+     * Value of each base64 character, or <code>-1</code>.
+     */
+    private static final byte[] BASE64 = new byte[128];
+
+    static {
+        Arrays.fill(BASE64, (byte) -1);
+        String alphabet =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    /**
+     * The input file, or <code>null</code> for a stream.
      */
     private final File file;
 
+    /**
+     * The input stream, or <code>null</code> for a file.
+     */
+    private final ReadableByteChannel stream;
+
+    /**
+     * Name of the input, for diagnostics.
+     */
+    private final String inputName;
+
+    /**
+     * Number of bytes mapped from the input file at one time.
+     */
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * Where {@link #parse()} keeps line information, or <code>null</code>
+     * for the heap.
+     */
+    private OffHeapLineStorage lineStorage;
+
+    /**
+     * Where to record which test executed which line, or <code>null</code>.
+     */
+    private TestCoverageIndex testIndex;
+
+    /**
+     * Whether to skip malformed input instead of failing.
+     */
+    private boolean lenient;
+
+    /**
+     * Whether to keep the checksums of <code>DA:</code> lines.
+     */
+    private boolean keepChecksums;
+
+    /**
+     * Where function names are kept.
+     */
+    private NamePool namePool = new NamePool();
+
+    /**
+     * Number of records read by the last parse.
+     */
+    private int recordCount;
+
+    /**
+     * Problems skipped by the last parse.
+     */
+    private ParseDiagnostics diagnostics = new ParseDiagnostics();
+
     /**
      * Default constructor.
      * @param inputFile File to read from.
      */
     public LcovReader(final File inputFile) {
         file = inputFile;
+        stream = null;
+        inputName = inputFile.getPath();
+    }
+
+    /**
+     * Read from a stream, such as standard input or a named pipe. The stream
+     * is read once, up to its end, and is not closed.
+     * @param input channel to read from.
+     * @param name name of the input, for diagnostics.
+     */
+    public LcovReader(final ReadableByteChannel input, final String name) {
+        file = null;
+        stream = input;
+        inputName = name;
+    }
+
+    /**
+     * Read from an <code>InputStream</code>.
+     * @param input stream to read from.
+     * @param name name of the input, for diagnostics.
+     * @see #LcovReader(ReadableByteChannel, String)
+     */
+    public LcovReader(final InputStream input, final String name) {
+        this(Channels.newChannel(input), name);
+    }
+
+    /**
+     * Set the number of bytes mapped from the input at one time. A single
+     * line must fit in one window.
+     * @param bytes window size.
+     */
+    final void setWindowSize(final int bytes) {
+        windowSize = bytes;
+    }
+
+    /**
+     * Keep the line information read by {@link #parse()} off the Java heap.
+     * @param storage where to keep line information, or <code>null</code>
+     *            for the heap.
+     */
+    public final void setLineStorage(final OffHeapLineStorage storage) {
+        lineStorage = storage;
+    }
+
+    /**
+     * Record which test (<code>TN:</code> section) executed which line, in
+     * every parse mode. Lines outside any <code>TN:</code> section are
+     * attributed to the test named <code>""</code>.
+     * @param index where to record, or <code>null</code> not to.
+     */
+    public final void setTestIndex(final TestCoverageIndex index) {
+        testIndex = index;
+    }
+
+    /**
+     * Skip malformed lines and truncated records instead of failing. The
+     * problems are counted, and available from {@link #getDiagnostics()}.
+     * @param b true to be lenient.
+     */
+    public final void setLenient(final boolean b) {
+        lenient = b;
+    }
+
+    /**
+     * Keep the per-line source checksums of
+     * <code>DA:&lt;line&gt;,&lt;count&gt;,&lt;checksum&gt;</code> lines, in
+     * every parse mode.
+     * @param b true to keep checksums.
+     * @see SourceFileInfo#getChecksums()
+     */
+    public final void setKeepChecksums(final boolean b) {
+        keepChecksums = b;
+    }
+
+    /**
+     * Share function names with other readers, so that each distinct name
+     * is kept once. By default each reader has a pool of its own.
+     * @param pool where function names are kept.
+     */
+    public final void setNamePool(final NamePool pool) {
+        namePool = pool;
+    }
+
+    /**
+     * Get the problems skipped by the last parse, in lenient mode.
+     * @return the problems.
+     */
+    public final ParseDiagnostics getDiagnostics() {
+        return diagnostics;
     }
 
     /**
@@ -59,37 +268,1238 @@ public class LcovReader {
      * @throws IOException for any i/o read error.
      */
     public final Vector<SourceFileInfo> parse() throws IOException {
-        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        return read(Mode.FULL, null);
+    }
 
-        SourceFileInfo info = null;
+    /**
+     * Read the input, handing each record to a visitor as soon as its
+     * <code>end_of_record</code> is read, instead of keeping them all. From a
+     * stream, records are handed over as the data arrives.
+     * @param visitor receives each record, with its line information.
+     * @return number of records read.
+     * @throws IOException for any i/o read error, or from the visitor.
+     */
+    public final int parse(final RecordVisitor visitor) throws IOException {
+        read(Mode.FULL, visitor);
+        return recordCount;
+    }
 
-        BufferedReader r = new BufferedReader(new FileReader(file));
-        String line = r.readLine();
-        while (null != line) {
-            line = line.trim();
-            if (line.startsWith("SF:")) {
-                // the rest is the "Source File"
-                info = new SourceFileInfo(line.substring("SF:".length()));
-            } else if (line.startsWith("DA:")) {
+    /**
+     * Read only the summary of the input file. The returned objects carry
+     * the <code>LF:</code> and <code>LH:</code> values, but no line
+     * information; <code>DA:</code> lines are skipped without being decoded.
+     * For records without <code>LF:</code>/<code>LH:</code>, the values are
+     * counted from the <code>DA:</code> lines instead.
+     * @return parsed objects, without line information.
+     * @throws IOException for any i/o read error.
+     */
+    public final Vector<SourceFileInfo> parseSummary() throws IOException {
+        return read(Mode.SUMMARY, null);
+    }
+
+    /**
+     * Read the input file, deferring <code>DA:</code> decoding. Each returned
+     * object keeps a pointer to the byte range of its record in the mapped
+     * input, and decodes its line information only when
+     * {@link SourceFileInfo#getLineInfo()} or
+     * {@link SourceFileInfo#forEachLine(com.force.mobile.build.tools.lcovr.data.LineVisitor)}
+     * is called. The input file must not be modified while the returned
+     * objects are in use. Streams can't be read lazily.
+     * @return parsed objects, with lazily decoded line information.
+     * @throws IOException for any i/o read error.
+     */
+    public final Vector<SourceFileInfo> parseLazy() throws IOException {
+        if (null == file) {
+            throw new UnsupportedOperationException(
+                    "Only files can be parsed lazily");
+        }
+        return read(Mode.LAZY, null);
+    }
+
+    /**
+     * Feed the input to a {@link Parser}.
+     * @param mode how to treat <code>DA:</code> lines.
+     * @param visitor receives each record, or <code>null</code> to return
+     *            them.
+     * @return parsed objects.
+     * @throws IOException for any i/o read error.
+     */
+    private Vector<SourceFileInfo> read(final Mode mode,
+            final RecordVisitor visitor) throws IOException {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        diagnostics = new ParseDiagnostics();
+        Parser parser = new Parser(mode, lineStorage, testIndex);
+        parser.inputName = inputName;
+        parser.visitor = visitor;
+        parser.names = namePool;
+        if (lenient) {
+            parser.diagnose(diagnostics);
+        }
+        if (keepChecksums) {
+            parser.keepChecksums();
+        }
+        event.bytes = null == file ? readStream(parser) : readFile(parser);
+        recordCount = parser.recordCount;
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = inputName;
+            event.mode = mode.name().toLowerCase();
+            event.records = parser.recordCount;
+            event.commit();
+        }
+        return parser.infos;
+    }
+
+    /**
+     * Map the input file window by window, and feed it to a parser.
+     * @param parser the parser.
+     * @return number of bytes read.
+     * @throws IOException for any i/o read error.
+     */
+    private long readFile(final Parser parser) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(windowSize, size - position);
+                boolean last = position + length == size;
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, length).order(ByteOrder.LITTLE_ENDIAN);
+                int consumed = parser.parse(window, last);
+                if (consumed == 0) {
+                    throw new IOException("Line longer than " + windowSize
+                            + " bytes at offset " + position + " of " + file);
+                }
+                position += consumed;
+            }
+            parser.finish();
+            return size;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read the input stream into a buffer, and feed the complete lines to a
+     * parser after each read, keeping the partial last line for the next.
+     * @param parser the parser.
+     * @return number of bytes read.
+     * @throws IOException for any i/o read error.
+     */
+    private long readStream(final Parser parser) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                Math.min(windowSize, STREAM_BUFFER_SIZE))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        long size = 0;
+        boolean last = false;
+        while (!last) {
+            int n = stream.read(buffer);
+            if (n < 0) {
+                last = true;
+            } else {
+                size += n;
+            }
+            buffer.flip();
+            int consumed = parser.parse(buffer, last);
+            if (consumed == 0 && buffer.limit() == buffer.capacity()) {
+                throw new IOException("Line longer than " + buffer.capacity()
+                        + " bytes at offset " + size + " of " + inputName);
+            }
+            buffer.position(consumed);
+            buffer.compact();
+        }
+        parser.finish();
+        return size;
+    }
+
+    /**
+     * Find the next <code>'\n'</code>, eight bytes at a time.
+     * @param buf buffer to search, in little-endian order.
+     * @param from first index to look at.
+     * @param limit index to stop at.
+     * @return index of the newline, or <code>-1</code>.
+     */
+    static int indexOfNewline(final ByteBuffer buf, final int from,
+            final int limit) {
+        int i = from;
+        while (i + 8 <= limit) {
+            long word = buf.getLong(i) ^ NEWLINES;
+            long found = (word - LOW_BITS) & ~word & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += 8;
+        }
+        for (; i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decode the <code>DA:</code> lines of a range of complete lines.
+     * @param buf buffer to read, in little-endian order.
+     * @param from start of the first line.
+     * @param to end of the last line.
+     * @param lenient whether to skip malformed lines, instead of throwing.
+     * @param visitor receives each line number and execution count.
+     */
+    static void decodeLines(final ByteBuffer buf, final int from,
+            final int to, final boolean lenient, final LineVisitor visitor) {
+        int start = from;
+        while (start < to) {
+            int end = indexOfNewline(buf, start, to);
+            if (end < 0) {
+                end = to;
+            }
+            int lineFrom = start;
+            while (lineFrom < end && buf.get(lineFrom) <= ' ') {
+                lineFrom++;
+            }
+            int lineTo = end;
+            while (lineTo > lineFrom && buf.get(lineTo - 1) <= ' ') {
+                lineTo--;
+            }
+            if (startsWith(buf, lineFrom, lineTo, "DA:")) {
+                int daFrom = lineFrom + "DA:".length();
+                if (!lenient) {
+                    long da = parseDa(buf, daFrom, lineTo);
+                    visitor.line((int) (da >> 32), (int) da);
+                } else {
+                    long da = tryParseDa(buf, daFrom, lineTo);
+                    if (da != NOT_A_NUMBER) {
+                        visitor.line((int) (da >> 32), (int) da);
+                    }
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decode the fields of a <code>DA:</code> line.
+     * <code>DA:&lt;line number&gt;,&lt;execution count&gt;[,&lt;checksum&gt;]</code>
+     * @param buf buffer to read.
+     * @param from first byte after the tag.
+     * @param to end of the line.
+     * @return the line number in the high, and the count in the low 32 bits.
+     */
+    static long parseDa(final ByteBuffer buf, final int from, final int to) {
+        int comma = from;
+        while (comma < to && buf.get(comma) != ',') {
+            comma++;
+        }
+        int countFrom = Math.min(comma + 1, to);
+        int countEnd = countFrom;
+        while (countEnd < to && buf.get(countEnd) != ',') {
+            countEnd++;
+        }
+        int lineNumber = parseInt(buf, from, comma);
+        int execCount = parseInt(buf, countFrom, countEnd);
+        return ((long) lineNumber << 32) | (execCount & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decode the fields of a <code>DA:</code> line, without throwing. Line
+     * numbers must be positive.
+     * @param buf buffer to read.
+     * @param from first byte after the tag.
+     * @param to end of the line.
+     * @return the line number in the high, and the count in the low 32 bits,
+     *         or {@link #NOT_A_NUMBER}.
+     */
+    static long tryParseDa(final ByteBuffer buf, final int from,
+            final int to) {
+        int comma = from;
+        while (comma < to && buf.get(comma) != ',') {
+            comma++;
+        }
+        if (comma == to) {
+            return NOT_A_NUMBER;
+        }
+        int countEnd = comma + 1;
+        while (countEnd < to && buf.get(countEnd) != ',') {
+            countEnd++;
+        }
+        long lineNumber = parseNumber(buf, from, comma);
+        long execCount = parseNumber(buf, comma + 1, countEnd);
+        if (lineNumber <= 0 || execCount == NOT_A_NUMBER) {
+            return NOT_A_NUMBER;
+        }
+        return (lineNumber << 32) | (execCount & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Parse a decimal integer from a range of bytes, without throwing.
+     * @param buf buffer to read.
+     * @param from first index.
+     * @param to index after the last digit.
+     * @return the value, or {@link #NOT_A_NUMBER}.
+     */
+    static long parseNumber(final ByteBuffer buf, final int from,
+            final int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && buf.get(i) == '-') {
+            negative = true;
+            i++;
+        }
+        if (i == to) {
+            return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buf.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                return NOT_A_NUMBER;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            return NOT_A_NUMBER;
+        }
+        return value;
+    }
+
+    /**
+     * Parse a decimal integer from a range of bytes, like
+     * {@link Integer#parseInt(String)}.
+     * @param buf buffer to read.
+     * @param from first index.
+     * @param to index after the last digit.
+     * @return the value.
+     * @throws NumberFormatException if the range is not a number.
+     */
+    static int parseInt(final ByteBuffer buf, final int from, final int to) {
+        long value = parseNumber(buf, from, to);
+        if (value == NOT_A_NUMBER) {
+            throw new NumberFormatException(
+                    "For input string: \"" + text(buf, from, to) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Decode a base64 MD5 digest, as written by <code>geninfo</code>: 22
+     * characters, optionally padded to 24.
+     * @param buf buffer to read.
+     * @param from first index.
+     * @param to index after the last character.
+     * @param out where to decode to.
+     * @param offset where to start in <code>out</code>.
+     * @return false if the range is not a base64 MD5 digest.
+     */
+    static boolean decodeDigest(final ByteBuffer buf, final int from,
+            final int to, final byte[] out, final int offset) {
+        int end = to;
+        while (end > from && buf.get(end - 1) == '=') {
+            end--;
+        }
+        if (end - from != 22 || to - from > 24) {
+            return false;
+        }
+        int bits = 0;
+        int bitCount = 0;
+        int o = offset;
+        for (int i = from; i < end; i++) {
+            int b = buf.get(i);
+            int v = b >= 0 ? BASE64[b] : -1;
+            if (v < 0) {
+                return false;
+            }
+            bits = (bits << 6) | v;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >> bitCount);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decode a range of bytes as UTF-8.
+     * @param buf buffer to read.
+     * @param from first index.
+     * @param to index after the last byte.
+     * @return the decoded text.
+     */
+    static String text(final ByteBuffer buf, final int from, final int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(from + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * A little-endian view of a range of a window.
+     * @param buf the window.
+     * @param from first index.
+     * @param to index after the last byte.
+     * @return a buffer sharing the window's content.
+     */
+    private static ByteBuffer slice(final ByteBuffer buf, final int from,
+            final int to) {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(to);
+        dup.position(from);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Whether the line at <code>from</code> starts with a given tag.
+     * @param buf buffer to read.
+     * @param from start of the line.
+     * @param to end of the line.
+     * @param tag ASCII tag, such as <code>"SF:"</code>.
+     * @return true if the line starts with <code>tag</code>.
+     */
+    private static boolean startsWith(final ByteBuffer buf, final int from,
+            final int to, final String tag) {
+        if (to - from < tag.length()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (buf.get(from + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Receives the records of {@link LcovReader#parse(RecordVisitor)}, one at
+     * a time.
+     */
+    public interface RecordVisitor {
+        /**
+         * Handle a record.
+         * @param info the record, with its line information.
+         * @throws IOException if it can't be handled.
+         */
+        void visit(SourceFileInfo info) throws IOException;
+    }
+
+    /**
+     * How the {@link Parser} treats <code>DA:</code> lines.
+     */
+    private enum Mode {
+        /** Decode into the line information map. */
+        FULL,
+        /** Only count them. */
+        SUMMARY,
+        /** Count them, and keep a pointer for decoding later. */
+        LAZY
+    }
+
+    /**
+     * Line-by-line state machine. The state survives from one window to the
+     * next, so records may span windows.
+     */
+    private static final class Parser {
+        /**
+         * Parsed records.
+         */
+        private final Vector<SourceFileInfo> infos =
+            new Vector<SourceFileInfo>();
+
+        /**
+         * Receives each record instead of {@link #infos}, or
+         * <code>null</code>.
+         */
+        private RecordVisitor visitor;
+
+        /**
+         * Number of records read.
+         */
+        private int recordCount;
+
+        /**
+         * Where function names are kept.
+         */
+        private NamePool names;
+
+        /**
+         * How to treat <code>DA:</code> lines.
+         */
+        private final Mode mode;
+
+        /**
+         * In {@link Mode#FULL}, where to keep line information, or
+         * <code>null</code> for the heap.
+         */
+        private final OffHeapLineStorage storage;
+
+        /**
+         * Where to record which test executed which line, or
+         * <code>null</code>.
+         */
+        private final TestCoverageIndex testIndex;
+
+        /**
+         * Name of the current <code>TN:</code> section.
+         */
+        private String testName = "";
+
+        /**
+         * Where to count skipped problems, or <code>null</code> to fail on
+         * the first one.
+         */
+        private ParseDiagnostics diagnostics;
+
+        /**
+         * The current record's packed <code>DA:</code> lines. In
+         * {@link Mode#SUMMARY} and {@link Mode#LAZY}, the low bits only tell
+         * whether the line was executed.
+         */
+        private long[] packed = new long[1024];
+
+        /**
+         * Name of the input, for errors and diagnostics.
+         */
+        private String inputName;
+
+        /**
+         * Number of the current line, for errors and diagnostics.
+         */
+        private int lineNumber;
+
+        /**
+         * Whether to keep the checksums of <code>DA:</code> lines.
+         */
+        private boolean keepChecksums;
+
+        /**
+         * Line numbers of the current record's checksums.
+         */
+        private int[] checksumLines;
+
+        /**
+         * Decoded checksums of the current record.
+         */
+        private byte[] checksumDigests;
+
+        /**
+         * Number of checksums in the current record.
+         */
+        private int checksumCount;
+
+        /**
+         * The record being read.
+         */
+        private SourceFileInfo info;
+
+        /**
+         * <code>DA:</code> lines seen in the current record.
+         */
+        private int daCount;
+
+        /**
+         * <code>DA:</code> lines with a non-zero count in the current record.
+         */
+        private int daHit;
+
+        /**
+         * Whether the line numbers of the current record's <code>DA:</code>
+         * lines are strictly ascending so far.
+         */
+        private boolean sorted;
+
+        /**
+         * The current record's <code>BRDA:</code> lines, or <code>null</code>
+         * if it has none so far.
+         */
+        private BranchData branchData;
+
+        /**
+         * In {@link Mode#SUMMARY}, <code>BRDA:</code> lines seen in the
+         * current record.
+         */
+        private int brdaCount;
+
+        /**
+         * In {@link Mode#SUMMARY}, <code>BRDA:</code> lines taken at least
+         * once in the current record.
+         */
+        private int brdaHit;
+
+        /**
+         * The current record's <code>BRF:</code>, or <code>-1</code>.
+         */
+        private int brf = -1;
+
+        /**
+         * The current record's <code>BRH:</code>, or <code>-1</code>.
+         */
+        private int brh = -1;
+
+        /**
+         * The current record's <code>FN:</code> and <code>FNDA:</code>
+         * lines, or <code>null</code> if it has none so far.
+         */
+        private FunctionData functionData;
+
+        /**
+         * In {@link Mode#SUMMARY}, <code>FN:</code> lines seen in the
+         * current record.
+         */
+        private int fnCount;
+
+        /**
+         * In {@link Mode#SUMMARY}, <code>FNDA:</code> lines with a non-zero
+         * count in the current record.
+         */
+        private int fndaHit;
+
+        /**
+         * The current record's <code>FNF:</code>, or <code>-1</code>.
+         */
+        private int fnf = -1;
+
+        /**
+         * The current record's <code>FNH:</code>, or <code>-1</code>.
+         */
+        private int fnh = -1;
+
+        /**
+         * Whether the current record had an <code>LF:</code> line.
+         */
+        private boolean lfSeen;
+
+        /**
+         * Whether the current record had an <code>LH:</code> line.
+         */
+        private boolean lhSeen;
+
+        /**
+         * In {@link Mode#LAZY}, the start of the current record's unclaimed
+         * bytes in the current window, or <code>-1</code> outside a record.
+         */
+        private int segmentStart = -1;
+
+        /**
+         * In {@link Mode#LAZY}, the byte ranges of the current record in
+         * earlier windows.
+         */
+        private final Vector<ByteBuffer> segments = new Vector<ByteBuffer>();
+
+        /**
+         * Constructor.
+         * @param parseMode how to treat <code>DA:</code> lines.
+         * @param offHeap where to keep line information in
+         *            {@link Mode#FULL}, or <code>null</code> for the heap.
+         * @param tests where to record which test executed which line, or
+         *            <code>null</code>.
+         */
+        Parser(final Mode parseMode, final OffHeapLineStorage offHeap,
+                final TestCoverageIndex tests) {
+            mode = parseMode;
+            storage = offHeap;
+            testIndex = tests;
+        }
+
+        /**
+         * Skip over problems instead of failing.
+         * @param problems where to count the problems.
+         */
+        void diagnose(final ParseDiagnostics problems) {
+            diagnostics = problems;
+        }
+
+        /**
+         * Keep the checksums of <code>DA:</code> lines.
+         */
+        void keepChecksums() {
+            keepChecksums = true;
+            checksumLines = new int[256];
+            checksumDigests = new byte[256 * LineChecksums.DIGEST_LENGTH];
+        }
+
+        /**
+         * Handle the end of the input.
+         */
+        void finish() {
+            if (null != info && null != diagnostics) {
+                drop();
+            }
+        }
+
+        /**
+         * Drop the current, unterminated record.
+         */
+        private void drop() {
+            diagnostics.add(ParseDiagnostics.Problem.UNTERMINATED_RECORD,
+                    inputName, lineNumber);
+            info = null;
+            segments.clear();
+            segmentStart = -1;
+        }
+
+        /**
+         * Count a problem with the current line.
+         * @param problem the kind of problem.
+         */
+        private void skip(final ParseDiagnostics.Problem problem) {
+            diagnostics.add(problem, inputName, lineNumber);
+        }
+
+        /**
+         * Parse all complete lines of a window.
+         * @param buf the window.
+         * @param last whether this is the end of the input.
+         * @return number of bytes consumed.
+         * @throws IOException if a line is malformed or can't be stored.
+         */
+        int parse(final ByteBuffer buf, final boolean last)
+        throws IOException {
+            int limit = buf.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = indexOfNewline(buf, start, limit);
+                if (end < 0) {
+                    if (!last) {
+                        break;
+                    }
+                    end = limit;
+                }
+                line(buf, start, end);
+                start = end + 1;
+            }
+            int consumed = Math.min(start, limit);
+            if (segmentStart >= 0) {
+                // the record continues in the next window
+                segments.add(slice(buf, segmentStart, consumed));
+                segmentStart = 0;
+            }
+            return consumed;
+        }
+
+        /**
+         * Handle one line.
+         * @param buf the window.
+         * @param lineStart index of the first byte of the line.
+         * @param lineEnd index of the newline (or end of input).
+         * @throws IOException if the line is malformed or can't be stored.
+         */
+        private void line(final ByteBuffer buf, final int lineStart,
+                final int lineEnd) throws IOException {
+            lineNumber++;
+            int from = lineStart;
+            int to = lineEnd;
+            while (from < to && buf.get(from) <= ' ') {
+                from++;
+            }
+            while (to > from && buf.get(to - 1) <= ' ') {
+                to--;
+            }
+            if (startsWith(buf, from, to, "DA:")) {
                 // DA:<line number>,<execution count>[,<checksum>]
-                String[] tup = line.substring("DA:".length()).split(",");
-                int lineNumber = Integer.parseInt(tup[0]);
-                int execCount = Integer.parseInt(tup[1]);
-                info.getLineInfo().put(lineNumber, execCount);
-            } else if (line.startsWith("LH:")) {
+                int daFrom = from + "DA:".length();
+                if (null != diagnostics) {
+                    lenientLine(buf, daFrom, to);
+                    return;
+                }
+                long da;
+                if (mode == Mode.FULL) {
+                    da = decodeLine(buf, daFrom, to);
+                    storeLine(da);
+                } else {
+                    countLine(buf, daFrom, to);
+                    if (null == testIndex && !keepChecksums) {
+                        return;
+                    }
+                    da = decodeLine(buf, daFrom, to);
+                }
+                if (null != testIndex) {
+                    recordTest(da);
+                }
+                if (keepChecksums) {
+                    addChecksum(buf, daFrom, to, (int) (da >> 32));
+                }
+            } else if (startsWith(buf, from, to, "BRDA:")) {
+                // BRDA:<line>,<block>,<branch>,<taken or ->
+                branch(buf, from + "BRDA:".length(), to);
+            } else if (startsWith(buf, from, to, "BRF:")) {
+                /* BRF:<number of branches> */
+                brf = summaryValue(buf, from + "BRF:".length(), to);
+            } else if (startsWith(buf, from, to, "BRH:")) {
+                /* BRH:<number of branches taken> */
+                brh = summaryValue(buf, from + "BRH:".length(), to);
+            } else if (startsWith(buf, from, to, "FN:")) {
+                // FN:<line>,[<end line>,]<name>
+                function(buf, from + "FN:".length(), to);
+            } else if (startsWith(buf, from, to, "FNDA:")) {
+                // FNDA:<execution count>,<name>
+                functionHits(buf, from + "FNDA:".length(), to);
+            } else if (startsWith(buf, from, to, "FNF:")) {
+                /* FNF:<number of functions> */
+                fnf = summaryValue(buf, from + "FNF:".length(), to);
+            } else if (startsWith(buf, from, to, "FNH:")) {
+                /* FNH:<number of functions hit> */
+                fnh = summaryValue(buf, from + "FNH:".length(), to);
+            } else if (startsWith(buf, from, to, "TN:")) {
+                // TN:<test name>, for the records that follow
+                testName = text(buf, from + "TN:".length(), to);
+            } else if (startsWith(buf, from, to, "SF:")) {
+                // the rest is the "Source File"
+                if (null != info && null != diagnostics) {
+                    drop();
+                }
+                info = new SourceFileInfo(
+                        text(buf, from + "SF:".length(), to));
+                if (mode == Mode.LAZY) {
+                    segments.clear();
+                    segmentStart = Math.min(lineEnd + 1, buf.limit());
+                }
+                daCount = 0;
+                daHit = 0;
+                sorted = true;
+                branchData = null;
+                brdaCount = 0;
+                brdaHit = 0;
+                brf = -1;
+                brh = -1;
+                functionData = null;
+                fnCount = 0;
+                fndaHit = 0;
+                fnf = -1;
+                fnh = -1;
+                checksumCount = 0;
+                lfSeen = false;
+                lhSeen = false;
+            } else if (startsWith(buf, from, to, "LH:")) {
                 /* LH:<number of lines with non-zero execution count> */
-                info.setLh(Integer.parseInt(line.substring("LH:".length())));
-            } else if (line.startsWith("LF:")) {
+                int lh = summaryValue(buf, from + "LH:".length(), to);
+                if (lh >= 0) {
+                    info.setLh(lh);
+                    lhSeen = true;
+                }
+            } else if (startsWith(buf, from, to, "LF:")) {
                 /* LF:<number of instrumented lines> */
-                info.setLf(Integer.parseInt(line.substring("LF:".length())));
-            } else if (line.equals("end_of_record")) {
+                int lf = summaryValue(buf, from + "LF:".length(), to);
+                if (lf >= 0) {
+                    info.setLf(lf);
+                    lfSeen = true;
+                }
+            } else if (startsWith(buf, from, to, "end_of_record")
+                    && to - from == "end_of_record".length()) {
                 // new section!
-                infos.add(info);
+                if (null == info && null != diagnostics) {
+                    skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                    return;
+                }
+                if (!sorted) {
+                    // a line repeated within the record counts once, with
+                    // its last count
+                    daCount = SourceFileInfo.normalizeLines(packed, daCount);
+                    daHit = 0;
+                    for (int i = 0; i < daCount; i++) {
+                        if ((int) packed[i] > 0) {
+                            daHit++;
+                        }
+                    }
+                }
+                if (!lfSeen) {
+                    info.setLf(daCount);
+                }
+                if (!lhSeen) {
+                    info.setLh(daHit);
+                }
+                if (null != branchData) {
+                    info.setBranches(branchData.normalize());
+                    branchData = null;
+                } else {
+                    info.setBrf(brdaCount);
+                    info.setBrh(brdaHit);
+                }
+                if (brf >= 0) {
+                    info.setBrf(brf);
+                }
+                if (brh >= 0) {
+                    info.setBrh(brh);
+                }
+                if (null != functionData) {
+                    info.setFunctions(functionData.normalize());
+                    functionData = null;
+                } else {
+                    info.setFnf(fnCount);
+                    info.setFnh(fndaHit);
+                }
+                if (fnf >= 0) {
+                    info.setFnf(fnf);
+                }
+                if (fnh >= 0) {
+                    info.setFnh(fnh);
+                }
+                if (mode == Mode.LAZY) {
+                    segments.add(slice(buf, segmentStart, lineStart));
+                    info.setLineStore(new MappedLineStore(
+                            segments.toArray(new ByteBuffer[segments.size()]),
+                            sorted, null != diagnostics));
+                    segments.clear();
+                    segmentStart = -1;
+                } else if (null != storage) {
+                    info.setLineStore(storage.store(packed, daCount));
+                }
+                if (checksumCount > 0) {
+                    info.setChecksums(new LineChecksums(checksumLines,
+                            checksumDigests, checksumCount));
+                }
+                recordCount++;
+                if (null != visitor) {
+                    visitor.visit(info);
+                } else {
+                    infos.add(info);
+                }
                 info = null;
             }
-            line = r.readLine();
         }
 
-        return infos;
+        /**
+         * Parse the value of an <code>LF:</code> or <code>LH:</code> line.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         * @return the value, or <code>-1</code> if the line was skipped.
+         */
+        private int summaryValue(final ByteBuffer buf, final int from,
+                final int to) {
+            if (null == diagnostics) {
+                return parseInt(buf, from, to);
+            }
+            if (null == info) {
+                skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                return -1;
+            }
+            long value = parseNumber(buf, from, to);
+            if (value < 0) {
+                skip(ParseDiagnostics.Problem.MALFORMED_LINE);
+                return -1;
+            }
+            return (int) value;
+        }
+
+        /**
+         * Handle a <code>DA:</code> line in lenient mode: validate it without
+         * throwing, and skip it if it is malformed or outside a record.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void lenientLine(final ByteBuffer buf, final int from,
+                final int to) {
+            if (null == info) {
+                skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                return;
+            }
+            long da = tryParseDa(buf, from, to);
+            if (da == NOT_A_NUMBER) {
+                skip(ParseDiagnostics.Problem.MALFORMED_LINE);
+                return;
+            }
+            if (mode == Mode.FULL) {
+                storeLine(da);
+            } else {
+                pack(da);
+            }
+            if (null != testIndex) {
+                recordTest(da);
+            }
+            if (keepChecksums) {
+                addChecksum(buf, from, to, (int) (da >> 32));
+            }
+        }
+
+        /**
+         * Handle a <code>BRDA:</code> line. The block number may carry the
+         * <code>e</code> prefix of exception branches.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void branch(final ByteBuffer buf, final int from,
+                final int to) {
+            if (null == info) {
+                if (null != diagnostics) {
+                    skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                }
+                return;
+            }
+            int c1 = from;
+            while (c1 < to && buf.get(c1) != ',') {
+                c1++;
+            }
+            int c2 = c1 + 1;
+            while (c2 < to && buf.get(c2) != ',') {
+                c2++;
+            }
+            int c3 = c2 + 1;
+            while (c3 < to && buf.get(c3) != ',') {
+                c3++;
+            }
+            long line = NOT_A_NUMBER;
+            long block = NOT_A_NUMBER;
+            long branch = NOT_A_NUMBER;
+            long taken = NOT_A_NUMBER;
+            if (c3 < to) {
+                int blockFrom = c1 + 1;
+                if (blockFrom < c2 && buf.get(blockFrom) == 'e') {
+                    blockFrom++;
+                }
+                line = parseNumber(buf, from, c1);
+                block = parseNumber(buf, blockFrom, c2);
+                branch = parseNumber(buf, c2 + 1, c3);
+                taken = c3 + 2 == to && buf.get(c3 + 1) == '-'
+                    ? BranchData.NOT_EXECUTED
+                    : parseNumber(buf, c3 + 1, to);
+            }
+            if (line <= 0 || block == NOT_A_NUMBER || branch == NOT_A_NUMBER
+                    || taken == NOT_A_NUMBER
+                    || taken < BranchData.NOT_EXECUTED) {
+                malformed("BRDA:", buf, from, to);
+                return;
+            }
+            if (mode == Mode.SUMMARY) {
+                brdaCount++;
+                if (taken > 0) {
+                    brdaHit++;
+                }
+                return;
+            }
+            if (null == branchData) {
+                branchData = new BranchData();
+            }
+            branchData.add((int) line, (int) block, (int) branch, (int) taken);
+        }
+
+        /**
+         * Handle an <code>FN:</code> line, with or without the end line of
+         * newer LCOV versions. Names may hold commas, but never start with
+         * a digit.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void function(final ByteBuffer buf, final int from,
+                final int to) {
+            if (null == info) {
+                if (null != diagnostics) {
+                    skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                }
+                return;
+            }
+            int c1 = from;
+            while (c1 < to && buf.get(c1) != ',') {
+                c1++;
+            }
+            long line = parseNumber(buf, from, c1);
+            long end = FunctionData.UNKNOWN;
+            int nameFrom = c1 + 1;
+            int c2 = nameFrom;
+            while (c2 < to && buf.get(c2) >= '0' && buf.get(c2) <= '9') {
+                c2++;
+            }
+            if (c2 > nameFrom && c2 < to && buf.get(c2) == ',') {
+                end = parseNumber(buf, nameFrom, c2);
+                nameFrom = c2 + 1;
+            }
+            if (line <= 0 || end < 0 || nameFrom >= to) {
+                malformed("FN:", buf, from, to);
+                return;
+            }
+            if (mode == Mode.SUMMARY) {
+                fnCount++;
+                return;
+            }
+            if (null == functionData) {
+                functionData = new FunctionData();
+            }
+            functionData.add((int) line, (int) end,
+                    names.intern(text(buf, nameFrom, to)), 0);
+        }
+
+        /**
+         * Handle an <code>FNDA:</code> line.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void functionHits(final ByteBuffer buf, final int from,
+                final int to) {
+            if (null == info) {
+                if (null != diagnostics) {
+                    skip(ParseDiagnostics.Problem.OUTSIDE_RECORD);
+                }
+                return;
+            }
+            int c1 = from;
+            while (c1 < to && buf.get(c1) != ',') {
+                c1++;
+            }
+            long hits = parseNumber(buf, from, c1);
+            if (hits < 0 || c1 + 1 >= to) {
+                malformed("FNDA:", buf, from, to);
+                return;
+            }
+            if (mode == Mode.SUMMARY) {
+                if (hits > 0) {
+                    fndaHit++;
+                }
+                return;
+            }
+            if (null == functionData) {
+                functionData = new FunctionData();
+            }
+            functionData.add(FunctionData.UNKNOWN, FunctionData.UNKNOWN,
+                    names.intern(text(buf, c1 + 1, to)),
+                    (int) Math.min(Integer.MAX_VALUE, hits));
+        }
+
+        /**
+         * Fail on a malformed line, or skip it in lenient mode.
+         * @param tag the line's tag.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void malformed(final String tag, final ByteBuffer buf,
+                final int from, final int to) {
+            if (null == diagnostics) {
+                throw new NumberFormatException("For input string: \""
+                        + tag + text(buf, from, to) + "\"");
+            }
+            skip(ParseDiagnostics.Problem.MALFORMED_LINE);
+        }
+
+        /**
+         * Keep the checksum of a <code>DA:</code> line, if it has one.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         * @param line the line number.
+         */
+        private void addChecksum(final ByteBuffer buf, final int from,
+                final int to, final int line) {
+            int commas = 0;
+            int i = from;
+            while (i < to && commas < 2) {
+                if (buf.get(i++) == ',') {
+                    commas++;
+                }
+            }
+            if (commas < 2) {
+                return;
+            }
+            if (checksumCount == checksumLines.length) {
+                checksumLines = Arrays.copyOf(checksumLines,
+                        checksumCount * 2);
+                checksumDigests = Arrays.copyOf(checksumDigests,
+                        checksumCount * 2 * LineChecksums.DIGEST_LENGTH);
+            }
+            if (decodeDigest(buf, i, to, checksumDigests,
+                    checksumCount * LineChecksums.DIGEST_LENGTH)) {
+                checksumLines[checksumCount++] = line;
+            }
+        }
+
+        /**
+         * Record the current test as having executed a line, if it did.
+         * @param da the packed <code>DA:</code> fields.
+         */
+        private void recordTest(final long da) {
+            if ((int) da > 0) {
+                testIndex.add(testName, info.getFileName(), (int) (da >> 32));
+            }
+        }
+
+        /**
+         * Decode a <code>DA:</code> line of the current record.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         * @return the packed <code>DA:</code> fields.
+         * @throws IOException if the line has no execution count.
+         */
+        private long decodeLine(final ByteBuffer buf, final int from,
+                final int to) throws IOException {
+            int comma = from;
+            while (comma < to && buf.get(comma) != ',') {
+                comma++;
+            }
+            if (comma == to) {
+                throw new IOException("Malformed line at " + inputName + ':'
+                        + lineNumber);
+            }
+            return parseDa(buf, from, to);
+        }
+
+        /**
+         * Add a decoded <code>DA:</code> line to the current record.
+         * @param da the packed <code>DA:</code> fields.
+         */
+        private void storeLine(final long da) {
+            if (null == storage) {
+                info.getLineInfo().put((int) (da >> 32), (int) da);
+            }
+            pack(da);
+        }
+
+        /**
+         * Count a <code>DA:</code> line, decoding only its line number.
+         * @param buf the window.
+         * @param from first byte after the tag.
+         * @param to end of the line.
+         */
+        private void countLine(final ByteBuffer buf, final int from,
+                final int to) {
+            int i = from;
+            long line = 0;
+            for (; i < to && buf.get(i) != ','; i++) {
+                line = line * 10 + (buf.get(i) - '0');
+            }
+            int hit = 0;
+            for (i++; i < to; i++) {
+                byte b = buf.get(i);
+                if (b == ',' || b == '-') {
+                    break;
+                }
+                if (b > '0' && b <= '9') {
+                    hit = 1;
+                    break;
+                }
+            }
+            pack((line << 32) | hit);
+        }
+
+        /**
+         * Count a <code>DA:</code> line of the current record, and keep it
+         * packed.
+         * @param da the line number in the high, and the count in the low 32
+         *            bits.
+         */
+        private void pack(final long da) {
+            if (daCount == packed.length) {
+                packed = Arrays.copyOf(packed, packed.length * 2);
+            }
+            if (daCount > 0 && packed[daCount - 1] >> 32 >= da >> 32) {
+                sorted = false;
+            }
+            packed[daCount++] = da;
+            if ((int) da > 0) {
+                daHit++;
+            }
+        }
     }
 }
@@ -29,12 +29,15 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.types.FileSet;
 
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
 import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
 
 
@@ -54,17 +57,90 @@ public class Lcovr extends Task {
      */
     private final List<FileSet> lcovSources;
 
+    /**
+     * Additional outputs, written in the same pass as {@link #outputFile}.
+     */
+    private final List<Output> outputs;
+
+    /**
+     * Diffs whose changed lines are reported on.
+     */
+    private final List<Diff> diffs;
+
     /**
      * The file to export the Cobertura XML report.
      */
     private File outputFile;
 
+    /**
+     * Whether to keep line information in memory-mapped temporary files
+     * instead of on the Java heap.
+     */
+    private boolean offHeap;
+
+    /**
+     * Estimated heap bytes the merged coverage may use before it is spilled
+     * to disk.
+     */
+    private long maxMemory = Long.MAX_VALUE;
+
+    /**
+     * Whether to skip malformed input instead of failing.
+     */
+    private boolean lenient;
+
+    /**
+     * Whether to remap generated files onto their sources through source
+     * maps.
+     */
+    private boolean sourceMaps;
+
+    /**
+     * What to do with identical inputs.
+     */
+    private MergePlanner.Duplicates duplicates = MergePlanner.Duplicates.COUNT;
+
+    /**
+     * Number of inputs merged at once.
+     */
+    private int threads = 1;
+
+    /**
+     * Number of inputs or intermediate results merged together.
+     */
+    private int fanIn = MergePlanner.DEFAULT_FAN_IN;
+
+    /**
+     * Whether to check <code>DA:</code> checksums against the sources.
+     */
+    private boolean verifyChecksums;
+
+    /**
+     * Whether to compute the complexity of the sources.
+     */
+    private boolean complexity;
+
+    /**
+     * Where the complexity scans are cached between builds, or
+     * <code>null</code>.
+     */
+    private File complexityCache;
+
+    /**
+     * Attributes set that only change how the inputs are read and merged,
+     * which an &lt;lcovbatch&gt; sets for the whole batch.
+     */
+    private final List<String> readSettings;
+
     /**
      * Default constructor.
      */
     public Lcovr() {
         sourceDirSet = new Vector<FileSet>();
         lcovSources = new Vector<FileSet>();
+        outputs = new Vector<Output>();
+        diffs = new Vector<Diff>();
+        readSettings = new Vector<String>();
     }
 
     /**
@@ -75,6 +151,142 @@ public class Lcovr extends Task {
         outputFile = f;
     }
 
+    /**
+     * Keep line information in memory-mapped temporary files instead of on
+     * the Java heap, for reports that would not fit in the heap.
+     * @param b true to keep line information off the heap.
+     */
+    public final void setOffheap(final boolean b) {
+        offHeap = b;
+    }
+
+    /**
+     * Skip malformed lines and truncated records, such as those left by
+     * killed test shards, instead of failing. A summary of what was skipped
+     * is logged at the end.
+     * @param b true to be lenient.
+     */
+    public final void setLenient(final boolean b) {
+        lenient = b;
+        readSettings.add("lenient");
+    }
+
+    /**
+     * Remap the coverage of generated files, such as bundles, onto their
+     * original sources, through the <code>&lt;file&gt;.map</code> source map
+     * found next to each of them in &lt;sourcedirs&gt;.
+     * @param b true to remap through source maps.
+     */
+    public final void setSourcemaps(final boolean b) {
+        sourceMaps = b;
+    }
+
+    /**
+     * Set what to do with inputs that are byte-identical copies of another
+     * input: <code>count</code> parses one copy and merges it once per copy,
+     * <code>drop</code> merges it only once, and <code>parse</code> parses
+     * every copy.
+     * @param mode <code>count</code>, <code>drop</code> or
+     *            <code>parse</code>.
+     */
+    public final void setDuplicates(final String mode) {
+        try {
+            duplicates = MergePlanner.Duplicates.valueOf(
+                    mode.trim().toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new BuildException("Invalid duplicates: " + mode
+                    + ", expected count, drop or parse.");
+        }
+        readSettings.add("duplicates");
+    }
+
+    /**
+     * Merge this many groups of inputs at once. With many inputs, they are
+     * merged as a tree of groups, stage after stage.
+     * @param n number of threads.
+     */
+    public final void setThreads(final int n) {
+        threads = n;
+        readSettings.add("threads");
+    }
+
+    /**
+     * Set how many inputs, or intermediate results, are merged together.
+     * @param n number of files open at once by each merge, at least 2.
+     */
+    public final void setFanin(final int n) {
+        if (n < 2) {
+            throw new BuildException("fanin must be at least 2.");
+        }
+        fanIn = n;
+        readSettings.add("fanin");
+    }
+
+    /**
+     * Check the per-line checksums of <code>DA:</code> lines against the
+     * source files in &lt;sourcedirs&gt;, and warn about every file whose
+     * coverage is stale.
+     * @param b true to verify checksums.
+     */
+    public final void setVerifychecksums(final boolean b) {
+        verifyChecksums = b;
+    }
+
+    /**
+     * Compute the cyclomatic complexity of every file and function whose
+     * source is in &lt;sourcedirs&gt;, for the <code>complexity</code>
+     * attributes of the Cobertura report.
+     * @param b true to compute complexity.
+     */
+    public final void setComplexity(final boolean b) {
+        complexity = b;
+    }
+
+    /**
+     * Cache the complexity scans in a file, so that later builds scan only
+     * the sources that changed. Implies <code>complexity</code>.
+     * @param f the cache file.
+     */
+    public final void setComplexitycache(final File f) {
+        complexityCache = f;
+        complexity = true;
+    }
+
+    /**
+     * Set how much heap the merged coverage may use before it is spilled to
+     * temporary files. Accepts a number of bytes, optionally followed by
+     * <code>k</code>, <code>m</code> or <code>g</code>.
+     * @param size memory limit, such as <code>512m</code>.
+     */
+    public final void setMaxmemory(final String size) {
+        maxMemory = parseSize(size);
+    }
+
+    /**
+     * Parse a size such as <code>512m</code>.
+     * @param size number of bytes, optionally followed by a unit.
+     * @return number of bytes.
+     */
+    public static long parseSize(final String size) {
+        String s = size.trim().toLowerCase();
+        long unit = 1;
+        if (s.endsWith("k")) {
+            unit = 1024L;
+        } else if (s.endsWith("m")) {
+            unit = 1024L * 1024;
+        } else if (s.endsWith("g")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        try {
+            return Long.parseLong(s.trim()) * unit;
+        } catch (NumberFormatException nfe) {
+            throw new BuildException("Invalid size: " + size, nfe);
+        }
+    }
+
     /**
      * Factory for {@link Input} objects.
      * @return a new <code>Input</code> object.
@@ -83,6 +295,70 @@ public class Lcovr extends Task {
         return new Input();
     }
 
+    /**
+     * Factory for Cobertura XML {@link Output}s.
+     * @return a new <code>Output</code> object.
+     */
+    public final Output createCobertura() {
+        return addOutput(Output.COBERTURA);
+    }
+
+    /**
+     * Factory for JSON summary {@link Output}s.
+     * @return a new <code>Output</code> object.
+     */
+    public final Output createJsonsummary() {
+        return addOutput(Output.JSON_SUMMARY);
+    }
+
+    /**
+     * Factory for LCOV {@link Output}s, to write the merged data back as a
+     * single <code>.lcov</code> file.
+     * @return a new <code>Output</code> object.
+     */
+    public final Output createLcov() {
+        return addOutput(Output.LCOV);
+    }
+
+    /**
+     * Factory for HTML report {@link Output}s.
+     * @return a new <code>Output</code> object.
+     */
+    public final Output createHtml() {
+        return addOutput(Output.HTML);
+    }
+
+    /**
+     * Factory for coverage index {@link Output}s, a binary file that
+     * {@link CoverageIndex} queries in place.
+     * @return a new <code>Output</code> object.
+     */
+    public final Output createIndex() {
+        return addOutput(Output.INDEX);
+    }
+
+    /**
+     * Factory for {@link Diff}s, to report the coverage of the lines changed
+     * by a unified diff.
+     * @return a new <code>Diff</code> object.
+     */
+    public final Diff createDiffcoverage() {
+        Diff diff = new Diff();
+        diffs.add(diff);
+        return diff;
+    }
+
+    /**
+     * Register a new {@link Output}.
+     * @param format the output format.
+     * @return a new <code>Output</code> object.
+     */
+    private Output addOutput(final String format) {
+        Output output = new Output(format);
+        outputs.add(output);
+        return output;
+    }
+
     /**
      * Factory for {@link SourceDirs} objects.
      * @return a new <code>SourceDirs</code> object.
@@ -96,21 +372,180 @@ public class Lcovr extends Task {
      */
     @Override
     public final void execute() {
-        Vector<SourceFileInfo> allInfos = new Vector<SourceFileInfo>();
+        Vector<SourceFileInfo> allInfos;
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        MergePlanner planner = new MergePlanner(fanIn, threads, maxMemory,
+                tempDir);
+        if (offHeap || maxMemory != Long.MAX_VALUE) {
+            planner.setLineStorage(new OffHeapLineStorage(tempDir,
+                    OffHeapLineStorage.DEFAULT_SEGMENT_SIZE));
+        }
+        planner.setLenient(lenient);
+        planner.setDuplicates(duplicates);
+        List<File> sources = getSourceDirectories();
+        ChecksumVerifier verifier = new ChecksumVerifier(sources,
+                Runtime.getRuntime().availableProcessors());
+        if (verifyChecksums) {
+            planner.setChecksumVerifier(verifier);
+        }
+        List<File> inputs = getInputFiles();
         try {
-            for (FileSet fs : lcovSources) {
-                DirectoryScanner ds = fs.getDirectoryScanner(getProject());
-                for (String includedFile : ds.getIncludedFiles()) {
-                    LcovReader reader = new LcovReader(new File(ds.getBasedir(),
-                            includedFile));
-                    allInfos.addAll(reader.parse());
-                }
-            }
+            allInfos = planner.merge(inputs);
         } catch (IOException ioe) {
             throw new BuildException("Couldn't read an .lcov file", ioe);
         }
-        log("Read information for " + allInfos.size() + " source files.");
-        CoberturaCoverageWriter writer = new CoberturaCoverageWriter(allInfos);
+        ParseDiagnostics diagnostics = planner.getDiagnostics();
+        if (verifyChecksums) {
+            verify(verifier);
+        }
+        if (diagnostics.getProblemCount() > 0) {
+            log(diagnostics.getSummary(), Project.MSG_WARN);
+        }
+        if (planner.getDuplicateCount() > 0) {
+            log("Skipped parsing " + planner.getDuplicateCount()
+                    + " duplicate inputs.");
+        }
+        if (planner.getSpillCount() > 0) {
+            log("Merged " + planner.getSpillCount() + " runs spilled to disk.");
+        }
+        if (planner.getStageCount() > 1) {
+            log("Merged " + inputs.size() + " inputs in "
+                    + planner.getStageCount() + " stages.",
+                    Project.MSG_VERBOSE);
+        }
+        log("Read information for " + allInfos.size() + " source files from "
+                + planner.getRecordCount() + " records.");
+        report(allInfos, sources, createWriters(null));
+    }
+
+    /**
+     * Remap, compute complexity, report on the diffs and write the outputs
+     * of the merged coverage.
+     * @param merged the merged coverage, sorted by file name.
+     * @param sources the source directories.
+     * @param writers the outputs.
+     */
+    final void report(final Vector<SourceFileInfo> merged,
+            final List<File> sources, final CoverageWriter[] writers) {
+        Vector<SourceFileInfo> allInfos = merged;
+        if (sourceMaps) {
+            SourceMapRemapper remapper = new SourceMapRemapper(sources,
+                    Runtime.getRuntime().availableProcessors());
+            try {
+                allInfos = remapper.remap(allInfos);
+            } catch (IOException ioe) {
+                throw new BuildException("Couldn't read a source map", ioe);
+            }
+            log("Remapped " + remapper.getRemappedCount()
+                    + " files through source maps.");
+        }
+        if (complexity) {
+            ComplexityCalculator calculator = new ComplexityCalculator(sources,
+                    Runtime.getRuntime().availableProcessors());
+            calculator.setCacheFile(complexityCache);
+            try {
+                calculator.calculate(allInfos);
+            } catch (IOException ioe) {
+                throw new BuildException("Couldn't compute complexity", ioe);
+            }
+            log("Computed the complexity of "
+                    + (calculator.getScannedCount()
+                            + calculator.getCachedCount())
+                    + " source files, " + calculator.getCachedCount()
+                    + " from the cache.");
+        }
+        String failure = null;
+        for (Diff diff : diffs) {
+            String message = diff.report(allInfos);
+            failure = null == failure ? message : failure;
+        }
+        CoverageTraversal traversal = new CoverageTraversal(allInfos);
+        traversal.setSourceDirectories(sources);
+        try {
+            traversal.traverse(writers);
+        } catch (IOException e) {
+            throw new BuildException("Couldn't write the coverage report: "
+                    + e.getClass().getName() + ':' + e.getMessage(), e);
+        }
+        if (null != failure) {
+            throw new BuildException(failure);
+        }
+    }
+
+    /**
+     * Create a merger that keeps to the <code>maxmemory</code> and
+     * <code>offheap</code> settings.
+     * @return a new merger.
+     */
+    final CoverageMerger createMerger() {
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        CoverageMerger merger = new CoverageMerger(maxMemory, tempDir);
+        if (offHeap || maxMemory != Long.MAX_VALUE) {
+            merger.setLineStorage(new OffHeapLineStorage(tempDir,
+                    OffHeapLineStorage.DEFAULT_SEGMENT_SIZE));
+        }
+        return merger;
+    }
+
+    /**
+     * @return whether to check <code>DA:</code> checksums against the
+     *         sources.
+     */
+    final boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * @return the attributes set that only change how the inputs are read
+     *         and merged.
+     */
+    final List<String> getReadSettings() {
+        return readSettings;
+    }
+
+    /**
+     * Check checksums against the sources, and log stale files.
+     * @param verifier the verifier, with the checksums of every input.
+     */
+    final void verify(final ChecksumVerifier verifier) {
+        List<String> stale;
+        try {
+            stale = verifier.verify();
+        } catch (IOException ioe) {
+            throw new BuildException("Couldn't read a source file", ioe);
+        }
+        for (String fileName : verifier.getUnresolved()) {
+            log("No source found for " + fileName, Project.MSG_VERBOSE);
+        }
+        for (String fileName : stale) {
+            log("Coverage is stale for " + fileName, Project.MSG_WARN);
+        }
+        if (!stale.isEmpty()) {
+            log("Coverage is stale for " + stale.size() + " source files.",
+                    Project.MSG_WARN);
+        }
+    }
+
+    /**
+     * Resolve the &lt;input&gt; file sets into files.
+     * @return the input files, in order.
+     */
+    final List<File> getInputFiles() {
+        List<File> inputs = new Vector<File>();
+        for (FileSet fs : lcovSources) {
+            DirectoryScanner ds = fs.getDirectoryScanner(getProject());
+            for (String includedFile : ds.getIncludedFiles()) {
+                inputs.add(new File(ds.getBasedir(), includedFile));
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Resolve the &lt;sourcedirs&gt; into directories.
+     * @return the source directories.
+     */
+    final List<File> getSourceDirectories() {
         List<File> sources = new Vector<File>();
         for (FileSet dirset : sourceDirSet) {
             DirectoryScanner ds = dirset.getDirectoryScanner(getProject());
@@ -118,13 +553,27 @@ public class Lcovr extends Task {
                 sources.add(new File(ds.getBasedir(), s));
             }
         }
-        writer.setSourceDirectories(sources);
-        try {
-            writer.process(outputFile);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new BuildException("Could't write cobertura .xml:" + e.getClass().getName() + ':' + e.getMessage(), e);
+        return sources;
+    }
+
+    /**
+     * Create a writer for the <code>output</code> attribute, and one for each
+     * output element.
+     * @param pool threads to share with other work, or <code>null</code>.
+     * @return the writers, to be fed in a single pass.
+     */
+    final CoverageWriter[] createWriters(final ExecutorService pool) {
+        List<CoverageWriter> writers = new Vector<CoverageWriter>();
+        if (null != outputFile) {
+            writers.add(new CoberturaCoverageWriter(outputFile));
         }
+        for (Output output : outputs) {
+            writers.add(output.createWriter(pool));
+        }
+        if (writers.isEmpty()) {
+            throw new BuildException("No output specified.");
+        }
+        return writers.toArray(new CoverageWriter[writers.size()]);
     }
 
     /**
@@ -143,6 +592,178 @@ public class Lcovr extends Task {
         }
     }
 
+    /**
+     * Handles the output sub-nodes, such as &lt;cobertura&gt;.
+     */
+    public static final class Output {
+        /**
+         * Format of {@link Lcovr#createCobertura()}.
+         */
+        static final String COBERTURA = "cobertura";
+
+        /**
+         * Format of {@link Lcovr#createJsonsummary()}.
+         */
+        static final String JSON_SUMMARY = "jsonsummary";
+
+        /**
+         * Format of {@link Lcovr#createLcov()}.
+         */
+        static final String LCOV = "lcov";
+
+        /**
+         * Format of {@link Lcovr#createHtml()}.
+         */
+        static final String HTML = "html";
+
+        /**
+         * Format of {@link Lcovr#createIndex()}.
+         */
+        static final String INDEX = "index";
+
+        /**
+         * The output format.
+         */
+        private final String format;
+
+        /**
+         * The file, or directory, to write.
+         */
+        private File file;
+
+        /**
+         * Constructor.
+         * @param outputFormat the output format.
+         */
+        Output(final String outputFormat) {
+            format = outputFormat;
+        }
+
+        /**
+         * Set the file to write.
+         * @param f File to save.
+         */
+        public void setFile(final File f) {
+            file = f;
+        }
+
+        /**
+         * Set the directory to write, for formats made of several files.
+         * @param d Directory to save to.
+         */
+        public void setDir(final File d) {
+            file = d;
+        }
+
+        /**
+         * Create the writer for this output.
+         * @param pool threads to share with other work, or <code>null</code>.
+         * @return a new writer.
+         */
+        CoverageWriter createWriter(final ExecutorService pool) {
+            if (HTML.equals(format)) {
+                if (null == file) {
+                    throw new BuildException("<html> needs a dir attribute.");
+                }
+                return new HtmlCoverageWriter(file, pool,
+                        Runtime.getRuntime().availableProcessors());
+            }
+            if (null == file) {
+                throw new BuildException("<" + format
+                        + "> needs a file attribute.");
+            }
+            if (JSON_SUMMARY.equals(format)) {
+                return new JsonSummaryCoverageWriter(file);
+            }
+            if (LCOV.equals(format)) {
+                return new LcovCoverageWriter(file);
+            }
+            if (INDEX.equals(format)) {
+                return new CoverageIndexWriter(file);
+            }
+            return new CoberturaCoverageWriter(file);
+        }
+    }
+
+    /**
+     * Handles the &lt;diffcoverage&gt; sub-node.
+     */
+    public final class Diff {
+        /**
+         * The unified diff.
+         */
+        private File diffFile;
+
+        /**
+         * The JSON report to write, if any.
+         */
+        private File file;
+
+        /**
+         * Lowest acceptable percentage of changed lines hit.
+         */
+        private double minimum;
+
+        /**
+         * Set the unified diff, such as the output of <code>git diff</code>.
+         * @param f the diff file.
+         */
+        public void setDiff(final File f) {
+            diffFile = f;
+        }
+
+        /**
+         * Set the file to write a JSON report of the changed files to.
+         * @param f File to save.
+         */
+        public void setFile(final File f) {
+            file = f;
+        }
+
+        /**
+         * Fail the build, after the outputs are written, when less than this
+         * percentage of changed, instrumented lines was executed.
+         * @param percent between 0 and 100.
+         */
+        public void setMinimum(final double percent) {
+            minimum = percent;
+        }
+
+        /**
+         * Log, and write, the coverage of the changed lines.
+         * @param infos the merged coverage.
+         * @return why the build should fail, or <code>null</code>.
+         */
+        String report(final List<SourceFileInfo> infos) {
+            if (null == diffFile) {
+                throw new BuildException(
+                        "<diffcoverage> needs a diff attribute.");
+            }
+            DiffCoverage coverage;
+            try {
+                coverage = new DiffCoverage(DiffIndex.read(diffFile), infos);
+                if (null != file) {
+                    coverage.write(file);
+                }
+            } catch (IOException ioe) {
+                throw new BuildException("Couldn't report coverage of "
+                        + diffFile, ioe);
+            }
+            for (DiffCoverage.FileCoverage f : coverage.getFiles()) {
+                log(f.getName() + ": " + f.getLinesHit() + " of "
+                        + f.getLinesFound() + " changed lines hit.",
+                        Project.MSG_VERBOSE);
+            }
+            double percent = 100 * coverage.getLineRate();
+            String summary = "Diff coverage of " + diffFile.getName() + ": "
+                + coverage.getLinesHit() + " of " + coverage.getLinesFound()
+                + " changed lines hit (" + Math.round(percent) + "%).";
+            log(summary);
+            return percent < minimum ? summary + " Expected at least "
+                + minimum + "%." : null;
+        }
+    }
+
     /**
      * Handles the &lt;sourcedirs&gt; sub-node.
      * @author jason
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Vector;
+
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Command line entry point, for test runners that pipe coverage straight
+ * into lcovr instead of writing it to a file first.
+ *
+ * <pre>
+ * java -jar lcovr.jar [options] [input ...]
+ * </pre>
+ *
+ * An input named <code>-</code>, or no input at all, is standard input.
+ * Records are merged as they are read, so standard input is never
+ * buffered whole.
+ */
+public final class Main {
+    /**
+     * Exit status of a usage error.
+     */
+    static final int USAGE = 2;
+
+    /**
+     * Name of standard input in diagnostics.
+     */
+    private static final String STDIN = "<stdin>";
+
+    /**
+     * Usage message.
+     */
+    private static final String HELP =
+        "Usage: java -jar lcovr.jar [options] [input ...]\n"
+        + "Merges .lcov or Cobertura XML inputs, '-' or none for standard"
+        + " input.\n"
+        + "  --cobertura <file>  write a Cobertura XML report\n"
+        + "  --json <file>       write a JSON summary\n"
+        + "  --lcov <file>       write the merged LCOV data\n"
+        + "  --html <dir>        write an HTML report\n"
+        + "  --index <file>      write a coverage index\n"
+        + "  --sourcedir <dir>   where sources are found, may be repeated\n"
+        + "  --lenient           skip malformed input instead of failing\n";
+
+    /**
+     * Not instantiated.
+     */
+    private Main() {
+    }
+
+    /**
+     * Run from the command line.
+     * @param args the options and inputs.
+     */
+    public static void main(final String[] args) {
+        System.exit(run(args, System.in, System.err));
+    }
+
+    /**
+     * Run a conversion.
+     * @param args the options and inputs.
+     * @param stdin standard input.
+     * @param err where to report problems.
+     * @return the exit status.
+     */
+    static int run(final String[] args, final InputStream stdin,
+            final PrintStream err) {
+        List<String> inputs = new Vector<String>();
+        List<File> sources = new Vector<File>();
+        List<CoverageWriter> writers = new Vector<CoverageWriter>();
+        boolean lenient = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--lenient".equals(arg)) {
+                lenient = true;
+                continue;
+            }
+            if ("-".equals(arg) || !arg.startsWith("-")) {
+                inputs.add(arg);
+                continue;
+            }
+            if (i + 1 == args.length) {
+                err.print(HELP);
+                return USAGE;
+            }
+            File f = new File(args[++i]);
+            if ("--cobertura".equals(arg)) {
+                writers.add(new CoberturaCoverageWriter(f));
+            } else if ("--json".equals(arg)) {
+                writers.add(new JsonSummaryCoverageWriter(f));
+            } else if ("--lcov".equals(arg)) {
+                writers.add(new LcovCoverageWriter(f));
+            } else if ("--html".equals(arg)) {
+                writers.add(new HtmlCoverageWriter(f,
+                        Runtime.getRuntime().availableProcessors()));
+            } else if ("--index".equals(arg)) {
+                writers.add(new CoverageIndexWriter(f));
+            } else if ("--sourcedir".equals(arg)) {
+                sources.add(f);
+            } else {
+                err.print(HELP);
+                return USAGE;
+            }
+        }
+        if (writers.isEmpty()) {
+            err.print(HELP);
+            return USAGE;
+        }
+        if (inputs.isEmpty()) {
+            inputs.add("-");
+        }
+        try {
+            ParseDiagnostics diagnostics = new ParseDiagnostics();
+            NamePool names = new NamePool();
+            final CoverageMerger merger = new CoverageMerger();
+            LcovReader.RecordVisitor merge = new LcovReader.RecordVisitor() {
+                public void visit(final SourceFileInfo info)
+                throws IOException {
+                    merger.add(info);
+                }
+            };
+            for (String input : inputs) {
+                if ("-".equals(input)) {
+                    LcovReader reader = new LcovReader(stdin, STDIN);
+                    reader.setLenient(lenient);
+                    reader.setNamePool(names);
+                    reader.parse(merge);
+                    diagnostics.add(reader.getDiagnostics());
+                } else if (CoberturaReader.accepts(new File(input))) {
+                    CoberturaReader reader = new CoberturaReader(
+                            new File(input));
+                    reader.setLenient(lenient);
+                    reader.mergeInto(merger);
+                    diagnostics.add(reader.getDiagnostics());
+                } else {
+                    LcovReader reader = new LcovReader(new File(input));
+                    reader.setLenient(lenient);
+                    reader.setNamePool(names);
+                    reader.parse(merge);
+                    diagnostics.add(reader.getDiagnostics());
+                }
+            }
+            if (diagnostics.getProblemCount() > 0) {
+                err.println(diagnostics.getSummary());
+            }
+            CoverageTraversal traversal = new CoverageTraversal(
+                    merger.finish());
+            traversal.setSourceDirectories(sources);
+            traversal.traverse(writers.toArray(
+                    new CoverageWriter[writers.size()]));
+            return 0;
+        } catch (IOException ioe) {
+            err.println("lcovr: " + ioe.getMessage());
+            return 1;
+        } catch (RuntimeException re) {
+            err.println("lcovr: " + re);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.force.mobile.build.tools.lcovr.data.LineStore;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * A {@link LineStore} that points into the memory-mapped <code>.lcov</code>
+ * input, and decodes its <code>DA:</code> lines each time it is visited.
+ * Lines are visited in line number order; a line repeated within the
+ * record keeps its last count.
+ *
+ * @see LcovReader#parseLazy()
+ */
+final class MappedLineStore implements LineStore {
+
+    /**
+     * The record's bytes. Usually one range, more if the record spans
+     * several mapped windows.
+     */
+    private final ByteBuffer[] ranges;
+
+    /**
+     * Whether the record's line numbers are strictly ascending, so that its
+     * lines can be visited as they are decoded.
+     */
+    private final boolean sorted;
+
+    /**
+     * Whether to skip malformed lines, instead of throwing.
+     */
+    private final boolean lenient;
+
+    /**
+     * Constructor.
+     * @param recordRanges little-endian views of the record's bytes, each
+     *            holding complete lines.
+     * @param sortedLines whether the record's line numbers are strictly
+     *            ascending.
+     * @param skipMalformed whether to skip malformed lines, instead of
+     *            throwing.
+     */
+    MappedLineStore(final ByteBuffer[] recordRanges,
+            final boolean sortedLines, final boolean skipMalformed) {
+        ranges = recordRanges;
+        sorted = sortedLines;
+        lenient = skipMalformed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void accept(final LineVisitor visitor) {
+        if (sorted) {
+            for (ByteBuffer range : ranges) {
+                LcovReader.decodeLines(range, 0, range.limit(), lenient,
+                        visitor);
+            }
+            return;
+        }
+        final long[][] packed = {new long[64]};
+        final int[] count = new int[1];
+        LineVisitor collect = new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                if (count[0] == packed[0].length) {
+                    packed[0] = Arrays.copyOf(packed[0], count[0] * 2);
+                }
+                packed[0][count[0]++] = ((long) lineNumber << 32)
+                    | (hits & 0xFFFFFFFFL);
+            }
+        };
+        for (ByteBuffer range : ranges) {
+            LcovReader.decodeLines(range, 0, range.limit(), lenient, collect);
+        }
+        // a line repeated within the record keeps its last count
+        int length = SourceFileInfo.normalizeLines(packed[0], count[0]);
+        for (int i = 0; i < length; i++) {
+            visitor.line((int) (packed[0][i] >> 32), (int) packed[0][i]);
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Merges many <code>.lcov</code> files as a balanced tree, instead of one
+ * after another into a single {@link CoverageMerger}. Inputs that are
+ * Cobertura XML reports are recognised, and read with a
+ * {@link CoberturaReader}.
+ *
+ * Inputs are split into groups of at most <code>fanIn</code> files, and each
+ * group is merged by its own merger, in parallel, into a sorted run on disk.
+ * The runs are then merged in groups of <code>fanIn</code> again, stage
+ * after stage, until at most <code>fanIn</code> are left for the final
+ * merge. The number of stages grows as log(N) of the number of inputs.
+ *
+ * Each merge opens at most <code>fanIn</code> inputs or runs, besides its
+ * own spills, and at most <code>threadCount</code> merges run at once. The
+ * working memory is split evenly between them. When there are no more
+ * inputs than <code>fanIn</code>, they are merged on the calling thread with
+ * a single merger, without intermediate runs.
+ */
+public class MergePlanner {
+
+    /**
+     * Default number of inputs or runs merged together.
+     */
+    public static final int DEFAULT_FAN_IN = 16;
+
+    /**
+     * What to do with inputs whose content is the same as another input's.
+     */
+    public enum Duplicates {
+        /** Parse and merge every copy. */
+        PARSE,
+        /** Parse only the first copy, and merge it once. */
+        DROP,
+        /**
+         * Parse only the first copy, and merge it once per copy, which gives
+         * the same result as {@link #PARSE}.
+         */
+        COUNT
+    }
+
+    /**
+     * Number of inputs or runs merged together.
+     */
+    private final int fanIn;
+
+    /**
+     * Number of merges run at once.
+     */
+    private final int threads;
+
+    /**
+     * Estimated heap bytes all merges together may use before spilling.
+     */
+    private final long maxMemory;
+
+    /**
+     * Directory for runs.
+     */
+    private final File tempDirectory;
+
+    /**
+     * Where the final line information is kept, or <code>null</code> for the
+     * heap.
+     */
+    private OffHeapLineStorage lineStorage;
+
+    /**
+     * Whether to skip malformed input instead of failing.
+     */
+    private boolean lenient;
+
+    /**
+     * Receives the records of every input, when set.
+     */
+    private ChecksumVerifier verifier;
+
+    /**
+     * What to do with identical inputs.
+     */
+    private Duplicates duplicates = Duplicates.PARSE;
+
+    /**
+     * Finds identical inputs, when they are not parsed.
+     */
+    private InputDeduplicator deduplicator;
+
+    /**
+     * Number of identical inputs not parsed by the last {@link #merge(List)}.
+     */
+    private int duplicateCount;
+
+    /**
+     * Problems skipped while reading, in lenient mode.
+     */
+    private final ParseDiagnostics diagnostics = new ParseDiagnostics();
+
+    /**
+     * Function names, shared by every input.
+     */
+    private final NamePool names = new NamePool();
+
+    /**
+     * Number of records read.
+     */
+    private int recordCount;
+
+    /**
+     * Number of runs spilled by the mergers because of the memory limit.
+     */
+    private int spillCount;
+
+    /**
+     * Number of merge stages of the last {@link #merge(List)}.
+     */
+    private int stageCount;
+
+    /**
+     * Constructor.
+     *
+     * @param fanInCount
+     *            Number of inputs or runs merged together, at least 2.
+     * @param threadCount
+     *            Number of merges run at once.
+     * @param maxMemoryBytes
+     *            Estimated heap bytes all merges together may use before
+     *            spilling to disk.
+     * @param tempDir
+     *            Directory for runs, or <code>null</code> for the default
+     *            temporary directory.
+     */
+    public MergePlanner(final int fanInCount, final int threadCount,
+            final long maxMemoryBytes, final File tempDir) {
+        if (fanInCount < 2) {
+            throw new IllegalArgumentException("Fan-in must be at least 2: "
+                    + fanInCount);
+        }
+        fanIn = fanInCount;
+        threads = Math.max(1, threadCount);
+        maxMemory = maxMemoryBytes;
+        tempDirectory = tempDir;
+    }
+
+    /**
+     * Keep the line information of the merged objects off the Java heap.
+     *
+     * @param storage
+     *            Where to keep line information, or <code>null</code> for the
+     *            heap.
+     */
+    public final void setLineStorage(final OffHeapLineStorage storage) {
+        lineStorage = storage;
+    }
+
+    /**
+     * Skip malformed input instead of failing.
+     *
+     * @param b
+     *            true to be lenient.
+     * @see LcovReader#setLenient(boolean)
+     */
+    public final void setLenient(final boolean b) {
+        lenient = b;
+    }
+
+    /**
+     * Keep checksums, and queue every record to a verifier as it is read.
+     *
+     * @param v
+     *            The verifier, or <code>null</code>.
+     */
+    public final void setChecksumVerifier(final ChecksumVerifier v) {
+        verifier = v;
+    }
+
+    /**
+     * Set what to do with inputs whose content is the same as another
+     * input's. By default, every copy is parsed.
+     *
+     * @param mode
+     *            What to do with identical inputs.
+     */
+    public final void setDuplicates(final Duplicates mode) {
+        duplicates = mode;
+    }
+
+    /**
+     * Get the number of identical inputs that were not parsed by the last
+     * {@link #merge(List)}.
+     *
+     * @return Number of duplicates.
+     */
+    public final int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Get the problems skipped while reading, in lenient mode.
+     *
+     * @return The problems.
+     */
+    public final ParseDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Get the number of records read.
+     *
+     * @return Number of records.
+     */
+    public final int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Get the number of runs spilled because of the memory limit.
+     *
+     * @return Number of spilled runs.
+     */
+    public final int getSpillCount() {
+        return spillCount;
+    }
+
+    /**
+     * Get the number of merge stages of the last {@link #merge(List)}.
+     *
+     * @return Number of stages.
+     */
+    public final int getStageCount() {
+        return stageCount;
+    }
+
+    /**
+     * Merge <code>.lcov</code> files, or Cobertura XML reports.
+     *
+     * @param allInputs
+     *            The files to merge.
+     * @return The merged objects, sorted by file name.
+     * @throws IOException
+     *             if an input or run can't be read, or a run can't be
+     *             written.
+     */
+    public final Vector<SourceFileInfo> merge(final List<File> allInputs)
+    throws IOException {
+        List<File> inputs = allInputs;
+        deduplicator = null;
+        duplicateCount = 0;
+        if (duplicates != Duplicates.PARSE) {
+            InputDeduplicator d = new InputDeduplicator(threads);
+            inputs = d.deduplicate(allInputs);
+            duplicateCount = d.getDuplicateCount();
+            if (duplicates == Duplicates.COUNT) {
+                deduplicator = d;
+            }
+        }
+        stageCount = 1;
+        if (inputs.size() <= fanIn) {
+            CoverageMerger merger = newMerger(maxMemory);
+            read(merger, inputs);
+            return finish(merger);
+        }
+
+        final long memoryPerMerge = maxMemory / threads;
+        List<File> runs = new Vector<File>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> stage = new Vector<Future<File>>();
+            for (final List<File> group : split(inputs)) {
+                stage.add(pool.submit(new Callable<File>() {
+                    public File call() throws IOException {
+                        CoverageMerger merger = newMerger(memoryPerMerge);
+                        read(merger, group);
+                        return finishRun(merger);
+                    }
+                }));
+            }
+            collect(stage, runs);
+            while (runs.size() > fanIn) {
+                stageCount++;
+                stage.clear();
+                for (final List<File> group : split(runs)) {
+                    stage.add(pool.submit(new Callable<File>() {
+                        public File call() throws IOException {
+                            CoverageMerger merger = newMerger(memoryPerMerge);
+                            for (File run : group) {
+                                merger.addRun(run);
+                            }
+                            return merger.finishRun();
+                        }
+                    }));
+                }
+                runs.clear();
+                collect(stage, runs);
+            }
+        } catch (IOException e) {
+            delete(runs);
+            throw e;
+        } catch (RuntimeException e) {
+            delete(runs);
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+
+        stageCount++;
+        CoverageMerger merger = newMerger(maxMemory);
+        merger.setLineStorage(lineStorage);
+        for (File run : runs) {
+            merger.addRun(run);
+        }
+        return merger.finish();
+    }
+
+    /**
+     * Create a merger.
+     *
+     * @param memory
+     *            Estimated heap bytes it may use before spilling.
+     * @return A new merger.
+     */
+    private CoverageMerger newMerger(final long memory) {
+        return new CoverageMerger(memory, tempDirectory);
+    }
+
+    /**
+     * Read inputs into a merger, one at a time.
+     *
+     * @param merger
+     *            The merger.
+     * @param inputs
+     *            The files to read.
+     * @throws IOException
+     *             if an input can't be read.
+     */
+    private void read(final CoverageMerger merger, final List<File> inputs)
+    throws IOException {
+        for (File input : inputs) {
+            int copies = null == deduplicator ? 1
+                : deduplicator.getMultiplicity(input);
+            if (CoberturaReader.accepts(input)) {
+                CoberturaReader xml = new CoberturaReader(input);
+                xml.setLenient(lenient);
+                int records = xml.mergeInto(merger, copies);
+                synchronized (this) {
+                    recordCount += records * copies;
+                    diagnostics.add(xml.getDiagnostics());
+                }
+                continue;
+            }
+            LcovReader reader = new LcovReader(input);
+            reader.setLenient(lenient);
+            reader.setNamePool(names);
+            reader.setKeepChecksums(null != verifier);
+            Vector<SourceFileInfo> infos = reader.parseLazy();
+            for (SourceFileInfo info : infos) {
+                merger.add(info, copies);
+            }
+            synchronized (this) {
+                recordCount += infos.size() * copies;
+                diagnostics.add(reader.getDiagnostics());
+                if (null != verifier) {
+                    for (SourceFileInfo info : infos) {
+                        verifier.add(info);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish the single merger of a one-stage merge.
+     *
+     * @param merger
+     *            The merger.
+     * @return The merged objects.
+     * @throws IOException
+     *             if a spilled run can't be read.
+     */
+    private Vector<SourceFileInfo> finish(final CoverageMerger merger)
+    throws IOException {
+        merger.setLineStorage(lineStorage);
+        spillCount += merger.getSpillCount();
+        return merger.finish();
+    }
+
+    /**
+     * Finish a merger of the first stage into a run.
+     *
+     * @param merger
+     *            The merger.
+     * @return The run.
+     * @throws IOException
+     *             if a run can't be read or written.
+     */
+    private File finishRun(final CoverageMerger merger) throws IOException {
+        synchronized (this) {
+            spillCount += merger.getSpillCount();
+        }
+        return merger.finishRun();
+    }
+
+    /**
+     * Split files into groups of at most {@link #fanIn}, of balanced sizes.
+     *
+     * @param files
+     *            The files.
+     * @return The groups.
+     */
+    private List<List<File>> split(final List<File> files) {
+        int groups = (files.size() + fanIn - 1) / fanIn;
+        List<List<File>> result = new Vector<List<File>>(groups);
+        int from = 0;
+        for (int g = 0; g < groups; g++) {
+            int to = from + (files.size() - from) / (groups - g);
+            result.add(new Vector<File>(files.subList(from, to)));
+            from = to;
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the runs of a stage. If one fails, the others are still
+     * waited for, so that every run can be deleted, and the first failure is
+     * rethrown.
+     *
+     * @param stage
+     *            The merges of the stage.
+     * @param runs
+     *            Receives the runs.
+     * @throws IOException
+     *             if a merge failed to read or write a file.
+     */
+    private static void collect(final List<Future<File>> stage,
+            final List<File> runs) throws IOException {
+        Throwable failure = null;
+        for (Future<File> f : stage) {
+            try {
+                runs.add(f.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = null == failure ? new IOException("Interrupted")
+                    : failure;
+            } catch (ExecutionException e) {
+                failure = null == failure ? e.getCause() : failure;
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (null != failure) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    /**
+     * Delete runs.
+     *
+     * @param runs
+     *            The runs.
+     */
+    private static void delete(final List<File> runs) {
+        for (File run : runs) {
+            if (!run.delete()) {
+                run.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+/**
+ * Counts the problems a lenient {@link LcovReader} skipped over, so they can
+ * be reported once, at the end, instead of aborting the parse.
+ *
+ * @see LcovReader#setLenient(boolean)
+ */
+public final class ParseDiagnostics {
+
+    /**
+     * Kinds of problem.
+     */
+    public enum Problem {
+        /** A line whose numbers could not be parsed. */
+        MALFORMED_LINE("malformed lines"),
+        /** A data line outside of an <code>SF:</code> record. */
+        OUTSIDE_RECORD("lines outside of a record"),
+        /** A record without <code>end_of_record</code>, dropped. */
+        UNTERMINATED_RECORD("unterminated records");
+
+        /**
+         * Description, for the summary.
+         */
+        private final String description;
+
+        /**
+         * Constructor.
+         * @param text description, for the summary.
+         */
+        Problem(final String text) {
+            description = text;
+        }
+    }
+
+    /**
+     * Count of each kind of problem.
+     */
+    private final int[] counts = new int[Problem.values().length];
+
+    /**
+     * Location of the first occurrence of each kind of problem.
+     */
+    private final String[] firstLocations = new String[counts.length];
+
+    /**
+     * Record a problem.
+     * @param problem the kind of problem.
+     * @param fileName the input file.
+     * @param lineNumber the line in the input file.
+     */
+    void add(final Problem problem, final String fileName,
+            final int lineNumber) {
+        if (counts[problem.ordinal()]++ == 0) {
+            firstLocations[problem.ordinal()] = fileName + ':' + lineNumber;
+        }
+    }
+
+    /**
+     * Add the problems of another parse to these.
+     * @param other problems to add.
+     */
+    public void add(final ParseDiagnostics other) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                firstLocations[i] = other.firstLocations[i];
+            }
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * Get the number of problems of one kind.
+     * @param problem the kind of problem.
+     * @return the count.
+     */
+    public int getCount(final Problem problem) {
+        return counts[problem.ordinal()];
+    }
+
+    /**
+     * Get the number of problems of all kinds.
+     * @return the count.
+     */
+    public int getProblemCount() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Summarise the problems, such as
+     * <code>"Skipped 3 malformed lines (first at a.lcov:12)"</code>.
+     * @return a one-line summary, or <code>null</code> if there was no
+     *         problem.
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Problem problem : Problem.values()) {
+            int count = counts[problem.ordinal()];
+            if (count == 0) {
+                continue;
+            }
+            sb.append(sb.length() == 0 ? "Skipped " : ", ");
+            sb.append(count).append(' ').append(problem.description);
+            sb.append(" (first at ").append(firstLocations[problem.ordinal()]);
+            sb.append(')');
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import com.force.mobile.build.tools.lcovr.data.CoverageModel;
+
+/**
+ * The line mappings of a version 3 source map, decoded once into a table
+ * indexed by generated line.
+ *
+ * Each generated line maps to the original source and line of its first
+ * mapped segment, which is where the statement on that line starts. Columns
+ * and names are decoded but not kept, so the table takes two
+ * <code>int</code>s per generated line.
+ *
+ * @see SourceMapRemapper
+ */
+final class SourceMap {
+
+    /**
+     * Value of each base64 digit, by character, or <code>-1</code>.
+     */
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String digits =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < digits.length(); i++) {
+            BASE64[digits.charAt(i)] = i;
+        }
+    }
+
+    /**
+     * Bit set in a VLQ digit when more digits follow.
+     */
+    private static final int VLQ_CONTINUATION = 0x20;
+
+    /**
+     * Bits of value in a VLQ digit.
+     */
+    private static final int VLQ_MASK = 0x1F;
+
+    /**
+     * Names of the original sources, relative to the same directory as the
+     * generated file name.
+     */
+    private final String[] sources;
+
+    /**
+     * Index in {@link #sources} of each generated line, from 0, or
+     * <code>-1</code> if it is not mapped.
+     */
+    private final int[] sourceByLine;
+
+    /**
+     * Original line of each generated line, from 0.
+     */
+    private final int[] originalLine;
+
+    /**
+     * Constructor.
+     *
+     * @param sourceNames
+     *            Names of the original sources.
+     * @param mappings
+     *            The <code>mappings</code> member of the source map.
+     * @throws IOException
+     *             if the mappings are malformed.
+     */
+    SourceMap(final String[] sourceNames, final CharSequence mappings)
+    throws IOException {
+        sources = sourceNames;
+        int lines = 1;
+        for (int i = 0; i < mappings.length(); i++) {
+            if (mappings.charAt(i) == ';') {
+                lines++;
+            }
+        }
+        sourceByLine = new int[lines];
+        originalLine = new int[lines];
+        Arrays.fill(sourceByLine, -1);
+        decode(mappings);
+    }
+
+    /**
+     * Read a source map file.
+     *
+     * @param mapFile
+     *            The <code>.map</code> file.
+     * @param generatedName
+     *            Name of the generated file in the coverage data. Relative
+     *            source names are resolved against its directory.
+     * @return The decoded map.
+     * @throws IOException
+     *             if the file can't be read, or isn't a source map.
+     */
+    static SourceMap read(final File mapFile, final String generatedName)
+    throws IOException {
+        CharBuffer text;
+        FileInputStream in = new FileInputStream(mapFile);
+        try {
+            FileChannel channel = in.getChannel();
+            text = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()));
+        } finally {
+            in.close();
+        }
+        Object json;
+        try {
+            json = new JsonParser(text).parse();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed source map " + mapFile + ": "
+                    + e.getMessage(), e);
+        }
+        if (!(json instanceof Map)) {
+            throw new IOException("Not a source map: " + mapFile);
+        }
+        Map<?, ?> map = (Map<?, ?>) json;
+        Object mappings = map.get("mappings");
+        Object sourceList = map.get("sources");
+        if (!(mappings instanceof String) || !(sourceList instanceof List)) {
+            throw new IOException("Unsupported source map " + mapFile
+                    + ": expected version 3 sources and mappings");
+        }
+        String root = map.get("sourceRoot") instanceof String
+            ? (String) map.get("sourceRoot") : "";
+        String dir = CoverageModel.getDirectory(generatedName);
+        List<?> names = (List<?>) sourceList;
+        String[] resolved = new String[names.size()];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = resolve(dir, root,
+                    String.valueOf(names.get(i)));
+        }
+        return new SourceMap(resolved, (String) mappings);
+    }
+
+    /**
+     * Resolve a source name against the generated file's directory.
+     *
+     * @param dir
+     *            Directory of the generated file, or an empty string.
+     * @param root
+     *            The <code>sourceRoot</code> member, or an empty string.
+     * @param source
+     *            An entry of the <code>sources</code> member.
+     * @return The normalised name.
+     */
+    static String resolve(final String dir, final String root,
+            final String source) {
+        String name = root.length() == 0 || root.endsWith("/")
+            ? root + source : root + '/' + source;
+        int scheme = name.indexOf("://");
+        if (scheme > 0) {
+            name = name.substring(scheme + "://".length());
+            while (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+        } else if (!name.startsWith("/") && dir.length() > 0) {
+            name = dir + '/' + name;
+        }
+        List<String> segments = new Vector<String>();
+        for (String s : name.split("/")) {
+            if (s.length() == 0 || ".".equals(s)) {
+                continue;
+            }
+            if ("..".equals(s) && !segments.isEmpty()
+                    && !"..".equals(segments.get(segments.size() - 1))) {
+                segments.remove(segments.size() - 1);
+            } else {
+                segments.add(s);
+            }
+        }
+        StringBuilder sb = new StringBuilder(name.startsWith("/") ? "/" : "");
+        for (String s : segments) {
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '/') {
+                sb.append('/');
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the original source of a generated line.
+     *
+     * @param generatedLine
+     *            The generated line number, from 1.
+     * @return The source name, or <code>null</code> if the line is not
+     *         mapped.
+     */
+    String getSource(final int generatedLine) {
+        int i = generatedLine - 1;
+        if (i < 0 || i >= sourceByLine.length || sourceByLine[i] < 0) {
+            return null;
+        }
+        return sources[sourceByLine[i]];
+    }
+
+    /**
+     * Get the original line of a generated line.
+     *
+     * @param generatedLine
+     *            The generated line number, from 1, which must be mapped.
+     * @return The original line number, from 1.
+     * @see #getSource(int)
+     */
+    int getLine(final int generatedLine) {
+        return originalLine[generatedLine - 1] + 1;
+    }
+
+    /**
+     * Decode the mappings into the table.
+     *
+     * @param mappings
+     *            The <code>mappings</code> member.
+     * @throws IOException
+     *             if the mappings are malformed.
+     */
+    private void decode(final CharSequence mappings) throws IOException {
+        int[] fields = new int[5];
+        int line = 0;
+        int source = 0;
+        int origLine = 0;
+        int pos = 0;
+        int length = mappings.length();
+        while (pos < length) {
+            char c = mappings.charAt(pos);
+            if (c == ';') {
+                line++;
+                pos++;
+                continue;
+            }
+            if (c == ',') {
+                pos++;
+                continue;
+            }
+            int count = 0;
+            while (pos < length && mappings.charAt(pos) != ','
+                    && mappings.charAt(pos) != ';') {
+                if (count == fields.length) {
+                    throw new IOException("Too many fields in a segment at "
+                            + pos);
+                }
+                int value = 0;
+                int shift = 0;
+                int digit;
+                do {
+                    if (pos >= length) {
+                        throw new IOException("Truncated VLQ at " + pos);
+                    }
+                    char d = mappings.charAt(pos++);
+                    digit = d < BASE64.length ? BASE64[d] : -1;
+                    if (digit < 0) {
+                        throw new IOException("Invalid VLQ digit '" + d
+                                + "' at " + (pos - 1));
+                    }
+                    value |= (digit & VLQ_MASK) << shift;
+                    shift += 5;
+                } while ((digit & VLQ_CONTINUATION) != 0);
+                fields[count++] = (value & 1) == 0 ? value >>> 1
+                    : -(value >>> 1);
+            }
+            if (count >= 4) {
+                source += fields[1];
+                origLine += fields[2];
+                if (sourceByLine[line] < 0 && source >= 0
+                        && source < sources.length) {
+                    sourceByLine[line] = source;
+                    originalLine[line] = origLine;
+                }
+            }
+        }
+    }
+
+    /**
+     * A minimal JSON parser, enough for source maps. Objects become maps,
+     * arrays lists, and numbers doubles.
+     */
+    private static final class JsonParser {
+        /**
+         * The text to parse.
+         */
+        private final CharSequence text;
+
+        /**
+         * Position in {@link #text}.
+         */
+        private int pos;
+
+        /**
+         * Constructor.
+         *
+         * @param json
+         *            The text to parse.
+         */
+        JsonParser(final CharSequence json) {
+            text = json;
+        }
+
+        /**
+         * Parse the whole text.
+         *
+         * @return The value.
+         */
+        Object parse() {
+            Object value = value();
+            skipSpace();
+            if (pos != text.length()) {
+                throw error("trailing characters");
+            }
+            return value;
+        }
+
+        /**
+         * Parse a value.
+         *
+         * @return The value.
+         */
+        private Object value() {
+            skipSpace();
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                pos++;
+                Map<String, Object> map = new HashMap<String, Object>();
+                skipSpace();
+                if (peek() == '}') {
+                    pos++;
+                    return map;
+                }
+                do {
+                    skipSpace();
+                    String key = string();
+                    skipSpace();
+                    expect(':');
+                    map.put(key, value());
+                    skipSpace();
+                } while (next() == ',');
+                pos--;
+                expect('}');
+                return map;
+            }
+            if (c == '[') {
+                pos++;
+                List<Object> list = new Vector<Object>();
+                skipSpace();
+                if (peek() == ']') {
+                    pos++;
+                    return list;
+                }
+                do {
+                    list.add(value());
+                    skipSpace();
+                } while (next() == ',');
+                pos--;
+                expect(']');
+                return list;
+            }
+            if (c == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < text.length() && "{}[],: \t\r\n".indexOf(
+                    text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String word = text.subSequence(start, pos).toString();
+            if ("true".equals(word)) {
+                return Boolean.TRUE;
+            }
+            if ("false".equals(word)) {
+                return Boolean.FALSE;
+            }
+            if ("null".equals(word)) {
+                return null;
+            }
+            try {
+                return Double.valueOf(word);
+            } catch (NumberFormatException e) {
+                throw error("unexpected '" + word + "'");
+            }
+        }
+
+        /**
+         * Parse a string.
+         *
+         * @return The string.
+         */
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("truncated escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.subSequence(
+                                pos, pos + 4).toString(), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("invalid escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    sb.append(c);
+                }
+            }
+        }
+
+        /**
+         * Skip white space.
+         */
+        private void skipSpace() {
+            while (pos < text.length() && text.charAt(pos) <= ' ') {
+                pos++;
+            }
+        }
+
+        /**
+         * @return The current character, or 0 at the end.
+         */
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : 0;
+        }
+
+        /**
+         * @return The current character, which is consumed.
+         */
+        private char next() {
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            return text.charAt(pos++);
+        }
+
+        /**
+         * Consume an expected character.
+         *
+         * @param c
+         *            The character.
+         */
+        private void expect(final char c) {
+            if (next() != c) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        /**
+         * @param message
+         *            What is wrong.
+         * @return An exception to throw.
+         */
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(message + " at " + pos);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Remaps the coverage of generated files, such as JavaScript bundles or
+ * transpiled output, onto their original sources through source maps.
+ *
+ * The source map of a file is looked for next to it, as
+ * <code>&lt;file name&gt;.map</code> in the source directories. Files
+ * without one are kept as they are. Each generated line is attributed to
+ * the original line where its first mapped segment starts; hits of lines
+ * that land on the same original line are summed, within a file and across
+ * files. Branches and functions are moved to original lines the same way.
+ *
+ * Files are remapped in parallel. Each map is decoded once, into a table
+ * indexed by generated line, and kept for later calls to
+ * {@link #remap(List)}.
+ */
+public class SourceMapRemapper {
+
+    /**
+     * Directories the file names are relative to.
+     */
+    private final List<File> sourceDirectories;
+
+    /**
+     * Number of threads to remap with.
+     */
+    private final int threads;
+
+    /**
+     * Source maps decoded so far.
+     */
+    private final ConcurrentMap<File, Future<SourceMap>> cache =
+        new ConcurrentHashMap<File, Future<SourceMap>>();
+
+    /**
+     * Number of files remapped by the last {@link #remap(List)}.
+     */
+    private int remappedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param sourceDirs
+     *            Directories the file names, and their maps, are relative
+     *            to.
+     * @param threadCount
+     *            Number of threads to remap with.
+     */
+    public SourceMapRemapper(final List<File> sourceDirs,
+            final int threadCount) {
+        sourceDirectories = sourceDirs;
+        threads = Math.max(1, threadCount);
+    }
+
+    /**
+     * Get the number of files that had a source map, in the last
+     * {@link #remap(List)}.
+     *
+     * @return Number of files remapped.
+     */
+    public final int getRemappedCount() {
+        return remappedCount;
+    }
+
+    /**
+     * Remap files through their source maps.
+     *
+     * @param infos
+     *            The files.
+     * @return The original sources, and the files without a source map,
+     *         merged and sorted by file name.
+     * @throws IOException
+     *             if a source map can't be read.
+     */
+    public final Vector<SourceFileInfo> remap(final List<SourceFileInfo> infos)
+    throws IOException {
+        List<Future<List<SourceFileInfo>>> results =
+            new Vector<Future<List<SourceFileInfo>>>(infos.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (final SourceFileInfo info : infos) {
+                results.add(pool.submit(new Callable<List<SourceFileInfo>>() {
+                    public List<SourceFileInfo> call() throws IOException {
+                        return remap(info);
+                    }
+                }));
+            }
+            CoverageMerger merger = new CoverageMerger();
+            int remapped = 0;
+            for (int i = 0; i < infos.size(); i++) {
+                List<SourceFileInfo> originals =
+                    ChecksumVerifier.get(results.get(i));
+                if (originals.size() != 1
+                        || originals.get(0) != infos.get(i)) {
+                    remapped++;
+                }
+                for (SourceFileInfo original : originals) {
+                    merger.add(original);
+                }
+            }
+            remappedCount = remapped;
+            return merger.finish();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Remap one file.
+     *
+     * @param info
+     *            The file.
+     * @return Its original sources, or the file itself if it has no source
+     *         map.
+     * @throws IOException
+     *             if the source map can't be read.
+     */
+    private List<SourceFileInfo> remap(final SourceFileInfo info)
+    throws IOException {
+        File mapFile = ChecksumVerifier.resolve(sourceDirectories,
+                info.getFileName() + ".map");
+        if (null == mapFile) {
+            return Collections.singletonList(info);
+        }
+        final SourceMap map = read(mapFile, info.getFileName());
+        final Map<String, SourceFileInfo> originals =
+            new TreeMap<String, SourceFileInfo>();
+        info.forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                String source = map.getSource(lineNumber);
+                if (null == source) {
+                    return;
+                }
+                Map<Integer, Integer> lines =
+                    original(originals, source).getLineInfo();
+                int line = map.getLine(lineNumber);
+                Integer before = lines.get(line);
+                lines.put(line, null == before ? hits
+                        : CoverageMerger.addHits(before, hits));
+            }
+        });
+        Map<String, BranchData> branches = remapBranches(map,
+                info.getBranches(), originals);
+        Map<String, FunctionData> functions = remapFunctions(map,
+                info.getFunctions(), originals);
+        for (SourceFileInfo original : originals.values()) {
+            BranchData b = branches.get(original.getFileName());
+            if (null != b) {
+                original.setBranches(b.normalize());
+            }
+            FunctionData f = functions.get(original.getFileName());
+            if (null != f) {
+                original.setFunctions(f.normalize());
+            }
+            int hit = 0;
+            for (int h : original.getLineInfo().values()) {
+                if (h > 0) {
+                    hit++;
+                }
+            }
+            original.setLf(original.getLineInfo().size());
+            original.setLh(hit);
+        }
+        return new Vector<SourceFileInfo>(originals.values());
+    }
+
+    /**
+     * Get the original file of a source, creating it the first time.
+     *
+     * @param originals
+     *            The original files so far, by name.
+     * @param source
+     *            The source's name.
+     * @return Its original file.
+     */
+    private static SourceFileInfo original(
+            final Map<String, SourceFileInfo> originals, final String source) {
+        SourceFileInfo original = originals.get(source);
+        if (null == original) {
+            original = new SourceFileInfo(source);
+            originals.put(source, original);
+        }
+        return original;
+    }
+
+    /**
+     * Remap the branches of a generated file onto the lines of their
+     * original sources.
+     *
+     * @param map
+     *            The file's source map.
+     * @param data
+     *            Its branches, or <code>null</code>.
+     * @param originals
+     *            The original files so far, by name.
+     * @return The branches of each original file, not yet normalized.
+     */
+    private static Map<String, BranchData> remapBranches(final SourceMap map,
+            final BranchData data, final Map<String, SourceFileInfo> originals) {
+        Map<String, BranchData> out = new TreeMap<String, BranchData>();
+        if (null == data) {
+            return out;
+        }
+        for (int i = 0; i < data.size(); i++) {
+            String source = map.getSource(data.getLine(i));
+            if (null == source) {
+                continue;
+            }
+            original(originals, source);
+            BranchData b = out.get(source);
+            if (null == b) {
+                b = new BranchData();
+                out.put(source, b);
+            }
+            b.add(map.getLine(data.getLine(i)), data.getBlock(i),
+                    data.getBranch(i), data.getTaken(i));
+        }
+        return out;
+    }
+
+    /**
+     * Remap the functions of a generated file onto the lines of their
+     * original sources. A function belongs to the source its first line
+     * maps to; its last line is kept only if it maps to the same source.
+     *
+     * @param map
+     *            The file's source map.
+     * @param data
+     *            Its functions, or <code>null</code>.
+     * @param originals
+     *            The original files so far, by name.
+     * @return The functions of each original file, not yet normalized.
+     */
+    private static Map<String, FunctionData> remapFunctions(
+            final SourceMap map, final FunctionData data,
+            final Map<String, SourceFileInfo> originals) {
+        Map<String, FunctionData> out = new TreeMap<String, FunctionData>();
+        if (null == data) {
+            return out;
+        }
+        for (int i = 0; i < data.size(); i++) {
+            String source = map.getSource(data.getLine(i));
+            if (null == source) {
+                continue;
+            }
+            original(originals, source);
+            FunctionData f = out.get(source);
+            if (null == f) {
+                f = new FunctionData();
+                out.put(source, f);
+            }
+            int endLine = FunctionData.UNKNOWN;
+            if (data.getEndLine(i) != FunctionData.UNKNOWN
+                    && source.equals(map.getSource(data.getEndLine(i)))) {
+                endLine = map.getLine(data.getEndLine(i));
+            }
+            f.add(map.getLine(data.getLine(i)), endLine, data.getName(i),
+                    data.getHits(i));
+        }
+        return out;
+    }
+
+    /**
+     * Decode a source map, or get it from the cache.
+     *
+     * @param mapFile
+     *            The <code>.map</code> file.
+     * @param generatedName
+     *            Name of the generated file in the coverage data.
+     * @return The decoded map.
+     * @throws IOException
+     *             if the map can't be read.
+     */
+    private SourceMap read(final File mapFile, final String generatedName)
+    throws IOException {
+        Future<SourceMap> f = cache.get(mapFile);
+        if (null == f) {
+            FutureTask<SourceMap> task = new FutureTask<SourceMap>(
+                    new Callable<SourceMap>() {
+                        public SourceMap call() throws IOException {
+                            return SourceMap.read(mapFile, generatedName);
+                        }
+                    });
+            f = cache.putIfAbsent(mapFile, task);
+            if (null == f) {
+                f = task;
+                task.run();
+            }
+        }
+        return ChecksumVerifier.get(f);
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+
+/**
+ * The branches of a source file, from LCOV <code>BRDA:</code> lines, kept
+ * in parallel primitive arrays: 16 bytes per branch, with no object per
+ * branch. Branches outnumber lines several times over in C and JavaScript
+ * reports, so this matters.
+ * <p>
+ * Once {@link #normalize()}d, branches are sorted by line, block and branch
+ * number, each appearing once.
+ */
+public final class BranchData {
+    /**
+     * Taken count of a branch whose block was never executed,
+     * <code>-</code> in LCOV.
+     */
+    public static final int NOT_EXECUTED = -1;
+
+    /**
+     * Line number of each branch.
+     */
+    private int[] lines;
+
+    /**
+     * Block number of each branch.
+     */
+    private int[] blocks;
+
+    /**
+     * Branch number of each branch, within its block.
+     */
+    private int[] branches;
+
+    /**
+     * Number of times each branch was taken, or {@link #NOT_EXECUTED}.
+     */
+    private int[] taken;
+
+    /**
+     * Number of branches.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public BranchData() {
+        this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            Number of branches to make room for.
+     */
+    public BranchData(final int capacity) {
+        int n = Math.max(1, capacity);
+        lines = new int[n];
+        blocks = new int[n];
+        branches = new int[n];
+        taken = new int[n];
+    }
+
+    /**
+     * Add a branch.
+     *
+     * @param line
+     *            Line number.
+     * @param block
+     *            Block number.
+     * @param branch
+     *            Branch number.
+     * @param takenCount
+     *            Number of times it was taken, or {@link #NOT_EXECUTED}.
+     */
+    public void add(final int line, final int block, final int branch,
+            final int takenCount) {
+        if (size == lines.length) {
+            int n = size * 2;
+            lines = Arrays.copyOf(lines, n);
+            blocks = Arrays.copyOf(blocks, n);
+            branches = Arrays.copyOf(branches, n);
+            taken = Arrays.copyOf(taken, n);
+        }
+        lines[size] = line;
+        blocks[size] = block;
+        branches[size] = branch;
+        taken[size] = takenCount;
+        size++;
+    }
+
+    /**
+     * @return The number of branches.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     *            A branch's position.
+     * @return Its line number.
+     */
+    public int getLine(final int i) {
+        return lines[i];
+    }
+
+    /**
+     * @param i
+     *            A branch's position.
+     * @return Its block number.
+     */
+    public int getBlock(final int i) {
+        return blocks[i];
+    }
+
+    /**
+     * @param i
+     *            A branch's position.
+     * @return Its branch number.
+     */
+    public int getBranch(final int i) {
+        return branches[i];
+    }
+
+    /**
+     * @param i
+     *            A branch's position.
+     * @return The number of times it was taken, or {@link #NOT_EXECUTED}.
+     */
+    public int getTaken(final int i) {
+        return taken[i];
+    }
+
+    /**
+     * @return The number of branches taken at least once.
+     */
+    public int getBranchesHit() {
+        int hit = 0;
+        for (int i = 0; i < size; i++) {
+            if (taken[i] > 0) {
+                hit++;
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Find the first branch of a line, in normalized data.
+     *
+     * @param line
+     *            The line number.
+     * @return The position of its first branch, or <code>-1</code> if it has
+     *         none.
+     */
+    public int find(final int line) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lines[mid] < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < size && lines[low] == line ? low : -1;
+    }
+
+    /**
+     * Sort the branches, sum the taken counts of repeated ones, and trim the
+     * arrays.
+     *
+     * @return <code>this</code>.
+     */
+    public BranchData normalize() {
+        if (!isSorted()) {
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) lines[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] l = new int[size];
+            int[] bl = new int[size];
+            int[] br = new int[size];
+            int[] t = new int[size];
+            for (int k = 0; k < size; k++) {
+                int i = (int) order[k];
+                l[k] = lines[i];
+                bl[k] = blocks[i];
+                br[k] = branches[i];
+                t[k] = taken[i];
+                // within a line, insertion sort by block and branch
+                for (int j = k; j > 0 && l[j - 1] == l[j]
+                        && compare(bl, br, j - 1, j) > 0; j--) {
+                    swap(bl, j);
+                    swap(br, j);
+                    swap(t, j);
+                }
+            }
+            lines = l;
+            blocks = bl;
+            branches = br;
+            taken = t;
+        }
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (n > 0 && lines[n - 1] == lines[i] && blocks[n - 1] == blocks[i]
+                    && branches[n - 1] == branches[i]) {
+                taken[n - 1] = addTaken(taken[n - 1], taken[i]);
+            } else {
+                lines[n] = lines[i];
+                blocks[n] = blocks[i];
+                branches[n] = branches[i];
+                taken[n] = taken[i];
+                n++;
+            }
+        }
+        size = n;
+        int capacity = Math.max(1, n);
+        lines = Arrays.copyOf(lines, capacity);
+        blocks = Arrays.copyOf(blocks, capacity);
+        branches = Arrays.copyOf(branches, capacity);
+        taken = Arrays.copyOf(taken, capacity);
+        return this;
+    }
+
+    /**
+     * Merge normalized branches into new normalized data.
+     *
+     * @param a
+     *            Normalized branches, or <code>null</code>.
+     * @param b
+     *            Normalized branches, or <code>null</code>.
+     * @param copies
+     *            Number of times <code>b</code> is counted.
+     * @return The merged branches; <code>a</code> itself if <code>b</code> is
+     *         <code>null</code>.
+     */
+    public static BranchData merge(final BranchData a, final BranchData b,
+            final int copies) {
+        if (null == b) {
+            return a;
+        }
+        BranchData out = new BranchData((null == a ? 0 : a.size) + b.size);
+        int i = 0;
+        int j = 0;
+        int aSize = null == a ? 0 : a.size;
+        while (i < aSize || j < b.size) {
+            int c = i == aSize ? 1 : j == b.size ? -1
+                : a.compareTo(i, b, j);
+            if (c < 0) {
+                out.add(a.lines[i], a.blocks[i], a.branches[i], a.taken[i]);
+                i++;
+            } else {
+                int t = multiplyTaken(b.taken[j], copies);
+                if (c == 0) {
+                    t = addTaken(a.taken[i], t);
+                    i++;
+                }
+                out.add(b.lines[j], b.blocks[j], b.branches[j], t);
+                j++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return Whether the branches are sorted.
+     */
+    private boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (compareTo(i - 1, this, i) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a branch with a branch of other data.
+     *
+     * @param i
+     *            A branch's position in this data.
+     * @param other
+     *            The other data.
+     * @param j
+     *            A branch's position in <code>other</code>.
+     * @return Negative, zero or positive as this branch sorts before, with or
+     *         after the other.
+     */
+    private int compareTo(final int i, final BranchData other, final int j) {
+        if (lines[i] != other.lines[j]) {
+            return lines[i] < other.lines[j] ? -1 : 1;
+        }
+        if (blocks[i] != other.blocks[j]) {
+            return blocks[i] < other.blocks[j] ? -1 : 1;
+        }
+        if (branches[i] != other.branches[j]) {
+            return branches[i] < other.branches[j] ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two branches of the same line.
+     *
+     * @param bl
+     *            Block numbers.
+     * @param br
+     *            Branch numbers.
+     * @param i
+     *            A position.
+     * @param j
+     *            Another position.
+     * @return Negative, zero or positive.
+     */
+    private static int compare(final int[] bl, final int[] br, final int i,
+            final int j) {
+        if (bl[i] != bl[j]) {
+            return bl[i] < bl[j] ? -1 : 1;
+        }
+        return br[i] < br[j] ? -1 : br[i] == br[j] ? 0 : 1;
+    }
+
+    /**
+     * Swap an element with the one before it.
+     *
+     * @param a
+     *            The array.
+     * @param j
+     *            The element's position.
+     */
+    private static void swap(final int[] a, final int j) {
+        int t = a[j];
+        a[j] = a[j - 1];
+        a[j - 1] = t;
+    }
+
+    /**
+     * Add two taken counts, without overflowing. A branch never executed in
+     * either is still never executed.
+     *
+     * @param a
+     *            A taken count, or {@link #NOT_EXECUTED}.
+     * @param b
+     *            A taken count, or {@link #NOT_EXECUTED}.
+     * @return The sum.
+     */
+    static int addTaken(final int a, final int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+    }
+
+    /**
+     * Multiply a taken count, without overflowing.
+     *
+     * @param t
+     *            A taken count, or {@link #NOT_EXECUTED}.
+     * @param copies
+     *            Number of copies.
+     * @return The product.
+     */
+    static int multiplyTaken(final int t, final int copies) {
+        if (t <= 0 || copies == 1) {
+            return t;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (long) t * copies);
+    }
+}
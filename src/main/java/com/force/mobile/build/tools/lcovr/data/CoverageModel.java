@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+/**
+ * The coverage of a set of {@link SourceFileInfo}s, arranged once for every
+ * consumer: files sorted by package, then by name, so that each package is a
+ * contiguous range of files, and line counts rolled up per package, per
+ * directory and in total.
+ *
+ * Everything is computed in the constructor, in one sort and one pass over
+ * the files; the package name of each file is computed only once. Writers
+ * can then iterate the model without copying, sorting or hashing again.
+ *
+ * @see SourceFileInfo#getSourcePackageName()
+ */
+public final class CoverageModel {
+
+    /**
+     * The files, sorted by package, then by name.
+     */
+    private final List<SourceFileInfo> files;
+
+    /**
+     * Package rollups, sorted by name.
+     */
+    private final List<Rollup> packages;
+
+    /**
+     * Directory rollups, sorted by name.
+     */
+    private final List<Rollup> directories;
+
+    /**
+     * Rollup of every file.
+     */
+    private final Rollup total;
+
+    /**
+     * Constructor.
+     *
+     * @param infos
+     *            The files. The list is not modified.
+     */
+    public CoverageModel(final List<SourceFileInfo> infos) {
+        int n = infos.size();
+        final String[] packageNames = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            packageNames[i] = infos.get(i).getSourcePackageName();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                int c = packageNames[a].compareTo(packageNames[b]);
+                if (c != 0) {
+                    return c;
+                }
+                return infos.get(a).compareTo(infos.get(b));
+            }
+        });
+
+        SourceFileInfo[] sorted = new SourceFileInfo[n];
+        List<Rollup> packageList = new Vector<Rollup>();
+        Map<String, Rollup> directoryMap = new TreeMap<String, Rollup>();
+        Rollup all = new Rollup("", -1);
+        Rollup pkg = null;
+        for (int i = 0; i < n; i++) {
+            SourceFileInfo info = infos.get(order[i]);
+            String packageName = packageNames[order[i]];
+            sorted[i] = info;
+            if (null == pkg || !pkg.name.equals(packageName)) {
+                if (null != pkg) {
+                    pkg.to = i;
+                }
+                pkg = new Rollup(packageName, i);
+                packageList.add(pkg);
+            }
+            String directory = getDirectory(info.getFileName());
+            Rollup dir = directoryMap.get(directory);
+            if (null == dir) {
+                dir = new Rollup(directory, -1);
+                directoryMap.put(directory, dir);
+            }
+            pkg.add(info);
+            dir.add(info);
+            all.add(info);
+        }
+        if (null != pkg) {
+            pkg.to = n;
+        }
+        files = Collections.unmodifiableList(Arrays.asList(sorted));
+        packages = Collections.unmodifiableList(packageList);
+        directories = Collections.unmodifiableList(
+                new Vector<Rollup>(directoryMap.values()));
+        total = all;
+    }
+
+    /**
+     * Get the directory of a file name.
+     *
+     * @param fileName
+     *            The file name.
+     * @return Everything before the last <code>'/'</code>, or an empty
+     *         string.
+     */
+    public static String getDirectory(final String fileName) {
+        int slash = fileName.lastIndexOf('/');
+        return slash < 0 ? "" : fileName.substring(0, slash);
+    }
+
+    /**
+     * Get every file.
+     *
+     * @return The files, sorted by package, then by name.
+     */
+    public List<SourceFileInfo> getFiles() {
+        return files;
+    }
+
+    /**
+     * Get the files of a package, without copying.
+     *
+     * @param pkg
+     *            One of {@link #getPackages()}.
+     * @return Its files, sorted by name.
+     */
+    public List<SourceFileInfo> getFiles(final Rollup pkg) {
+        if (pkg.from < 0) {
+            throw new IllegalArgumentException("Not a package: " + pkg.name);
+        }
+        return files.subList(pkg.from, pkg.to);
+    }
+
+    /**
+     * Get the package rollups.
+     *
+     * @return The packages, sorted by name.
+     */
+    public List<Rollup> getPackages() {
+        return packages;
+    }
+
+    /**
+     * Get the directory rollups. A directory counts only the files directly
+     * in it.
+     *
+     * @return The directories, sorted by name.
+     */
+    public List<Rollup> getDirectories() {
+        return directories;
+    }
+
+    /**
+     * Get the rollup of every file.
+     *
+     * @return The total.
+     */
+    public Rollup getTotal() {
+        return total;
+    }
+
+    /**
+     * Line counts summed over a group of files.
+     */
+    public static final class Rollup {
+        /**
+         * The package or directory name.
+         */
+        private final String name;
+
+        /**
+         * Index of the first file of a package in {@link #files}, or
+         * <code>-1</code>.
+         */
+        private final int from;
+
+        /**
+         * End of the files of a package in {@link #files}.
+         */
+        private int to;
+
+        /**
+         * Number of files.
+         */
+        private int fileCount;
+
+        /**
+         * Number of instrumented lines.
+         */
+        private int linesFound;
+
+        /**
+         * Number of lines executed at least once.
+         */
+        private int linesHit;
+
+        /**
+         * Number of branches.
+         */
+        private int branchesFound;
+
+        /**
+         * Number of branches taken at least once.
+         */
+        private int branchesHit;
+
+        /**
+         * Sum of the complexity of the files whose complexity is known.
+         */
+        private double complexitySum;
+
+        /**
+         * Number of files whose complexity is known.
+         */
+        private int complexFileCount;
+
+        /**
+         * Constructor.
+         *
+         * @param rollupName
+         *            The package or directory name.
+         * @param first
+         *            Index of the first file of a package, or <code>-1</code>.
+         */
+        Rollup(final String rollupName, final int first) {
+            name = rollupName;
+            from = first;
+        }
+
+        /**
+         * Count a file.
+         *
+         * @param info
+         *            The file.
+         */
+        void add(final SourceFileInfo info) {
+            fileCount++;
+            linesFound += info.getLf();
+            linesHit += info.getLh();
+            branchesFound += info.getBrf();
+            branchesHit += info.getBrh();
+            if (info.getComplexity() > 0) {
+                complexitySum += info.getComplexity();
+                complexFileCount++;
+            }
+        }
+
+        /**
+         * @return The package or directory name; empty for the total.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return Number of files.
+         */
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        /**
+         * @return Number of instrumented lines.
+         */
+        public int getLinesFound() {
+            return linesFound;
+        }
+
+        /**
+         * @return Number of lines executed at least once.
+         */
+        public int getLinesHit() {
+            return linesHit;
+        }
+
+        /**
+         * @return Number of branches.
+         */
+        public int getBranchesFound() {
+            return branchesFound;
+        }
+
+        /**
+         * @return Number of branches taken at least once.
+         */
+        public int getBranchesHit() {
+            return branchesHit;
+        }
+
+        /**
+         * @return Average complexity of the files whose complexity is known,
+         *         or <code>0.0</code>.
+         */
+        public double getComplexity() {
+            return complexFileCount == 0 ? 0.0
+                : complexitySum / complexFileCount;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The functions of a source file, from LCOV <code>FN:</code> and
+ * <code>FNDA:</code> lines, kept in parallel arrays. Names are shared
+ * through a {@link NamePool}, so a function costs its three
+ * <code>int</code>s and a reference.
+ * <p>
+ * Once {@link #normalize()}d, each name appears once, and functions are
+ * sorted by first line, then name.
+ */
+public final class FunctionData {
+    /**
+     * Last line of a function whose end is not known.
+     */
+    public static final int UNKNOWN = 0;
+
+    /**
+     * Name of each function.
+     */
+    private String[] names;
+
+    /**
+     * First line of each function, or {@link #UNKNOWN} for one seen only
+     * in an <code>FNDA:</code> line so far.
+     */
+    private int[] lines;
+
+    /**
+     * Last line of each function, or {@link #UNKNOWN}.
+     */
+    private int[] endLines;
+
+    /**
+     * Number of times each function was called.
+     */
+    private int[] hits;
+
+    /**
+     * Cyclomatic complexity of each function, or <code>null</code> until
+     * one is set.
+     */
+    private int[] complexities;
+
+    /**
+     * Number of functions.
+     */
+    private int size;
+
+    /**
+     * Constructor.
+     */
+    public FunctionData() {
+        this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            Number of functions to make room for.
+     */
+    public FunctionData(final int capacity) {
+        int n = Math.max(1, capacity);
+        names = new String[n];
+        lines = new int[n];
+        endLines = new int[n];
+        hits = new int[n];
+    }
+
+    /**
+     * Add a function, or the hits of one.
+     *
+     * @param line
+     *            First line, or {@link #UNKNOWN}.
+     * @param endLine
+     *            Last line, or {@link #UNKNOWN}.
+     * @param name
+     *            Name, preferably from a {@link NamePool}.
+     * @param hitCount
+     *            Number of calls.
+     */
+    public void add(final int line, final int endLine, final String name,
+            final int hitCount) {
+        if (size == names.length) {
+            int n = size * 2;
+            names = Arrays.copyOf(names, n);
+            lines = Arrays.copyOf(lines, n);
+            endLines = Arrays.copyOf(endLines, n);
+            hits = Arrays.copyOf(hits, n);
+        }
+        names[size] = name;
+        lines[size] = line;
+        endLines[size] = endLine;
+        hits[size] = hitCount;
+        size++;
+    }
+
+    /**
+     * @return The number of functions.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     *            A function's position.
+     * @return Its name.
+     */
+    public String getName(final int i) {
+        return names[i];
+    }
+
+    /**
+     * @param i
+     *            A function's position.
+     * @return Its first line.
+     */
+    public int getLine(final int i) {
+        return lines[i];
+    }
+
+    /**
+     * @param i
+     *            A function's position.
+     * @return Its last line, or {@link #UNKNOWN}.
+     */
+    public int getEndLine(final int i) {
+        return endLines[i];
+    }
+
+    /**
+     * Get the last line of a function: its end line when the input gave
+     * one, or else the line before the next function, in normalized data.
+     *
+     * @param i
+     *            A function's position.
+     * @return Its last line, or <code>Integer.MAX_VALUE</code> for the
+     *         last function of a file.
+     */
+    public int getLastLine(final int i) {
+        if (endLines[i] != UNKNOWN) {
+            return endLines[i];
+        }
+        for (int j = i + 1; j < size; j++) {
+            if (lines[j] > lines[i]) {
+                return lines[j] - 1;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @param i
+     *            A function's position.
+     * @return Its cyclomatic complexity, or <code>0</code> if it wasn't
+     *         computed.
+     */
+    public int getComplexity(final int i) {
+        return null == complexities ? 0 : complexities[i];
+    }
+
+    /**
+     * Set the cyclomatic complexity of a function.
+     *
+     * @param i
+     *            A function's position.
+     * @param complexity
+     *            Its cyclomatic complexity.
+     */
+    public void setComplexity(final int i, final int complexity) {
+        if (null == complexities) {
+            complexities = new int[names.length];
+        }
+        complexities[i] = complexity;
+    }
+
+    /**
+     * @param i
+     *            A function's position.
+     * @return The number of times it was called.
+     */
+    public int getHits(final int i) {
+        return hits[i];
+    }
+
+    /**
+     * @return The number of functions called at least once.
+     */
+    public int getFunctionsHit() {
+        int hit = 0;
+        for (int i = 0; i < size; i++) {
+            if (hits[i] > 0) {
+                hit++;
+            }
+        }
+        return hit;
+    }
+
+    /**
+     * Combine the entries of each name, summing their hits and keeping the
+     * first known first line and the greatest last line, drop the names
+     * that no <code>FN:</code> line declared, sort by line and trim the
+     * arrays.
+     *
+     * @return <code>this</code>.
+     */
+    public FunctionData normalize() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // stable, so that earlier entries win
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                return names[a].compareTo(names[b]);
+            }
+        });
+        String[] n = new String[Math.max(1, size)];
+        int[] l = new int[n.length];
+        int[] e = new int[n.length];
+        int[] h = new int[n.length];
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            int i = order[k];
+            if (count > 0 && n[count - 1].equals(names[i])) {
+                int last = count - 1;
+                if (l[last] == UNKNOWN) {
+                    l[last] = lines[i];
+                }
+                e[last] = Math.max(e[last], endLines[i]);
+                h[last] = addHits(h[last], hits[i]);
+            } else {
+                n[count] = names[i];
+                l[count] = lines[i];
+                e[count] = endLines[i];
+                h[count] = hits[i];
+                count++;
+            }
+        }
+        names = n;
+        lines = l;
+        endLines = e;
+        hits = h;
+        size = count;
+        sortByLine();
+        return this;
+    }
+
+    /**
+     * Merge normalized functions into new normalized data.
+     *
+     * @param a
+     *            Normalized functions, or <code>null</code>.
+     * @param b
+     *            Normalized functions, or <code>null</code>.
+     * @param copies
+     *            Number of times <code>b</code> is counted.
+     * @return The merged functions; <code>a</code> itself if <code>b</code>
+     *         is <code>null</code>.
+     */
+    public static FunctionData merge(final FunctionData a,
+            final FunctionData b, final int copies) {
+        if (null == b) {
+            return a;
+        }
+        int aSize = null == a ? 0 : a.size;
+        FunctionData out = new FunctionData(aSize + b.size);
+        for (int i = 0; i < aSize; i++) {
+            out.add(a.lines[i], a.endLines[i], a.names[i], a.hits[i]);
+        }
+        for (int j = 0; j < b.size; j++) {
+            out.add(b.lines[j], b.endLines[j], b.names[j],
+                    BranchData.multiplyTaken(b.hits[j], copies));
+        }
+        return out.normalize();
+    }
+
+    /**
+     * Sort the functions, which have distinct names, by first line and then
+     * name, dropping those without a first line, and trim the arrays.
+     */
+    private void sortByLine() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                if (lines[a] != lines[b]) {
+                    return lines[a] < lines[b] ? -1 : 1;
+                }
+                return names[a].compareTo(names[b]);
+            }
+        });
+        int count = 0;
+        for (int k = 0; k < size; k++) {
+            if (lines[order[k]] != UNKNOWN) {
+                count++;
+            }
+        }
+        String[] n = new String[Math.max(1, count)];
+        int[] l = new int[n.length];
+        int[] e = new int[n.length];
+        int[] h = new int[n.length];
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            int i = order[k];
+            if (lines[i] != UNKNOWN) {
+                n[j] = names[i];
+                l[j] = lines[i];
+                e[j] = endLines[i];
+                h[j] = hits[i];
+                j++;
+            }
+        }
+        names = n;
+        lines = l;
+        endLines = e;
+        hits = h;
+        size = count;
+    }
+
+    /**
+     * Add two hit counts, without overflowing.
+     *
+     * @param a
+     *            A hit count.
+     * @param b
+     *            Another hit count.
+     * @return The sum.
+     */
+    private static int addHits(final int a, final int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative <code>int</code>s, in the style of a
+ * roaring bitmap: values are grouped by their high 16 bits, and each group
+ * is kept either as a sorted array of its low 16 bits (when sparse), or as a
+ * 65536-bit bitset (when dense).
+ *
+ * Not thread-safe.
+ */
+public final class IntBitmap {
+
+    /**
+     * Cardinality above which a group is kept as a bitset. At this size the
+     * array and the bitset both take 8KB.
+     */
+    private static final int ARRAY_MAX = 4096;
+
+    /**
+     * Number of <code>long</code>s in a bitset.
+     */
+    private static final int BITSET_WORDS = 1024;
+
+    /**
+     * Sorted high 16 bits of each group.
+     */
+    private char[] keys = new char[1];
+
+    /**
+     * Each group's values: a sorted <code>char[]</code> of low 16 bits, or a
+     * <code>long[]</code> bitset.
+     */
+    private Object[] containers = new Object[1];
+
+    /**
+     * Cardinality of each group.
+     */
+    private int[] cardinalities = new int[1];
+
+    /**
+     * Number of groups.
+     */
+    private int size;
+
+    /**
+     * Add a value.
+     *
+     * @param value
+     *            A non-negative value.
+     * @return true if the value was not there yet.
+     */
+    public boolean add(final int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = Arrays.binarySearch(keys, 0, size, high);
+        if (i < 0) {
+            i = -i - 1;
+            insertGroup(i, high, new char[4]);
+        }
+        Object container = containers[i];
+        if (container instanceof long[]) {
+            long[] bits = (long[]) container;
+            long mask = 1L << low;
+            if ((bits[low >>> 6] & mask) != 0) {
+                return false;
+            }
+            bits[low >>> 6] |= mask;
+            cardinalities[i]++;
+            return true;
+        }
+        char[] values = (char[]) container;
+        int n = cardinalities[i];
+        int j = Arrays.binarySearch(values, 0, n, low);
+        if (j >= 0) {
+            return false;
+        }
+        j = -j - 1;
+        if (n == ARRAY_MAX) {
+            long[] bits = toBitset(values, n);
+            bits[low >>> 6] |= 1L << low;
+            containers[i] = bits;
+        } else {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, Math.min(n * 2, ARRAY_MAX));
+                containers[i] = values;
+            }
+            System.arraycopy(values, j, values, j + 1, n - j);
+            values[j] = low;
+        }
+        cardinalities[i]++;
+        return true;
+    }
+
+    /**
+     * Whether a value is in the set.
+     *
+     * @param value
+     *            A non-negative value.
+     * @return true if the value is in the set.
+     */
+    public boolean contains(final int value) {
+        char low = (char) value;
+        int i = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object container = containers[i];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[i],
+                low) >= 0;
+    }
+
+    /**
+     * Add every value of another set to this one.
+     *
+     * @param other
+     *            Values to add.
+     */
+    public void or(final IntBitmap other) {
+        for (int g = 0; g < other.size; g++) {
+            int base = other.keys[g] << 16;
+            Object container = other.containers[g];
+            if (container instanceof long[]) {
+                long[] bits = (long[]) container;
+                int i = Arrays.binarySearch(keys, 0, size, other.keys[g]);
+                if (i >= 0 && containers[i] instanceof long[]) {
+                    long[] mine = (long[]) containers[i];
+                    int cardinality = 0;
+                    for (int w = 0; w < BITSET_WORDS; w++) {
+                        mine[w] |= bits[w];
+                        cardinality += Long.bitCount(mine[w]);
+                    }
+                    cardinalities[i] = cardinality;
+                    continue;
+                }
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        add(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int j = 0; j < other.cardinalities[g]; j++) {
+                    add(base + values[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of values in the set.
+     *
+     * @return The cardinality.
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cardinalities[i];
+        }
+        return total;
+    }
+
+    /**
+     * Whether the set is empty.
+     *
+     * @return true if the set has no value.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the values, in ascending order.
+     *
+     * @return A new array of the values.
+     */
+    public int[] toArray() {
+        int[] out = new int[cardinality()];
+        int k = 0;
+        for (int g = 0; g < size; g++) {
+            int base = keys[g] << 16;
+            Object container = containers[g];
+            if (container instanceof long[]) {
+                long[] bits = (long[]) container;
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        out[k++] = base + (w << 6)
+                            + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) container;
+                for (int j = 0; j < cardinalities[g]; j++) {
+                    out[k++] = base + values[j];
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Insert an empty group.
+     *
+     * @param index
+     *            Position of the group.
+     * @param high
+     *            The group's high 16 bits.
+     * @param container
+     *            The group's initial container.
+     */
+    private void insertGroup(final int index, final char high,
+            final Object container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+            cardinalities = Arrays.copyOf(cardinalities, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1,
+                size - index);
+        System.arraycopy(cardinalities, index, cardinalities, index + 1,
+                size - index);
+        keys[index] = high;
+        containers[index] = container;
+        cardinalities[index] = 0;
+        size++;
+    }
+
+    /**
+     * Convert an array container to a bitset.
+     *
+     * @param values
+     *            Sorted low 16 bits.
+     * @param n
+     *            Number of values.
+     * @return A new bitset.
+     */
+    private static long[] toBitset(final char[] values, final int n) {
+        long[] bits = new long[BITSET_WORDS];
+        for (int j = 0; j < n; j++) {
+            bits[values[j] >>> 6] |= 1L << values[j];
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+
+/**
+ * The per-line source checksums of a {@link SourceFileInfo}, from the third
+ * field of <code>DA:&lt;line&gt;,&lt;count&gt;,&lt;checksum&gt;</code>.
+ *
+ * Checksums are the MD5 digests of the source lines, as written by
+ * <code>geninfo --checksum</code>. They are kept decoded, in one array, in
+ * the order of their line numbers.
+ */
+public final class LineChecksums {
+
+    /**
+     * Length of a digest, in bytes.
+     */
+    public static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Line numbers, in ascending order.
+     */
+    private final int[] lines;
+
+    /**
+     * Digests of {@link #lines}, {@link #DIGEST_LENGTH} bytes each.
+     */
+    private final byte[] digests;
+
+    /**
+     * Constructor.
+     *
+     * @param lineNumbers
+     *            Line numbers, in any order.
+     * @param lineDigests
+     *            Digests of <code>lineNumbers</code>, {@link #DIGEST_LENGTH}
+     *            bytes each.
+     * @param count
+     *            Number of lines used in the arrays.
+     */
+    public LineChecksums(final int[] lineNumbers, final byte[] lineDigests,
+            final int count) {
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) lineNumbers[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        lines = new int[count];
+        digests = new byte[count * DIGEST_LENGTH];
+        for (int i = 0; i < count; i++) {
+            int from = (int) order[i];
+            lines[i] = lineNumbers[from];
+            System.arraycopy(lineDigests, from * DIGEST_LENGTH, digests,
+                    i * DIGEST_LENGTH, DIGEST_LENGTH);
+        }
+    }
+
+    /**
+     * Get the number of lines with a checksum.
+     *
+     * @return Number of lines.
+     */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Get a line number.
+     *
+     * @param index
+     *            Index, in <code>[0, size())</code>.
+     * @return The line number; ascending with <code>index</code>.
+     */
+    public int getLine(final int index) {
+        return lines[index];
+    }
+
+    /**
+     * Compare a line's checksum with a digest.
+     *
+     * @param index
+     *            Index, in <code>[0, size())</code>.
+     * @param digest
+     *            A {@link #DIGEST_LENGTH}-byte digest.
+     * @return true if they are equal.
+     */
+    public boolean matches(final int index, final byte[] digest) {
+        int offset = index * DIGEST_LENGTH;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            if (digests[offset + i] != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
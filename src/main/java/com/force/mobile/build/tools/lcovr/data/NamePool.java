@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one copy of each function name. Mangled C++ and generated
+ * JavaScript names, such as <code>(anonymous_3)</code>, repeat across
+ * source files and across the shards of a test run, so the readers of one
+ * conversion share a pool, and the names kept in memory are only the
+ * distinct ones.
+ * <p>
+ * Safe for use by several threads at once.
+ */
+public final class NamePool {
+    /**
+     * Each name, mapped to itself.
+     */
+    private final ConcurrentHashMap<String, String> names =
+        new ConcurrentHashMap<String, String>();
+
+    /**
+     * Get the pooled copy of a name, adding it if it is new.
+     *
+     * @param name
+     *            A name.
+     * @return An equal name; the same instance for every equal name.
+     */
+    public String intern(final String name) {
+        String pooled = names.putIfAbsent(name, name);
+        return null == pooled ? name : pooled;
+    }
+
+    /**
+     * @return The number of distinct names.
+     */
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Allocates {@link LineStore}s outside of the Java heap, so that the heap
+ * used by {@link SourceFileInfo}s stays constant however many lines they
+ * describe.
+ *
+ * Line information is packed as sorted <code>(line number, hits)</code>
+ * pairs of <code>int</code>s into large segments, either direct
+ * <code>ByteBuffer</code>s or memory-mapped temporary files. Segments are
+ * never reused; they are released when no store refers to them any more.
+ *
+ * Not thread-safe.
+ *
+ * @see SourceFileInfo#moveOffHeap(OffHeapLineStorage)
+ */
+public final class OffHeapLineStorage {
+
+    /**
+     * Default size of a segment, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Bytes per stored line: two <code>int</code>s.
+     */
+    private static final int LINE_SIZE = 8;
+
+    /**
+     * Directory for memory-mapped segments, or <code>null</code> for direct
+     * buffers.
+     */
+    private final File directory;
+
+    /**
+     * Size of a regular segment.
+     */
+    private final int segmentSize;
+
+    /**
+     * The segment being filled.
+     */
+    private ByteBuffer segment;
+
+    /**
+     * Reusable buffer for sorting a file's lines before they are copied.
+     */
+    private long[] scratch = new long[1024];
+
+    /**
+     * Create a storage backed by direct <code>ByteBuffer</code>s.
+     */
+    public OffHeapLineStorage() {
+        this(null, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Create a storage.
+     *
+     * @param mappedDirectory
+     *            Directory for memory-mapped temporary segment files, or
+     *            <code>null</code> for direct <code>ByteBuffer</code>s.
+     * @param bytesPerSegment
+     *            Size of a segment. Files with more lines get a segment of
+     *            their own.
+     */
+    public OffHeapLineStorage(final File mappedDirectory,
+            final int bytesPerSegment) {
+        directory = mappedDirectory;
+        segmentSize = bytesPerSegment - bytesPerSegment % LINE_SIZE;
+    }
+
+    /**
+     * Copy the line information of a {@link SourceFileInfo} off the heap.
+     *
+     * @param info
+     *            Object whose lines to copy.
+     * @return A store holding the same lines, sorted by line number.
+     * @throws IOException
+     *             if a segment file can't be created.
+     */
+    public LineStore store(final SourceFileInfo info) throws IOException {
+        final int[] count = new int[1];
+        info.forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                add(count[0]++, lineNumber, hits);
+            }
+        });
+        return store(scratch, count[0]);
+    }
+
+    /**
+     * Copy packed line information off the heap.
+     *
+     * @param packed
+     *            Lines of one record, each packed as the line number in the
+     *            high and the hits in the low 32 bits. Sorted in place.
+     * @param count
+     *            Number of lines in <code>packed</code>.
+     * @return A store holding the lines, sorted by line number.
+     * @throws IOException
+     *             if a segment file can't be created.
+     * @see SourceFileInfo#normalizeLines(long[], int)
+     */
+    public LineStore store(final long[] packed, final int count)
+    throws IOException {
+        int length = SourceFileInfo.normalizeLines(packed, count);
+        ByteBuffer target = allocate(length * LINE_SIZE);
+        for (int i = 0; i < length; i++) {
+            target.putInt(i * LINE_SIZE, (int) (packed[i] >> 32));
+            target.putInt(i * LINE_SIZE + 4, (int) packed[i]);
+        }
+        return new OffHeapLineStore(target);
+    }
+
+    /**
+     * Append a line to the scratch buffer, growing it if necessary.
+     *
+     * @param index
+     *            Position in the scratch buffer.
+     * @param lineNumber
+     *            The source line number.
+     * @param hits
+     *            The number of times that line was executed.
+     */
+    private void add(final int index, final int lineNumber, final int hits) {
+        if (index == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[index] = ((long) lineNumber << 32) | (hits & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Carve a region out of the current segment, starting a new one if it
+     * doesn't fit.
+     *
+     * @param bytes
+     *            Size of the region.
+     * @return A little-endian buffer of exactly <code>bytes</code> bytes.
+     * @throws IOException
+     *             if a segment file can't be created.
+     */
+    private ByteBuffer allocate(final int bytes) throws IOException {
+        if (bytes > segmentSize) {
+            return newSegment(bytes);
+        }
+        if (null == segment || segment.remaining() < bytes) {
+            segment = newSegment(segmentSize);
+        }
+        ByteBuffer region = segment.slice().order(ByteOrder.LITTLE_ENDIAN);
+        region.limit(bytes);
+        segment.position(segment.position() + bytes);
+        return region;
+    }
+
+    /**
+     * Allocate a new segment.
+     *
+     * @param bytes
+     *            Size of the segment.
+     * @return A new little-endian buffer.
+     * @throws IOException
+     *             if a segment file can't be created.
+     */
+    private ByteBuffer newSegment(final int bytes) throws IOException {
+        if (null == directory) {
+            return ByteBuffer.allocateDirect(bytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        File f = File.createTempFile("lcovr", ".lines", directory);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength(bytes);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            raf.close();
+            if (!f.delete()) {
+                f.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * A file's lines in a region of a segment.
+     */
+    private static final class OffHeapLineStore implements SortedLineStore {
+
+        /**
+         * The region, holding sorted <code>(line number, hits)</code> pairs.
+         */
+        private final ByteBuffer lines;
+
+        /**
+         * Constructor.
+         *
+         * @param region
+         *            The region.
+         */
+        OffHeapLineStore(final ByteBuffer region) {
+            lines = region;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void accept(final LineVisitor visitor) {
+            int end = lines.limit();
+            for (int i = 0; i < end; i += LINE_SIZE) {
+                visitor.line(lines.getInt(i), lines.getInt(i + 4));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void accept(final int first, final int last,
+                final LineVisitor visitor) {
+            int low = 0;
+            int high = lines.limit() / LINE_SIZE;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (lines.getInt(mid * LINE_SIZE) < first) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int end = lines.limit();
+            for (int i = low * LINE_SIZE; i < end; i += LINE_SIZE) {
+                int lineNumber = lines.getInt(i);
+                if (lineNumber > last) {
+                    break;
+                }
+                visitor.line(lineNumber, lines.getInt(i + 4));
+            }
+        }
+    }
+}
@@ -26,6 +26,8 @@
 package com.force.mobile.build.tools.lcovr.data;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,9 +49,21 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
 
     /**
      * A map. The key is the source line number, and the value is the number of
-     * times that line was executed.
+     * times that line was executed. Created on first use, so that summary-only
+     * records never pay for it.
      */
-    private final Map<Integer, Integer> lineInfo;
+    private Map<Integer, Integer> lineInfo;
+
+    /**
+     * Line information that has not been decoded into {@link #lineInfo} yet.
+     * Cleared once the map is materialised.
+     */
+    private LineStore lineStore;
+
+    /**
+     * Per-line source checksums, or <code>null</code>.
+     */
+    private LineChecksums checksums;
 
     /**
      * The Numerator. Number of lines executed at least once.
@@ -61,6 +75,41 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
      */
     private int lf;
 
+    /**
+     * The branches, or <code>null</code> if the input had none.
+     */
+    private BranchData branches;
+
+    /**
+     * Number of branches taken at least once.
+     */
+    private int brh;
+
+    /**
+     * Number of branches.
+     */
+    private int brf;
+
+    /**
+     * The functions, or <code>null</code> if the input had none.
+     */
+    private FunctionData functions;
+
+    /**
+     * Number of functions called at least once.
+     */
+    private int fnh;
+
+    /**
+     * Number of functions.
+     */
+    private int fnf;
+
+    /**
+     * Cyclomatic complexity, or <code>0</code> if it wasn't computed.
+     */
+    private double complexity;
+
     /**
      * Constructor. Create a new <code>SourceFileInfo</code> with a given source
      * code filename.
@@ -70,7 +119,6 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
      */
     public SourceFileInfo(final String sourceFilename) {
         fileName = sourceFilename;
-        lineInfo = new HashMap<Integer, Integer>();
     }
 
     /**
@@ -87,14 +135,173 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
 
     /**
      * Get the line information. The key is the line number, and the value is
-     * the number of times that line was executed.
+     * the number of times that line was executed. A line repeated within the
+     * record keeps its last execution count.
      *
      * @return A Map that describes number of times a line was executed.
      */
     public final Map<Integer, Integer> getLineInfo() {
+        if (null == lineInfo) {
+            final Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+            if (null != lineStore) {
+                lineStore.accept(new LineVisitor() {
+                    public void line(final int lineNumber, final int hits) {
+                        map.put(lineNumber, hits);
+                    }
+                });
+                lineStore = null;
+            }
+            lineInfo = map;
+        }
         return lineInfo;
     }
 
+    /**
+     * Visit the line information without materialising the map returned by
+     * {@link #getLineInfo()}.
+     *
+     * @param visitor
+     *            Receives each line number and its execution count.
+     */
+    public final void forEachLine(final LineVisitor visitor) {
+        if (null != lineInfo) {
+            for (Map.Entry<Integer, Integer> e : lineInfo.entrySet()) {
+                visitor.line(e.getKey(), e.getValue());
+            }
+        } else if (null != lineStore) {
+            lineStore.accept(visitor);
+        }
+    }
+
+    /**
+     * Sort the packed lines of one record by line number. A line repeated
+     * within the record keeps its last execution count, as in
+     * {@link #getLineInfo()}, whichever way the record was parsed.
+     *
+     * @param packed
+     *            Lines in input order, each packed as the line number in the
+     *            high and the hits in the low 32 bits. Modified in place.
+     * @param length
+     *            Number of lines in <code>packed</code>.
+     * @return The number of distinct lines left at the front of
+     *         <code>packed</code>.
+     */
+    public static int normalizeLines(final long[] packed, final int length) {
+        boolean distinct = true;
+        for (int i = 1; i < length && distinct; i++) {
+            distinct = packed[i - 1] >> 32 < packed[i] >> 32;
+        }
+        if (distinct) {
+            return length;
+        }
+        // sort by line number, then input order, and keep the last of each
+        long[] order = new long[length];
+        for (int i = 0; i < length; i++) {
+            order[i] = (packed[i] & 0xFFFFFFFF00000000L) | i;
+        }
+        Arrays.sort(order);
+        long[] input = Arrays.copyOf(packed, length);
+        int out = 0;
+        for (int k = 0; k < length; k++) {
+            if (k + 1 < length && order[k + 1] >> 32 == order[k] >> 32) {
+                continue;
+            }
+            packed[out++] = input[(int) order[k]];
+        }
+        return out;
+    }
+
+    /**
+     * Visit the lines numbered <code>first</code> to <code>last</code>. Lines
+     * kept in a {@link SortedLineStore} are found by binary search; otherwise
+     * each line of the range is looked up in the map, or every stored line is
+     * visited and filtered.
+     *
+     * @param first
+     *            First line number, inclusive.
+     * @param last
+     *            Last line number, inclusive.
+     * @param visitor
+     *            Receives each line in the range.
+     */
+    public final void forEachLine(final int first, final int last,
+            final LineVisitor visitor) {
+        if (null != lineInfo) {
+            if ((long) last - first < lineInfo.size()) {
+                for (int line = first; line <= last && line >= first; line++) {
+                    Integer hits = lineInfo.get(line);
+                    if (null != hits) {
+                        visitor.line(line, hits);
+                    }
+                }
+            } else {
+                for (Map.Entry<Integer, Integer> e : lineInfo.entrySet()) {
+                    if (e.getKey() >= first && e.getKey() <= last) {
+                        visitor.line(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        } else if (lineStore instanceof SortedLineStore) {
+            ((SortedLineStore) lineStore).accept(first, last, visitor);
+        } else if (null != lineStore) {
+            lineStore.accept(new LineVisitor() {
+                public void line(final int lineNumber, final int hits) {
+                    if (lineNumber >= first && lineNumber <= last) {
+                        visitor.line(lineNumber, hits);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Back the line information with a {@link LineStore}. It is decoded on
+     * the first call to {@link #getLineInfo()}, and visited in place by
+     * {@link #forEachLine(LineVisitor)} until then.
+     *
+     * @param store
+     *            Undecoded line information.
+     */
+    public final void setLineStore(final LineStore store) {
+        lineStore = store;
+        lineInfo = null;
+    }
+
+    /**
+     * Move the line information off the Java heap. Afterwards the lines are
+     * read through {@link #forEachLine(LineVisitor)} without touching the
+     * heap, until {@link #getLineInfo()} copies them back.
+     *
+     * @param storage
+     *            Where to keep the lines.
+     * @throws IOException
+     *             if the storage can't allocate a segment.
+     */
+    public final void moveOffHeap(final OffHeapLineStorage storage)
+    throws IOException {
+        setLineStore(storage.store(this));
+    }
+
+    /**
+     * Get the per-line source checksums, if the input had them and they were
+     * kept.
+     *
+     * @return The checksums, or <code>null</code>.
+     */
+    public final LineChecksums getChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Set the per-line source checksums.
+     *
+     * @param lineChecksums
+     *            The checksums, or <code>null</code>.
+     */
+    public final void setChecksums(final LineChecksums lineChecksums) {
+        checksums = lineChecksums;
+    }
+
     /**
      * Get the number of lines that were executed at least once.
      *
@@ -173,28 +380,162 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
     }
 
     /**
-     * Get the branch rate.
+     * Get the branches, from <code>BRDA:</code> lines.
+     *
+     * @return The branches, or <code>null</code> if there were none.
+     */
+    public final BranchData getBranches() {
+        return branches;
+    }
+
+    /**
+     * Set the branches, and count {@link #getBrf()} and {@link #getBrh()}
+     * from them.
+     *
+     * @param data
+     *            Normalized branches, or <code>null</code>.
+     */
+    public final void setBranches(final BranchData data) {
+        branches = data;
+        if (null != data) {
+            brf = data.size();
+            brh = data.getBranchesHit();
+        }
+    }
+
+    /**
+     * Get the number of branches taken at least once.
      *
-     * NOTE: This is not implemented, and always returns <code>0.0</code>
+     * @return Number of branches taken at least once.
+     */
+    public final int getBrh() {
+        return brh;
+    }
+
+    /**
+     * Set the number of branches taken at least once.
+     *
+     * @param branchesHit
+     *            Number of branches taken at least once.
+     */
+    public final void setBrh(final int branchesHit) {
+        this.brh = branchesHit;
+    }
+
+    /**
+     * Get the number of branches.
+     *
+     * @return Number of branches.
+     */
+    public final int getBrf() {
+        return brf;
+    }
+
+    /**
+     * Set the number of branches.
+     *
+     * @param branchesFound
+     *            Number of branches.
+     */
+    public final void setBrf(final int branchesFound) {
+        this.brf = branchesFound;
+    }
+
+    /**
+     * Get the branch rate: the fraction of branches taken at least once, or
+     * <code>0.0</code> without branches.
      *
      * @return The branch rate, as a percent. (In the range [0.0, 1.0])
      */
     public final double getBranchRate() {
-        // TODO Not implemented.
-        return 0.0f;
+        if (brf == 0) {
+            return 0.0f;
+        }
+        return (double) brh / (double) brf;
     }
 
     /**
-     * Get the algorithmic complexity of the source file.
+     * Get the functions, from <code>FN:</code> and <code>FNDA:</code> lines.
      *
-     * NOTE: This is not implemented, and always returns <code>0.0</code>
+     * @return The functions, or <code>null</code> if there were none.
+     */
+    public final FunctionData getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Set the functions, and count {@link #getFnf()} and {@link #getFnh()}
+     * from them.
+     *
+     * @param data
+     *            Normalized functions, or <code>null</code>.
+     */
+    public final void setFunctions(final FunctionData data) {
+        functions = data;
+        if (null != data) {
+            fnf = data.size();
+            fnh = data.getFunctionsHit();
+        }
+    }
+
+    /**
+     * Get the number of functions called at least once.
      *
-     * @return The algorithmic complexity, as a percent (In the range [0.0,
-     *         1.0])
+     * @return Number of functions called at least once.
+     */
+    public final int getFnh() {
+        return fnh;
+    }
+
+    /**
+     * Set the number of functions called at least once.
+     *
+     * @param functionsHit
+     *            Number of functions called at least once.
+     */
+    public final void setFnh(final int functionsHit) {
+        this.fnh = functionsHit;
+    }
+
+    /**
+     * Get the number of functions.
+     *
+     * @return Number of functions.
+     */
+    public final int getFnf() {
+        return fnf;
+    }
+
+    /**
+     * Set the number of functions.
+     *
+     * @param functionsFound
+     *            Number of functions.
+     */
+    public final void setFnf(final int functionsFound) {
+        this.fnf = functionsFound;
+    }
+
+    /**
+     * Get the cyclomatic complexity of the source file: the average over
+     * its functions, or the complexity of the whole file when it has none.
+     *
+     * @return The cyclomatic complexity, or <code>0.0</code> if it wasn't
+     *         computed.
+     * @see com.force.mobile.build.tools.lcovr.ComplexityCalculator
      */
     public final double getComplexity() {
-        // TODO Not implemented.
-        return 0.0f;
+        return complexity;
+    }
+
+    /**
+     * Set the cyclomatic complexity of the source file.
+     *
+     * @param cyclomaticComplexity
+     *            The cyclomatic complexity.
+     */
+    public final void setComplexity(final double cyclomaticComplexity) {
+        this.complexity = cyclomaticComplexity;
     }
 
     /**
@@ -218,7 +559,10 @@ public class SourceFileInfo implements Comparable<SourceFileInfo> {
      * @return A Map, with keys being the package name, and the value being a
      *         set of {@link SourceFileInfo}s.
      * @see SourceFileInfo#getSourcePackageName()
+     * @deprecated use {@link CoverageModel}, which sorts the files by package
+     *             once and rolls up their line counts.
      */
+    @Deprecated
     public static final Map<String, Set<SourceFileInfo>> splitIntoPackages(
             final List<SourceFileInfo> infos) {
         Map<String, Set<SourceFileInfo>> dictionary = new HashMap<String,
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Records which tests (<code>TN:</code> sections of an <code>.lcov</code>
+ * file) executed which lines, for test-impact analysis.
+ *
+ * Test names are interned to small integer ids, and the tests that executed
+ * a line are kept as an {@link IntBitmap} of ids, so thousands of tests
+ * take little memory and are combined quickly.
+ *
+ * Not thread-safe.
+ */
+public final class TestCoverageIndex {
+
+    /**
+     * Test names, by id.
+     */
+    private final List<String> testNames = new Vector<String>();
+
+    /**
+     * Test ids, by name.
+     */
+    private final Map<String, Integer> testIds =
+        new HashMap<String, Integer>();
+
+    /**
+     * Per-line test membership, by file name.
+     */
+    private final Map<String, FileTests> files =
+        new HashMap<String, FileTests>();
+
+    /**
+     * Record that a test executed a line.
+     *
+     * @param testName
+     *            The test name, from the <code>TN:</code> line.
+     * @param fileName
+     *            The source file name.
+     * @param lineNumber
+     *            The line number.
+     */
+    public void add(final String testName, final String fileName,
+            final int lineNumber) {
+        Integer id = testIds.get(testName);
+        if (null == id) {
+            id = testNames.size();
+            testNames.add(testName);
+            testIds.put(testName, id);
+        }
+        FileTests f = files.get(fileName);
+        if (null == f) {
+            f = new FileTests();
+            files.put(fileName, f);
+        }
+        f.add(lineNumber, id);
+    }
+
+    /**
+     * Get the names of all the tests seen.
+     *
+     * @return Test names, in order of appearance.
+     */
+    public List<String> getTestNames() {
+        return Collections.unmodifiableList(testNames);
+    }
+
+    /**
+     * Get the tests that executed any line of a file.
+     *
+     * @param fileName
+     *            The source file name.
+     * @return Test names, in order of appearance.
+     */
+    public List<String> getTests(final String fileName) {
+        FileTests f = files.get(fileName);
+        if (null == f) {
+            return Collections.emptyList();
+        }
+        return names(f.all);
+    }
+
+    /**
+     * Get the tests that executed any line in a range of a file.
+     *
+     * @param fileName
+     *            The source file name.
+     * @param fromLine
+     *            First line of the range.
+     * @param toLine
+     *            Last line of the range, inclusive.
+     * @return Test names, in order of appearance.
+     */
+    public List<String> getTests(final String fileName, final int fromLine,
+            final int toLine) {
+        FileTests f = files.get(fileName);
+        if (null == f) {
+            return Collections.emptyList();
+        }
+        int i = Arrays.binarySearch(f.lines, 0, f.size, fromLine);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        if (i < f.size && f.lines[i] <= toLine
+                && (i + 1 == f.size || f.lines[i + 1] > toLine)) {
+            return names(f.tests[i]);
+        }
+        IntBitmap union = new IntBitmap();
+        for (; i < f.size && f.lines[i] <= toLine; i++) {
+            union.or(f.tests[i]);
+        }
+        return names(union);
+    }
+
+    /**
+     * Resolve test ids to names.
+     *
+     * @param ids
+     *            Test ids.
+     * @return Test names.
+     */
+    private List<String> names(final IntBitmap ids) {
+        int[] values = ids.toArray();
+        List<String> names = new Vector<String>(values.length);
+        for (int id : values) {
+            names.add(testNames.get(id));
+        }
+        return names;
+    }
+
+    /**
+     * The tests of each line of a file, in line order.
+     */
+    private static final class FileTests {
+        /**
+         * Sorted line numbers.
+         */
+        private int[] lines = new int[16];
+
+        /**
+         * Test ids of each line in {@link #lines}.
+         */
+        private IntBitmap[] tests = new IntBitmap[16];
+
+        /**
+         * Number of lines used.
+         */
+        private int size;
+
+        /**
+         * Test ids of every line.
+         */
+        private final IntBitmap all = new IntBitmap();
+
+        /**
+         * Record that a test executed a line.
+         *
+         * @param lineNumber
+         *            The line number.
+         * @param testId
+         *            The test id.
+         */
+        void add(final int lineNumber, final int testId) {
+            int i;
+            if (size > 0 && lines[size - 1] < lineNumber) {
+                // lines usually arrive in order
+                i = -size - 1;
+            } else {
+                i = Arrays.binarySearch(lines, 0, size, lineNumber);
+            }
+            if (i < 0) {
+                i = -i - 1;
+                if (size == lines.length) {
+                    lines = Arrays.copyOf(lines, size * 2);
+                    tests = Arrays.copyOf(tests, size * 2);
+                }
+                System.arraycopy(lines, i, lines, i + 1, size - i);
+                System.arraycopy(tests, i, tests, i + 1, size - i);
+                lines[i] = lineNumber;
+                tests[i] = new IntBitmap();
+                size++;
+            }
+            tests[i].add(testId);
+            all.add(testId);
+        }
+    }
+}
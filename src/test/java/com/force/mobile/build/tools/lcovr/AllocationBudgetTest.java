@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+/**
+ * Fails when the parse or write hot paths allocate more per line than the
+ * budgets in <code>allocation-budget.properties</code>. Allocation per line
+ * is stable across machines, unlike throughput.
+ */
+public class AllocationBudgetTest {
+
+    private static final int FILES = 100;
+    private static final int LINES = 1000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void testParseBudget() throws Exception {
+        File lcov = File.createTempFile("lcovr", ".lcov");
+        lcov.deleteOnExit();
+        Writer w = new FileWriter(lcov);
+        for (int f = 0; f < FILES; f++) {
+            w.write("SF:com/mycompany/MyClass" + f + ".java\n");
+            for (int l = 1; l <= LINES; l++) {
+                w.write("DA:" + l + "," + (l % 3) + "\n");
+            }
+            w.write("LF:" + LINES + "\nLH:" + (LINES * 2 / 3) + "\nend_of_record\n");
+        }
+        w.close();
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            int records = new LcovReader(lcov).parse().size();
+            best = Math.min(best, allocatedBytes() - before);
+            assertEquals(FILES, records);
+        }
+        assertWithinBudget("lcovreader.parse.bytesPerLine", best / (FILES * LINES));
+    }
+
+    @Test
+    public void testCoberturaWriteBudget() throws Exception {
+        File xml = File.createTempFile("lcovr", ".xml");
+        xml.deleteOnExit();
+        SourceFileInfo info = new SourceFileInfo("com/mycompany/MyClass.java");
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            CoberturaCoverageWriter writer = new CoberturaCoverageWriter(xml);
+            writer.begin(Collections.<File>emptyList(), FILES * LINES, 0, 0, 0);
+            writer.beginPackage("com.mycompany", FILES * LINES, 0, 0, 0, 0.0);
+            writer.beginClass(info);
+            long before = allocatedBytes();
+            for (int l = 1; l <= FILES * LINES; l++) {
+                writer.line(l, l % 3);
+            }
+            best = Math.min(best, allocatedBytes() - before);
+            writer.endClass();
+            writer.endPackage();
+            writer.end();
+        }
+        assertWithinBudget("cobertura.write.bytesPerLine", best / (FILES * LINES));
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private static void assertWithinBudget(String key, long bytesPerLine) throws Exception {
+        Properties budgets = new Properties();
+        InputStream in = AllocationBudgetTest.class.getResourceAsStream("/allocation-budget.properties");
+        try {
+            budgets.load(in);
+        } finally {
+            in.close();
+        }
+        long budget = Long.parseLong(budgets.getProperty(key));
+        assertTrue(key + " allocates " + bytesPerLine + " bytes per line, over its budget of "
+                + budget, bytesPerLine <= budget);
+    }
+}
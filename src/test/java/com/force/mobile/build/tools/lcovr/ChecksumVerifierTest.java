@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.LineChecksums;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class ChecksumVerifierTest {
+
+    private static String checksum(final String line) throws Exception {
+        byte[] md5 = MessageDigest.getInstance("MD5").digest(line.getBytes("UTF-8"));
+        return Base64.getEncoder().encodeToString(md5).substring(0, 22);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        File dir = File.createTempFile("lcovr", "src");
+        dir.delete();
+        new File(dir, "a").mkdirs();
+        write(new File(dir, "a/Fresh.js"), "var a = 1;\r\nvar b = 2;\n");
+        write(new File(dir, "a/Stale.js"), "var a = 1;\nvar b = 3;\n");
+
+        File lcov = LcovReaderTest.writeLcov(
+                "SF:a/Fresh.js\nDA:1,1," + checksum("var a = 1;") + "\nDA:2,0," + checksum("var b = 2;") + "\nend_of_record\n"
+                + "SF:a/Stale.js\nDA:1,1," + checksum("var a = 1;") + "\nDA:2,0," + checksum("var b = 2;") + "==\nend_of_record\n"
+                + "SF:a/Missing.js\nDA:1,1," + checksum("x") + "\nend_of_record\n"
+                + "SF:a/NoChecksums.js\nDA:1,1\nend_of_record\n");
+        LcovReader r = new LcovReader(lcov);
+        r.setKeepChecksums(true);
+        Vector<SourceFileInfo> infos = r.parseSummary();
+        LineChecksums c = infos.elementAt(0).getChecksums();
+        assertNotNull(c);
+        assertEquals(2, c.size());
+        assertEquals(2, c.getLine(1));
+
+        ChecksumVerifier v = new ChecksumVerifier(Collections.singletonList(dir), 2);
+        for (SourceFileInfo info : infos) {
+            v.add(info);
+        }
+        assertEquals(Arrays.asList("a/Stale.js"), v.verify());
+        assertArrayEquals(new Object[] {"a/Missing.js"}, v.getUnresolved().toArray());
+    }
+
+    private static void write(final File f, final String content) throws Exception {
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
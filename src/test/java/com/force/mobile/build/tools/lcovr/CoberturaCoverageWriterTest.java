@@ -33,6 +33,8 @@ import java.io.File;
 import java.util.List;
 import java.util.Vector;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+
 import org.junit.Test;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -145,6 +147,91 @@ public class CoberturaCoverageWriterTest {
 
     }
 
+    @Test
+    public void testProcess() throws Exception {
+        SourceFileInfo info = new SourceFileInfo("com/mycompany/MyClass.java");
+        info.setLf(2);
+        info.setLh(1);
+        info.getLineInfo().put(1, 5);
+        info.getLineInfo().put(2, 0);
+        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(info);
+
+        File output = File.createTempFile("lcovr", ".xml");
+        output.deleteOnExit();
+        new CoberturaCoverageWriter(infos).process(output);
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        Document d = dbf.newDocumentBuilder().parse(output);
+        assertEquals("coverage", d.getDocumentElement().getNodeName());
+        assertEquals("0.5", d.getDocumentElement().getAttribute("line-rate"));
+        assertEquals(1, d.getElementsByTagName("class").getLength());
+        assertEquals(2, d.getElementsByTagName("line").getLength());
+    }
+
+    @Test
+    public void testConditionCoverage() throws Exception {
+        File lcov = LcovReaderTest.writeLcov("SF:com/mycompany/MyClass.java\nDA:1,5\nDA:2,1\n"
+                + "BRDA:1,0,0,5\nBRDA:1,0,1,0\nBRDA:1,1,0,-\nend_of_record\n");
+        File output = File.createTempFile("lcovr", ".xml");
+        output.deleteOnExit();
+        new CoberturaCoverageWriter(new LcovReader(lcov).parse()).process(output);
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        Document d = dbf.newDocumentBuilder().parse(output);
+        String rate = Double.toString(1.0 / 3);
+        assertEquals(rate, d.getDocumentElement().getAttribute("branch-rate"));
+        assertEquals(rate, ((Element) d.getElementsByTagName("package").item(0)).getAttribute("branch-rate"));
+        assertEquals(rate, ((Element) d.getElementsByTagName("class").item(0)).getAttribute("branch-rate"));
+        NodeList lines = d.getElementsByTagName("line");
+        assertEquals("true", ((Element) lines.item(0)).getAttribute("branch"));
+        assertEquals("33% (1/3)", ((Element) lines.item(0)).getAttribute("condition-coverage"));
+        assertEquals("", ((Element) lines.item(1)).getAttribute("branch"));
+    }
+
+    @Test
+    public void testMethods() throws Exception {
+        File lcov = LcovReaderTest.writeLcov("SF:com/mycompany/MyClass.java\n"
+                + "FN:2,4,inner\nFN:1,8,outer\nFN:9,tail\nFN:20,empty\nFNDA:3,outer\nFNDA:1,empty\n"
+                + "DA:1,1\nDA:2,0\nDA:3,0\nDA:5,1\nDA:9,0\nDA:10,0\n"
+                + "BRDA:5,0,0,1\nBRDA:5,0,1,0\nend_of_record\n");
+        File output = File.createTempFile("lcovr", ".xml");
+        output.deleteOnExit();
+        Vector<SourceFileInfo> infos = new LcovReader(lcov).parse();
+        ComplexityCalculator.apply(infos.elementAt(0), new int[] {1, 3, 3, 9});
+        new CoberturaCoverageWriter(infos).process(output);
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        Document d = dbf.newDocumentBuilder().parse(output);
+        assertEquals("2.5", ((Element) d.getElementsByTagName("package").item(0)).getAttribute("complexity"));
+        assertEquals("2.5", ((Element) d.getElementsByTagName("class").item(0)).getAttribute("complexity"));
+        NodeList methods = d.getElementsByTagName("method");
+        assertEquals(4, methods.getLength());
+        Element outer = (Element) methods.item(0);
+        assertEquals("outer", outer.getAttribute("name"));
+        assertEquals("", outer.getAttribute("signature"));
+        assertEquals("0.5", outer.getAttribute("line-rate"));
+        assertEquals("0.5", outer.getAttribute("branch-rate"));
+        assertEquals("4.0", outer.getAttribute("complexity"));
+        assertEquals(4, outer.getElementsByTagName("line").getLength());
+        Element inner = (Element) methods.item(1);
+        assertEquals("inner", inner.getAttribute("name"));
+        assertEquals("0.0", inner.getAttribute("line-rate"));
+        assertEquals(2, inner.getElementsByTagName("line").getLength());
+        assertEquals(2, ((Element) methods.item(2)).getElementsByTagName("line").getLength());
+        Element empty = (Element) methods.item(3);
+        assertEquals("1.0", empty.getAttribute("line-rate"));
+        assertEquals(0, empty.getElementsByTagName("line").getLength());
+        assertEquals(1, empty.getElementsByTagName("lines").getLength());
+        // the class still lists every line once
+        Element lines = (Element) d.getElementsByTagName("class").item(0).getLastChild().getPreviousSibling();
+        assertEquals("lines", lines.getNodeName());
+        assertEquals(6, lines.getElementsByTagName("line").getLength());
+    }
+
     private void validateLineElements(SourceFileInfo info, Element classElement) {
         /* There should be two sets of children: <methods/> and <lines/> */
         assertEquals(2, classElement.getChildNodes().getLength());
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class CoberturaReaderTest {
+
+    private static final String XML = "<?xml version=\"1.0\"?>\n"
+        + "<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-03.dtd\">\n"
+        + "<coverage line-rate=\"0.5\"><packages><package name=\"a\"><classes>\n"
+        + "<class name=\"a.B\" filename=\"a/B.java\">\n"
+        + " <methods><method name=\"m\"><lines><line number=\"1\" hits=\"7\"/></lines></method></methods>\n"
+        + " <lines><line number=\"1\" hits=\"2\"/><line number=\"2\" hits=\"0\"/>"
+        + "<line number=\"3\" hits=\"99999999999\" branch=\"false\"/></lines>\n"
+        + "</class>\n"
+        + "<class name=\"a.B$Inner\" filename=\"a/B.java\"><lines><line number=\"2\" hits=\"1\"/></lines></class>\n"
+        + "</classes></package></packages></coverage>\n";
+
+    private static File write(final String content) throws IOException {
+        File f = LcovReaderTest.writeLcov(content);
+        File xml = new File(f.getPath() + ".xml");
+        f.renameTo(xml);
+        xml.deleteOnExit();
+        return xml;
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        Vector<SourceFileInfo> infos = new CoberturaReader(write(XML)).parse();
+        assertEquals(2, infos.size());
+        SourceFileInfo b = infos.elementAt(0);
+        assertEquals("a/B.java", b.getFileName());
+        assertEquals(3, b.getLf());
+        assertEquals(2, b.getLh());
+        assertEquals(2, (int) b.getLineInfo().get(1));
+        assertEquals(0, (int) b.getLineInfo().get(2));
+        assertEquals(Integer.MAX_VALUE, (int) b.getLineInfo().get(3));
+        assertEquals(1, infos.elementAt(1).getLh());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Vector<SourceFileInfo> expected = new LcovReader(new File("src/test/resources/coverage.lcov")).parse();
+        File xml = write("");
+        new CoverageTraversal(expected).traverse(new CoberturaCoverageWriter(xml));
+        assertTrue(CoberturaReader.accepts(xml));
+
+        Vector<SourceFileInfo> actual = new CoberturaReader(xml).parse();
+        Collections.sort(expected);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.elementAt(i).getFileName(), actual.elementAt(i).getFileName());
+            assertEquals(expected.elementAt(i).getLf(), actual.elementAt(i).getLf());
+            assertEquals(expected.elementAt(i).getLh(), actual.elementAt(i).getLh());
+            assertEquals(expected.elementAt(i).getLineInfo(), actual.elementAt(i).getLineInfo());
+        }
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        File xml = write("<coverage><class filename=\"a.js\"><lines>\n"
+                + "<line number=\"x\" hits=\"1\"/>\n<line number=\"2\"/>\n<line number=\"3\" hits=\"1\"/>\n"
+                + "</lines></class></coverage>");
+        try {
+            new CoberturaReader(xml).parse();
+            assertTrue("expected an IOException", false);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().endsWith(":2"));
+        }
+        CoberturaReader reader = new CoberturaReader(xml);
+        reader.setLenient(true);
+        Vector<SourceFileInfo> infos = reader.parse();
+        assertEquals(1, infos.elementAt(0).getLf());
+        assertEquals(2, reader.getDiagnostics().getCount(ParseDiagnostics.Problem.MALFORMED_LINE));
+    }
+
+    @Test
+    public void testClassWithoutFileName() throws Exception {
+        File xml = write("<coverage><class name=\"a.B\">\n<lines><line number=\"1\" hits=\"1\"/></lines></class>\n"
+                + "<class filename=\"a/C.js\"><lines><line number=\"1\" hits=\"1\"/></lines></class></coverage>");
+        try {
+            new CoberturaReader(xml).parse();
+            assertTrue("expected an IOException", false);
+        } catch (IOException expected) {
+            assertEquals("Malformed class at " + xml.getPath() + ":1", expected.getMessage());
+        }
+        CoberturaReader reader = new CoberturaReader(xml);
+        reader.setLenient(true);
+        Vector<SourceFileInfo> infos = reader.parse();
+        assertEquals(1, infos.size());
+        assertEquals("a/C.js", infos.elementAt(0).getFileName());
+        assertEquals(1, reader.getDiagnostics().getCount(ParseDiagnostics.Problem.MALFORMED_LINE));
+    }
+
+    @Test
+    public void testMergeWithLcov() throws Exception {
+        File lcov = LcovReaderTest.writeLcov("SF:a/B.java\nDA:2,5\nDA:4,0\nend_of_record\n");
+        assertFalse(CoberturaReader.accepts(lcov));
+        MergePlanner planner = new MergePlanner(MergePlanner.DEFAULT_FAN_IN, 1, Long.MAX_VALUE, null);
+        Vector<SourceFileInfo> merged = planner.merge(Arrays.asList(write(XML), lcov));
+        assertEquals(3, planner.getRecordCount());
+        assertEquals(1, merged.size());
+        SourceFileInfo b = merged.elementAt(0);
+        assertEquals(4, b.getLf());
+        assertEquals(3, b.getLh());
+        assertEquals(6, (int) b.getLineInfo().get(2));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class ComplexityCalculatorTest {
+
+    private static int[] scan(final String source) throws Exception {
+        return ComplexityCalculator.scan(ByteBuffer.wrap(source.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        assertArrayEquals(new int[] {1, 1, 2, 4, 4, 4, 6, 8}, scan(
+                "if (a && b) { // if while for\n"
+                + "  x = c ? d : e; /* case\n"
+                + "  catch */ s = \"if (x)\" + 'f' + `for\n"
+                + "  ${while}`; for (;;) {} while (z || y) {}\n"
+                + "  List<?> l; Map<K, ?> m; o?.p; q ?? r; function f(t?: T) {}\n"
+                + "  switch (u) { case 1: break; default: }\n"
+                + "#if DEBUG\n"
+                + "  try {} catch (E e) {} ifx(); dif(); élse_if();\n"));
+    }
+
+    @Test
+    public void testFunctions() throws Exception {
+        SourceFileInfo info = new SourceFileInfo("a/A.java");
+        FunctionData functions = new FunctionData();
+        functions.add(1, FunctionData.UNKNOWN, "a", 1);
+        functions.add(5, 6, "b", 0);
+        functions.add(10, FunctionData.UNKNOWN, "c", 0);
+        info.setFunctions(functions.normalize());
+        ComplexityCalculator.apply(info, new int[] {2, 2, 3, 6, 7, 12});
+        assertEquals(4, functions.getComplexity(0));
+        assertEquals(2, functions.getComplexity(1));
+        assertEquals(2, functions.getComplexity(2));
+        assertEquals(8.0 / 3, info.getComplexity(), 0.0);
+
+        SourceFileInfo plain = new SourceFileInfo("a/B.js");
+        ComplexityCalculator.apply(plain, new int[] {2, 2, 3});
+        assertEquals(4.0, plain.getComplexity(), 0.0);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File dir = Files.createTempDirectory("lcovr").toFile();
+        dir.deleteOnExit();
+        File source = new File(dir, "A.java");
+        source.deleteOnExit();
+        Files.write(source.toPath(), "class A { void f() { if (x) {} } }\n".getBytes("UTF-8"));
+        File cache = new File(dir, "complexity.properties");
+        cache.deleteOnExit();
+        List<File> dirs = Collections.singletonList(dir);
+
+        List<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(new SourceFileInfo("A.java"));
+        infos.add(new SourceFileInfo("Missing.java"));
+        infos.add(new SourceFileInfo("complexity.properties"));
+        ComplexityCalculator calculator = new ComplexityCalculator(dirs, 2);
+        calculator.setCacheFile(cache);
+        calculator.calculate(infos);
+        assertEquals(1, calculator.getScannedCount());
+        assertEquals(0, calculator.getCachedCount());
+        assertEquals(2.0, infos.get(0).getComplexity(), 0.0);
+        assertEquals(0.0, infos.get(1).getComplexity(), 0.0);
+        assertEquals(0.0, infos.get(2).getComplexity(), 0.0);
+
+        SourceFileInfo again = new SourceFileInfo("A.java");
+        calculator = new ComplexityCalculator(dirs, 2);
+        calculator.setCacheFile(cache);
+        calculator.calculate(Collections.singletonList(again));
+        assertEquals(0, calculator.getScannedCount());
+        assertEquals(1, calculator.getCachedCount());
+        assertEquals(2.0, again.getComplexity(), 0.0);
+
+        Files.write(source.toPath(), "class A { void f() { while (x && y) {} } }\n".getBytes("UTF-8"));
+        calculator.calculate(Collections.singletonList(again));
+        assertEquals(1, calculator.getScannedCount());
+        assertEquals(3.0, again.getComplexity(), 0.0);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class CoverageIndexTest {
+
+    private static CoverageIndex write(List<SourceFileInfo> infos) throws Exception {
+        File idx = File.createTempFile("lcovr", ".idx");
+        idx.deleteOnExit();
+        new CoverageTraversal(infos).traverse(new CoverageIndexWriter(idx));
+        return CoverageIndex.open(idx);
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        CoverageIndex index = write(new LcovReader(new File("src/test/resources/coverage.lcov")).parse());
+        assertEquals(3, index.getFileCount());
+        assertEquals(92, index.getLinesFound());
+        assertEquals(12, index.getLinesHit());
+        assertEquals("com/mycompany/MyClass1.java", index.getFileName(0));
+
+        int file = index.find("com/mycompany/MyClass3.java");
+        assertEquals(2, file);
+        assertEquals(43, index.getLinesFound(file));
+        assertEquals(12, index.getLinesHit(file));
+        assertEquals(-1, index.find("com/mycompany/Missing.java"));
+
+        assertEquals(0, index.getHits("com/mycompany/MyClass3.java", 27));
+        assertEquals(1, index.getHits("com/mycompany/MyClass3.java", 34));
+        assertEquals(-1, index.getHits("com/mycompany/MyClass3.java", 28));
+        assertEquals(-1, index.getHits("com/mycompany/Missing.java", 34));
+
+        final List<Integer> lines = new ArrayList<Integer>();
+        assertTrue(index.forEachLine("com/mycompany/MyClass3.java", 47, 57, new LineVisitor() {
+            public void line(int lineNumber, int hits) {
+                lines.add(lineNumber);
+            }
+        }));
+        assertEquals("[48, 49, 50, 51, 57]", lines.toString());
+        assertFalse(index.forEachLine("com/mycompany/Missing.java", 1, 10, null));
+    }
+
+    @Test
+    public void testManyFiles() throws Exception {
+        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        for (int i = 0; i < 500; i++) {
+            SourceFileInfo info = new SourceFileInfo("p" + (i % 7) + "/Fé" + i + ".java");
+            info.getLineInfo().put(i + 1, i);
+            info.setLf(1);
+            info.setLh(i > 0 ? 1 : 0);
+            infos.add(info);
+        }
+        CoverageIndex index = write(infos);
+        assertEquals(500, index.getFileCount());
+        for (int i = 0; i < 500; i++) {
+            String name = "p" + (i % 7) + "/Fé" + i + ".java";
+            assertEquals(name, index.getFileName(index.find(name)));
+            assertEquals(i, index.getHits(name, i + 1));
+        }
+    }
+}
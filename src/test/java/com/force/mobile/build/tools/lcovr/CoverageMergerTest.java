@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class CoverageMergerTest {
+
+    private static SourceFileInfo info(final String name, final int... lineHits) {
+        SourceFileInfo info = new SourceFileInfo(name);
+        int hit = 0;
+        for (int i = 0; i < lineHits.length; i += 2) {
+            info.getLineInfo().put(lineHits[i], lineHits[i + 1]);
+            if (lineHits[i + 1] > 0) {
+                hit++;
+            }
+        }
+        info.setLf(lineHits.length / 2);
+        info.setLh(hit);
+        return info;
+    }
+
+    @Test
+    public void testMergeSumsHits() throws Exception {
+        CoverageMerger merger = new CoverageMerger();
+        merger.add(info("b/B.js", 1, 0, 2, 1));
+        merger.add(info("a/A.js", 5, 1));
+        merger.add(info("b/B.js", 2, 2, 3, 0));
+        Vector<SourceFileInfo> merged = merger.finish();
+
+        assertEquals(3, merger.getRecordCount());
+        assertEquals(2, merged.size());
+        assertEquals("a/A.js", merged.elementAt(0).getFileName());
+        SourceFileInfo b = merged.elementAt(1);
+        assertEquals("b/B.js", b.getFileName());
+        assertEquals(3, b.getLf());
+        assertEquals(1, b.getLh());
+        assertEquals(3, (int) b.getLineInfo().get(2));
+        assertEquals(0, (int) b.getLineInfo().get(3));
+    }
+
+    @Test
+    public void testSpilledMergeMatchesInMemory() throws Exception {
+        CoverageMerger inMemory = new CoverageMerger();
+        CoverageMerger spilling = new CoverageMerger(1, new File(System.getProperty("java.io.tmpdir")));
+        for (int shard = 0; shard < 10; shard++) {
+            for (int file = 0; file < 5; file++) {
+                SourceFileInfo i = info("dir/File" + file + ".js", file, shard, 100 + shard, 1);
+                inMemory.add(i);
+                spilling.add(i);
+            }
+        }
+        assertEquals(50, spilling.getSpillCount());
+        Vector<SourceFileInfo> expected = inMemory.finish();
+        Vector<SourceFileInfo> actual = spilling.finish();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.elementAt(i).getFileName(), actual.elementAt(i).getFileName());
+            assertEquals(expected.elementAt(i).getLf(), actual.elementAt(i).getLf());
+            assertEquals(expected.elementAt(i).getLh(), actual.elementAt(i).getLh());
+            assertEquals(expected.elementAt(i).getLineInfo(), actual.elementAt(i).getLineInfo());
+        }
+        assertEquals(45, (int) actual.elementAt(3).getLineInfo().get(3));
+    }
+
+    @Test
+    public void testRepeatedLinesIndependentOfParseMode() throws Exception {
+        File lcov = LcovReaderTest.writeLcov("SF:a.js\nDA:3,4\nDA:1,1\nDA:1,2\nDA:2,0\nDA:3,0\nend_of_record\n"
+                + "SF:a.js\nDA:1,5\nend_of_record\n");
+        LcovReader offHeap = new LcovReader(lcov);
+        offHeap.setLineStorage(new OffHeapLineStorage());
+        Vector<Vector<SourceFileInfo>> parses = new Vector<Vector<SourceFileInfo>>();
+        parses.add(new LcovReader(lcov).parse());
+        parses.add(new LcovReader(lcov).parseLazy());
+        parses.add(offHeap.parse());
+
+        Vector<SourceFileInfo> expected = null;
+        for (Vector<SourceFileInfo> infos : parses) {
+            CoverageMerger merger = new CoverageMerger();
+            for (SourceFileInfo info : infos) {
+                merger.add(info);
+            }
+            Vector<SourceFileInfo> merged = merger.finish();
+            assertEquals(1, merged.size());
+            if (null == expected) {
+                expected = merged;
+            }
+            assertEquals(expected.elementAt(0).getLineInfo(), merged.elementAt(0).getLineInfo());
+            assertEquals(expected.elementAt(0).getLh(), merged.elementAt(0).getLh());
+        }
+        // the last count of a repeated line wins within a record
+        assertEquals(7, (int) expected.elementAt(0).getLineInfo().get(1));
+        assertEquals(0, (int) expected.elementAt(0).getLineInfo().get(3));
+    }
+
+    @Test
+    public void testBranchesSurviveSpill() throws Exception {
+        CoverageMerger spilling = new CoverageMerger(1, new File(System.getProperty("java.io.tmpdir")));
+        for (int shard = 0; shard < 4; shard++) {
+            SourceFileInfo i = info("a/A.js", 1, shard);
+            BranchData branches = new BranchData(2);
+            branches.add(1, 0, 0, shard);
+            branches.add(1, 0, 1, shard == 3 ? BranchData.NOT_EXECUTED : 0);
+            i.setBranches(branches);
+            spilling.add(i);
+        }
+        assertEquals(4, spilling.getSpillCount());
+        SourceFileInfo merged = spilling.finish().elementAt(0);
+        assertEquals(2, merged.getBranches().size());
+        assertEquals(6, merged.getBranches().getTaken(0));
+        assertEquals(0, merged.getBranches().getTaken(1));
+        assertEquals(2, merged.getBrf());
+        assertEquals(1, merged.getBrh());
+    }
+
+    @Test
+    public void testFunctionsSurviveSpill() throws Exception {
+        CoverageMerger spilling = new CoverageMerger(1, new File(System.getProperty("java.io.tmpdir")));
+        for (int shard = 0; shard < 3; shard++) {
+            SourceFileInfo i = info("a/A.js", 1, shard);
+            FunctionData functions = new FunctionData();
+            functions.add(1, 4, "(anonymous_0)", shard);
+            if (shard == 2) {
+                functions.add(6, FunctionData.UNKNOWN, "main", 0);
+            }
+            i.setFunctions(functions.normalize());
+            spilling.add(i, 2);
+        }
+        assertEquals(3, spilling.getSpillCount());
+        SourceFileInfo merged = spilling.finish().elementAt(0);
+        assertEquals(2, merged.getFunctions().size());
+        assertEquals("(anonymous_0)", merged.getFunctions().getName(0));
+        assertEquals(4, merged.getFunctions().getEndLine(0));
+        assertEquals(6, merged.getFunctions().getHits(0));
+        assertEquals(6, merged.getFunctions().getLine(1));
+        assertEquals(2, merged.getFnf());
+        assertEquals(1, merged.getFnh());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.CoverageModel;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class CoverageModelTest {
+
+    private static SourceFileInfo info(final String name, final int lf, final int lh) {
+        SourceFileInfo info = new SourceFileInfo(name);
+        info.setLf(lf);
+        info.setLh(lh);
+        return info;
+    }
+
+    @Test
+    public void testRollups() {
+        List<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(info("com/b/Z.java", 10, 5));
+        infos.add(info("com/a/B.java", 4, 4));
+        infos.add(info("com/a/sub/C.java", 6, 0));
+        infos.add(info("com/a/A.java", 2, 1));
+        infos.add(info("com/a/d.java", 1, 1));
+        CoverageModel model = new CoverageModel(infos);
+
+        assertEquals(23, model.getTotal().getLinesFound());
+        assertEquals(11, model.getTotal().getLinesHit());
+        assertEquals(5, model.getTotal().getFileCount());
+
+        List<CoverageModel.Rollup> packages = model.getPackages();
+        assertEquals(3, packages.size());
+        assertEquals("com.a", packages.get(0).getName());
+        assertEquals(7, packages.get(0).getLinesFound());
+        assertEquals(6, packages.get(0).getLinesHit());
+        List<SourceFileInfo> comA = model.getFiles(packages.get(0));
+        assertEquals(3, comA.size());
+        assertEquals("com/a/A.java", comA.get(0).getFileName());
+        assertEquals("com/a/B.java", comA.get(1).getFileName());
+        assertEquals("com/a/d.java", comA.get(2).getFileName());
+        assertEquals("com.a.sub", packages.get(1).getName());
+        assertEquals("com/a/sub/C.java", model.getFiles(packages.get(1)).get(0).getFileName());
+        assertEquals("com.b", packages.get(2).getName());
+        assertEquals(10, packages.get(2).getLinesFound());
+
+        List<CoverageModel.Rollup> directories = model.getDirectories();
+        assertEquals(3, directories.size());
+        assertEquals("com/a", directories.get(0).getName());
+        assertEquals(3, directories.get(0).getFileCount());
+        assertEquals("com/a/sub", directories.get(1).getName());
+        assertEquals(6, directories.get(1).getLinesFound());
+        assertEquals("com/b", directories.get(2).getName());
+
+        assertEquals(5, model.getFiles().size());
+        assertEquals("com/b/Z.java", model.getFiles().get(4).getFileName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDirectoryHasNoFiles() {
+        List<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(info("com/a/A.java", 1, 1));
+        CoverageModel model = new CoverageModel(infos);
+        model.getFiles(model.getDirectories().get(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        CoverageModel model = new CoverageModel(new Vector<SourceFileInfo>());
+        assertEquals(0, model.getPackages().size());
+        assertEquals(0, model.getTotal().getLinesFound());
+    }
+}
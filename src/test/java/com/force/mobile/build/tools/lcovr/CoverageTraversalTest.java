@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class CoverageTraversalTest {
+
+    /**
+     * Records the calls it gets, and fails on a given one.
+     */
+    private static final class RecordingWriter implements CoverageWriter {
+        private final String failOn;
+        private final StringBuilder calls = new StringBuilder();
+        private IOException failure;
+
+        RecordingWriter(final String call) {
+            failOn = call;
+        }
+
+        private void call(final String name) throws IOException {
+            calls.append(name).append(' ');
+            if (name.equals(failOn)) {
+                failure = new IOException(name);
+                throw failure;
+            }
+        }
+
+        public void begin(List<File> sourceDirectories, int linesFound, int linesHit, int branchesFound,
+                int branchesHit) throws IOException {
+            call("begin");
+        }
+
+        public void beginPackage(String packageName, int linesFound, int linesHit, int branchesFound,
+                int branchesHit, double complexity) throws IOException {
+            call("beginPackage");
+        }
+
+        public void beginClass(SourceFileInfo info) throws IOException {
+            call("beginClass");
+        }
+
+        public void line(int lineNumber, int hits) throws IOException {
+            call("line");
+        }
+
+        public void endClass() throws IOException {
+            call("endClass");
+        }
+
+        public void endPackage() throws IOException {
+            call("endPackage");
+        }
+
+        public void end() throws IOException {
+            call("end");
+        }
+
+        public void abort() throws IOException {
+            call("abort");
+        }
+    }
+
+    private static CoverageTraversal traversal() {
+        SourceFileInfo info = new SourceFileInfo("a/A.js");
+        info.getLineInfo().put(1, 1);
+        info.setLf(1);
+        info.setLh(1);
+        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(info);
+        return new CoverageTraversal(infos);
+    }
+
+    @Test
+    public void testFailureAbortsEveryWriter() throws Exception {
+        RecordingWriter first = new RecordingWriter(null);
+        RecordingWriter failing = new RecordingWriter("line");
+        RecordingWriter last = new RecordingWriter(null);
+        try {
+            traversal().traverse(first, failing, last);
+            fail();
+        } catch (IOException e) {
+            assertSame(failing.failure, e);
+        }
+        assertEquals("begin beginPackage beginClass line abort ", first.calls.toString());
+        assertEquals("begin beginPackage beginClass line abort ", failing.calls.toString());
+        assertEquals("begin beginPackage beginClass abort ", last.calls.toString());
+    }
+
+    @Test
+    public void testFailedBeginAbortsBegunWriters() throws Exception {
+        RecordingWriter first = new RecordingWriter(null);
+        RecordingWriter failing = new RecordingWriter("begin");
+        RecordingWriter last = new RecordingWriter(null);
+        try {
+            traversal().traverse(first, failing, last);
+            fail();
+        } catch (IOException e) {
+            assertSame(failing.failure, e);
+        }
+        assertEquals("begin abort ", first.calls.toString());
+        assertEquals("begin abort ", failing.calls.toString());
+        assertEquals("", last.calls.toString());
+    }
+
+    @Test
+    public void testFailedEndStillEndsOthers() throws Exception {
+        RecordingWriter failing = new RecordingWriter("end");
+        RecordingWriter last = new RecordingWriter(null);
+        try {
+            traversal().traverse(failing, last);
+            fail();
+        } catch (IOException e) {
+            assertSame(failing.failure, e);
+        }
+        assertEquals("begin beginPackage beginClass line endClass endPackage end ", last.calls.toString());
+    }
+
+    @Test
+    public void testFailureShutsDownHtmlWorkers() throws Exception {
+        File report = File.createTempFile("lcovr", "");
+        report.delete();
+        report.deleteOnExit();
+        int before = Thread.activeCount();
+        try {
+            traversal().traverse(new HtmlCoverageWriter(report, 4), new RecordingWriter("endClass"));
+            fail();
+        } catch (IOException e) {
+            assertEquals("endClass", e.getMessage());
+        }
+        for (int i = 0; i < 100 && Thread.activeCount() > before; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(Thread.activeCount() <= before);
+    }
+}
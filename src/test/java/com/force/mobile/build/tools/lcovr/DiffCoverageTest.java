@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class DiffCoverageTest {
+
+    private static final String PATH = "src/com/mycompany/MyClass3.java";
+
+    private static File diff() throws Exception {
+        File diff = File.createTempFile("lcovr", ".diff");
+        diff.deleteOnExit();
+        Writer w = new FileWriter(diff);
+        w.write("diff --git a/" + PATH + " b/" + PATH + "\n"
+                + "--- a/" + PATH + "\n"
+                + "+++ b/" + PATH + "\n"
+                + "@@ -30,6 +30,8 @@ class MyClass3\n"
+                + " thirty\n"
+                + " thirty-one\n"
+                + "-removed\n"
+                + "+thirty-two\n"
+                + "+thirty-three\n"
+                + "+thirty-four\n"
+                + " thirty-five\n"
+                + "\n"
+                + " thirty-seven\n"
+                + "@@ -46,2 +48,4 @@\n"
+                + " forty-eight\n"
+                + "+forty-nine\n"
+                + "+++ fifty\n"
+                + " fifty-one\n"
+                + "diff --git a/gone.js b/gone.js\n"
+                + "--- a/gone.js\n"
+                + "+++ /dev/null\n"
+                + "@@ -1,2 +0,0 @@\n"
+                + "-a\n"
+                + "-b\n"
+                + "--- a/README.md\n"
+                + "+++ b/README.md\n"
+                + "@@ -0,0 +1 @@\n"
+                + "+hello\n");
+        w.close();
+        return diff;
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        DiffIndex index = DiffIndex.read(diff());
+        assertEquals(Arrays.asList("README.md", PATH), new Vector<String>(index.getFileNames()));
+        assertArrayEquals(new int[] {32, 34, 49, 50}, index.getRanges(PATH));
+        assertArrayEquals(new int[] {1, 1}, index.getRanges("README.md"));
+        assertEquals(PATH, index.find("com/mycompany/MyClass3.java"));
+        assertEquals(PATH, index.find("/work/repo/" + PATH));
+        assertEquals(PATH, index.find("src\\com\\mycompany\\MyClass3.java"));
+        assertNull(index.find("other/MyClass3.java"));
+        assertNull(index.find("gone.js"));
+    }
+
+    @Test
+    public void testMergedCoverage() throws Exception {
+        CoverageMerger merger = new CoverageMerger();
+        for (SourceFileInfo info : new LcovReader(new File("src/test/resources/coverage.lcov")).parse()) {
+            merger.add(info);
+        }
+        DiffCoverage coverage = new DiffCoverage(DiffIndex.read(diff()), merger.finish());
+        assertEquals(1, coverage.getFiles().size());
+        DiffCoverage.FileCoverage file = coverage.getFiles().get(0);
+        assertEquals("com/mycompany/MyClass3.java", file.getName());
+        assertEquals(5, file.getChangedLines());
+        assertEquals(3, file.getLinesFound());
+        assertEquals(2, file.getLinesHit());
+        assertEquals(2.0 / 3, coverage.getLineRate(), 1e-9);
+
+        File json = File.createTempFile("lcovr", ".json");
+        json.deleteOnExit();
+        coverage.write(json);
+        String s = new String(Files.readAllBytes(json.toPath()), "UTF-8");
+        assertTrue(s, s.startsWith("{\"linesFound\":3,\"linesHit\":2,"));
+        assertTrue(s, s.contains("\"name\":\"com/mycompany/MyClass3.java\",\"linesFound\":3,\"linesHit\":2,"));
+        assertTrue(s, s.contains("\"changedLines\":5}"));
+    }
+
+    @Test
+    public void testMapCoverage() throws Exception {
+        SourceFileInfo info = new SourceFileInfo(PATH);
+        info.getLineInfo().put(10, 1);
+        info.getLineInfo().put(33, 0);
+        info.getLineInfo().put(34, 2);
+        info.getLineInfo().put(50, 1);
+        SourceFileInfo unchanged = new SourceFileInfo("com/mycompany/MyClass1.java");
+        unchanged.getLineInfo().put(33, 1);
+        Vector<SourceFileInfo> infos = new Vector<SourceFileInfo>();
+        infos.add(unchanged);
+        infos.add(info);
+
+        DiffCoverage coverage = new DiffCoverage(DiffIndex.read(diff()), infos);
+        assertEquals(1, coverage.getFiles().size());
+        assertEquals(3, coverage.getLinesFound());
+        assertEquals(2, coverage.getLinesHit());
+    }
+
+    @Test
+    public void testOffHeapCoverage() throws Exception {
+        CoverageMerger merger = new CoverageMerger();
+        merger.setLineStorage(new OffHeapLineStorage());
+        for (SourceFileInfo info : new LcovReader(new File("src/test/resources/coverage.lcov")).parse()) {
+            merger.add(info);
+        }
+        Vector<SourceFileInfo> merged = merger.finish();
+        DiffCoverage coverage = new DiffCoverage(DiffIndex.read(diff()), merged);
+        assertEquals(1, coverage.getFiles().size());
+        assertEquals(5, coverage.getFiles().get(0).getChangedLines());
+        assertEquals(3, coverage.getLinesFound());
+        assertEquals(2, coverage.getLinesHit());
+
+        final List<Integer> lines = new ArrayList<Integer>();
+        for (SourceFileInfo info : merged) {
+            if (info.getFileName().endsWith("MyClass3.java")) {
+                info.forEachLine(33, 39, new LineVisitor() {
+                    public void line(final int lineNumber, final int hits) {
+                        lines.add(lineNumber);
+                    }
+                });
+            }
+        }
+        assertEquals(Arrays.asList(34, 36, 39), lines);
+    }
+}
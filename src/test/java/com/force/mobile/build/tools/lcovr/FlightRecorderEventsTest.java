@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+import java.util.Vector;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        File lcov = LcovReaderTest.writeLcov("SF:a/B.java\nDA:1,0\nDA:2,3\nend_of_record\n"
+                + "SF:a/C.java\nDA:1,1\nend_of_record\n"
+                + "SF:d/E.java\nDA:7,1\nend_of_record\n");
+        File json = File.createTempFile("lcovr", ".json");
+        json.deleteOnExit();
+        File dump = File.createTempFile("lcovr", ".jfr");
+        dump.deleteOnExit();
+
+        Recording recording = new Recording();
+        recording.enable(ParseEvent.class).withoutThreshold();
+        recording.enable(WritePackageEvent.class).withoutThreshold();
+        recording.start();
+        Vector<SourceFileInfo> infos = new LcovReader(lcov).parse();
+        new CoverageTraversal(infos).traverse(new JsonSummaryCoverageWriter(json));
+        recording.stop();
+        recording.dump(dump.toPath());
+        recording.close();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+        List<RecordedEvent> parses = new Vector<RecordedEvent>();
+        List<RecordedEvent> packages = new Vector<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getName();
+            if (name.endsWith(".Parse")) {
+                parses.add(event);
+            } else if (name.endsWith(".WritePackage")) {
+                packages.add(event);
+            }
+        }
+        assertEquals(1, parses.size());
+        assertEquals(lcov.getPath(), parses.get(0).getString("file"));
+        assertEquals("full", parses.get(0).getString("mode"));
+        assertEquals(lcov.length(), parses.get(0).getLong("bytes"));
+        assertEquals(3, parses.get(0).getInt("records"));
+
+        assertEquals(2, packages.size());
+        assertEquals("a", packages.get(0).getString("packageName"));
+        assertEquals(2, packages.get(0).getInt("classes"));
+        assertEquals(3, packages.get(0).getLong("lines"));
+        assertEquals("d", packages.get(1).getString("packageName"));
+        assertEquals(1, packages.get(1).getLong("lines"));
+    }
+}
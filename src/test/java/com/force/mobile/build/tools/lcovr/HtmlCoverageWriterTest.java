@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class HtmlCoverageWriterTest {
+
+    private static File tempDir() throws Exception {
+        File dir = File.createTempFile("lcovr", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static String read(final File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()), "UTF-8");
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        File src = tempDir();
+        new File(src, "a").mkdirs();
+        FileOutputStream out = new FileOutputStream(new File(src, "a/B.java"));
+        out.write("if (a < b && c) {\r\n  x();\r\n}\r\n".getBytes("UTF-8"));
+        out.close();
+
+        StringBuilder lcov = new StringBuilder("SF:a/B.java\nDA:2,0\nDA:1,3\nDA:6,1\nend_of_record\n");
+        for (int i = 0; i < 50; i++) {
+            lcov.append("SF:p").append(i % 5).append("/C").append(i).append(".java\nDA:1,1\nend_of_record\n");
+        }
+        Vector<SourceFileInfo> infos = new LcovReader(LcovReaderTest.writeLcov(lcov.toString())).parse();
+        File report = tempDir();
+        CoverageTraversal traversal = new CoverageTraversal(infos);
+        traversal.setSourceDirectories(Collections.singletonList(src));
+        traversal.traverse(new HtmlCoverageWriter(report, 3));
+
+        String page = read(new File(report, "files/a/B.java.html"));
+        assertTrue(page, page.contains("<tr class=\"hit\"><td class=\"n\">1</td><td class=\"c\">3</td>"
+                + "<td><pre>if (a &lt; b &amp;&amp; c) {</pre></td></tr>\n"));
+        assertTrue(page, page.contains("<tr class=\"miss\"><td class=\"n\">2</td><td class=\"c\">0</td>"
+                + "<td><pre>  x();</pre></td></tr>\n"));
+        assertTrue(page, page.contains("<tr><td class=\"n\">3</td><td class=\"c\"></td><td><pre>}</pre></td></tr>\n"));
+        assertTrue(page, page.contains("<tr class=\"hit\"><td class=\"n\">6</td><td class=\"c\">1</td>"
+                + "<td><pre></pre></td></tr>\n"));
+        assertTrue(page, page.contains("href=\"../../style.css\""));
+
+        String pkg = read(new File(report, "packages/p3.html"));
+        assertTrue(pkg, pkg.contains("<a href=\"../files/p3/C13.java.html\">p3/C13.java</a>"));
+        assertTrue(new File(report, "files/p4/C49.java.html").isFile());
+
+        String index = read(new File(report, "index.html"));
+        assertTrue(index, index.contains("<p>Lines: 52 of 53 hit (98.1%)</p>"));
+        assertTrue(index, index.contains("<a href=\"packages/a.html\">a</a></td><td>3</td><td>2</td><td>66.7%</td>"));
+        assertTrue(index, index.endsWith("</table>\n</body></html>\n"));
+    }
+
+    @Test
+    public void testFilePage() {
+        assertEquals("a/b/C.java.html", HtmlCoverageWriter.filePage("a/b/C.java"));
+        assertEquals("src/__/C_1_.js.html", HtmlCoverageWriter.filePage("/src/../C(1).js"));
+        assertEquals("C_/x/y.js.html", HtmlCoverageWriter.filePage("C:\\x\\y.js"));
+        assertEquals("_default.html", HtmlCoverageWriter.packagePage(""));
+    }
+}
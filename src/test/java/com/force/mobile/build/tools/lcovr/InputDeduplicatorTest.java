@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class InputDeduplicatorTest {
+
+    private static final String SHARD = "SF:a/B.java\nDA:1,1\nDA:2,0\nend_of_record\n";
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        File a = LcovReaderTest.writeLcov(SHARD);
+        File b = LcovReaderTest.writeLcov("SF:a/B.java\nDA:1,2\nDA:2,0\nend_of_record\n");
+        File c = LcovReaderTest.writeLcov(SHARD);
+        File d = LcovReaderTest.writeLcov("SF:a/C.java\nDA:1,1\nend_of_record\n");
+        File e = LcovReaderTest.writeLcov(SHARD);
+
+        InputDeduplicator dedup = new InputDeduplicator(2);
+        List<File> unique = dedup.deduplicate(Arrays.asList(a, b, c, d, e));
+        assertEquals(Arrays.asList(a, b, d), unique);
+        assertEquals(2, dedup.getDuplicateCount());
+        assertEquals(3, dedup.getMultiplicity(a));
+        assertEquals(1, dedup.getMultiplicity(b));
+        assertEquals(1, dedup.getMultiplicity(d));
+    }
+
+    @Test
+    public void testHash() {
+        byte[] bytes = "0123456789abcdefghij".getBytes();
+        long whole = InputDeduplicator.hash(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 7);
+        bytes[19] = 'k';
+        assertTrue(whole != InputDeduplicator.hash(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 7));
+        bytes[19] = 'j';
+        assertEquals(whole, InputDeduplicator.hash(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 7));
+    }
+
+    @Test
+    public void testCountMatchesParse() throws Exception {
+        List<File> inputs = new Vector<File>();
+        for (int i = 0; i < 6; i++) {
+            inputs.add(LcovReaderTest.writeLcov(i % 2 == 0 ? SHARD : "SF:a/B.java\nDA:2,3\nend_of_record\n"));
+        }
+        MergePlanner parse = new MergePlanner(2, 2, Long.MAX_VALUE, null);
+        Vector<SourceFileInfo> expected = parse.merge(inputs);
+
+        MergePlanner count = new MergePlanner(2, 2, Long.MAX_VALUE, null);
+        count.setDuplicates(MergePlanner.Duplicates.COUNT);
+        Vector<SourceFileInfo> actual = count.merge(inputs);
+        assertEquals(4, count.getDuplicateCount());
+        assertEquals(parse.getRecordCount(), count.getRecordCount());
+        assertEquals(expected.elementAt(0).getLineInfo(), actual.elementAt(0).getLineInfo());
+        assertEquals(expected.elementAt(0).getLf(), actual.elementAt(0).getLf());
+        assertEquals(expected.elementAt(0).getLh(), actual.elementAt(0).getLh());
+        assertEquals(9, (int) actual.elementAt(0).getLineInfo().get(2));
+
+        MergePlanner drop = new MergePlanner(2, 2, Long.MAX_VALUE, null);
+        drop.setDuplicates(MergePlanner.Duplicates.DROP);
+        SourceFileInfo dropped = drop.merge(inputs).elementAt(0);
+        assertEquals(2, drop.getRecordCount());
+        assertEquals(1, (int) dropped.getLineInfo().get(1));
+        assertEquals(3, (int) dropped.getLineInfo().get(2));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class LcovCoverageWriterTest {
+
+    private static File write(final Vector<SourceFileInfo> infos) throws Exception {
+        File out = File.createTempFile("lcovr", ".lcov");
+        out.deleteOnExit();
+        new CoverageTraversal(infos).traverse(new LcovCoverageWriter(out));
+        return out;
+    }
+
+    @Test
+    public void testMergedOutput() throws Exception {
+        CoverageMerger merger = new CoverageMerger();
+        for (SourceFileInfo info : new LcovReader(LcovReaderTest.writeLcov(
+                "TN:a\nSF:b/B.java\nDA:2,1\nDA:1,0\nLF:2\nLH:1\nend_of_record\n"
+                + "SF:a/A.java\nDA:5,2147483647\nend_of_record\n"
+                + "TN:b\nSF:b/B.java\nDA:1,3\nDA:3,0\nend_of_record\n")).parse()) {
+            merger.add(info);
+        }
+        File out = write(merger.finish());
+        assertEquals("SF:a/A.java\nDA:5,2147483647\nLF:1\nLH:1\nend_of_record\n"
+                + "SF:b/B.java\nDA:1,3\nDA:2,1\nDA:3,0\nLF:3\nLH:2\nend_of_record\n",
+                new String(Files.readAllBytes(out.toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testBranches() throws Exception {
+        String lcov = "SF:a/A.java\nDA:1,1\nBRDA:1,0,0,2\nBRDA:1,0,1,-\nend_of_record\n";
+        File out = write(new LcovReader(LcovReaderTest.writeLcov(lcov)).parse());
+        assertEquals("SF:a/A.java\nDA:1,1\nBRDA:1,0,0,2\nBRDA:1,0,1,-\nBRF:2\nBRH:1\n"
+                + "LF:1\nLH:1\nend_of_record\n",
+                new String(Files.readAllBytes(out.toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testFunctions() throws Exception {
+        String lcov = "SF:a/A.cpp\nFN:1,3,f(int, int)\nFN:5,g\nFNDA:4,g\nDA:1,0\nend_of_record\n";
+        File out = write(new LcovReader(LcovReaderTest.writeLcov(lcov)).parse());
+        assertEquals("SF:a/A.cpp\nDA:1,0\nFN:1,3,f(int, int)\nFN:5,g\nFNDA:0,f(int, int)\nFNDA:4,g\n"
+                + "FNF:2\nFNH:1\nLF:1\nLH:0\nend_of_record\n",
+                new String(Files.readAllBytes(out.toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int file = 0; file < 20; file++) {
+            sb.append("SF:dir").append(file).append("/Filé").append(file).append(".java\n");
+            for (int line = 1; line <= 1000; line++) {
+                sb.append("DA:").append(line).append(',').append(line * file % 7).append('\n');
+            }
+            sb.append("end_of_record\n");
+        }
+        Vector<SourceFileInfo> expected = new LcovReader(LcovReaderTest.writeLcov(sb.toString())).parse();
+        Vector<SourceFileInfo> actual = new LcovReader(write(expected)).parse();
+        Collections.sort(expected);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.elementAt(i).getFileName(), actual.elementAt(i).getFileName());
+            assertEquals(expected.elementAt(i).getLf(), actual.elementAt(i).getLf());
+            assertEquals(expected.elementAt(i).getLh(), actual.elementAt(i).getLh());
+            assertEquals(expected.elementAt(i).getLineInfo(), actual.elementAt(i).getLineInfo());
+        }
+    }
+}
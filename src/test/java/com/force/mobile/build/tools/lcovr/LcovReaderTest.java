@@ -29,12 +29,28 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.junit.Test;
 
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.NamePool;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
 import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
 
 public class LcovReaderTest {
@@ -57,4 +73,284 @@ public class LcovReaderTest {
         assertTrue(file1.getLineInfo().containsKey(49));
         assertFalse(file1.getLineInfo().containsKey(2));
     }
+
+    @Test
+    public void testParseSummary() throws Exception {
+        LcovReader r = new LcovReader(new File("src/test/resources/coverage.lcov"));
+        Vector<SourceFileInfo> sfi = r.parseSummary();
+        assertEquals("wrong set size from parseSummary()", 3, sfi.size());
+        SourceFileInfo file3 = sfi.elementAt(2);
+        assertEquals("com/mycompany/MyClass3.java", file3.getFileName());
+        assertEquals(12, file3.getLh());
+        assertEquals(43, file3.getLf());
+        assertTrue(file3.getLineInfo().isEmpty());
+    }
+
+    @Test
+    public void testMissingSummaryIsCounted() throws Exception {
+        File f = writeLcov("SF:a/B.js\nDA:1,0\nDA:2,3\nDA:3,10,abc\nend_of_record\n");
+        Vector<SourceFileInfo> full = new LcovReader(f).parse();
+        assertEquals(3, full.elementAt(0).getLf());
+        assertEquals(2, full.elementAt(0).getLh());
+        assertEquals(10, (int) full.elementAt(0).getLineInfo().get(3));
+
+        Vector<SourceFileInfo> summary = new LcovReader(f).parseSummary();
+        assertEquals(3, summary.elementAt(0).getLf());
+        assertEquals(2, summary.elementAt(0).getLh());
+    }
+
+    @Test
+    public void testSmallWindows() throws Exception {
+        File f = writeLcov("SF:a/B.js\r\nDA:1,1\r\nDA:2,0\r\nLF:2\r\nLH:1\r\nend_of_record\r\n"
+                + "SF:a/C.js\nDA:7,2\nend_of_record");
+        LcovReader r = new LcovReader(f);
+        r.setWindowSize(16);
+        Vector<SourceFileInfo> sfi = r.parse();
+        assertEquals(2, sfi.size());
+        assertEquals("a/B.js", sfi.elementAt(0).getFileName());
+        assertEquals(2, sfi.elementAt(0).getLineInfo().size());
+        assertEquals(1, sfi.elementAt(0).getLh());
+        assertEquals("a/C.js", sfi.elementAt(1).getFileName());
+        assertEquals(2, (int) sfi.elementAt(1).getLineInfo().get(7));
+    }
+
+    @Test
+    public void testParseStream() throws Exception {
+        String lcov = "SF:a/B.js\r\nDA:1,1\r\nDA:2,0\r\nLF:2\r\nLH:1\r\nend_of_record\r\n"
+                + "SF:a/C.js\nDA:7,2\nend_of_record";
+        LcovReader r = new LcovReader(new ByteArrayInputStream(lcov.getBytes("UTF-8")), "<stdin>");
+        r.setWindowSize(16);
+        Vector<SourceFileInfo> sfi = r.parse();
+        assertEquals(2, sfi.size());
+        assertEquals("a/B.js", sfi.elementAt(0).getFileName());
+        assertEquals(2, sfi.elementAt(0).getLineInfo().size());
+        assertEquals(1, sfi.elementAt(0).getLh());
+        assertEquals(2, (int) sfi.elementAt(1).getLineInfo().get(7));
+    }
+
+    @Test
+    public void testStreamRecordsAsTheyArrive() throws Exception {
+        final List<String> chunks = new ArrayList<String>(Arrays.asList(
+                "SF:a/B.js\nDA:1,1\nend_of_record\nSF:a/C", ".js\nDA:7,2\nend_of_record\n"));
+        final int[] reads = new int[1];
+        ReadableByteChannel channel = new ReadableByteChannel() {
+            public int read(ByteBuffer dst) throws IOException {
+                if (chunks.isEmpty()) {
+                    return -1;
+                }
+                byte[] chunk = chunks.remove(0).getBytes("UTF-8");
+                dst.put(chunk);
+                reads[0]++;
+                return chunk.length;
+            }
+            public boolean isOpen() {
+                return true;
+            }
+            public void close() {
+            }
+        };
+        final List<String> seen = new ArrayList<String>();
+        int records = new LcovReader(channel, "pipe").parse(new LcovReader.RecordVisitor() {
+            public void visit(SourceFileInfo info) {
+                seen.add(info.getFileName() + "@" + reads[0]);
+            }
+        });
+        assertEquals(2, records);
+        assertEquals(Arrays.asList("a/B.js@1", "a/C.js@2"), seen);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamCantBeLazy() throws Exception {
+        new LcovReader(new ByteArrayInputStream(new byte[0]), "<stdin>").parseLazy();
+    }
+
+    @Test
+    public void testBranches() throws Exception {
+        File f = writeLcov("SF:a/B.js\nBRDA:4,0,1,-\nBRDA:2,e0,0,3\nBRDA:4,0,0,0\n"
+                + "BRDA:2,e0,0,1\nDA:2,1\nend_of_record\n"
+                + "SF:a/C.js\nBRF:6\nBRH:5\nend_of_record\n");
+        Vector<SourceFileInfo> full = new LcovReader(f).parse();
+        BranchData branches = full.elementAt(0).getBranches();
+        assertEquals(3, branches.size());
+        assertEquals(2, branches.getLine(0));
+        assertEquals(4, branches.getTaken(0));
+        assertEquals(BranchData.NOT_EXECUTED, branches.getTaken(2));
+        assertEquals(1, branches.find(4));
+        assertEquals(-1, branches.find(3));
+        assertEquals(3, full.elementAt(0).getBrf());
+        assertEquals(1, full.elementAt(0).getBrh());
+        assertEquals(6, full.elementAt(1).getBrf());
+        assertEquals(5.0 / 6, full.elementAt(1).getBranchRate(), 0.0);
+
+        Vector<SourceFileInfo> summary = new LcovReader(f).parseSummary();
+        assertEquals(null, summary.elementAt(0).getBranches());
+        assertEquals(4, summary.elementAt(0).getBrf());
+        assertEquals(2, summary.elementAt(0).getBrh());
+    }
+
+    @Test
+    public void testFunctions() throws Exception {
+        String lcov = "SF:a/B.cpp\nFNDA:2,_ZN1B3fooEv\nFN:10,_ZN1B3fooEv\nFN:3,8,foo(int, int)\n"
+                + "FNDA:0,foo(int, int)\nFNDA:1,_ZN1B3fooEv\nFNDA:5,undeclared\nend_of_record\n"
+                + "SF:a/C.cpp\nFN:1,_ZN1B3fooEv\nFNF:4\nFNH:3\nend_of_record\n";
+        File f = writeLcov(lcov);
+        NamePool names = new NamePool();
+        LcovReader r = new LcovReader(f);
+        r.setNamePool(names);
+        Vector<SourceFileInfo> full = r.parse();
+        FunctionData functions = full.elementAt(0).getFunctions();
+        assertEquals(2, functions.size());
+        assertEquals("foo(int, int)", functions.getName(0));
+        assertEquals(3, functions.getLine(0));
+        assertEquals(8, functions.getEndLine(0));
+        assertEquals(0, functions.getHits(0));
+        assertEquals("_ZN1B3fooEv", functions.getName(1));
+        assertEquals(FunctionData.UNKNOWN, functions.getEndLine(1));
+        assertEquals(3, functions.getHits(1));
+        assertEquals(2, full.elementAt(0).getFnf());
+        assertEquals(1, full.elementAt(0).getFnh());
+        assertEquals(4, full.elementAt(1).getFnf());
+        assertEquals(3, full.elementAt(1).getFnh());
+
+        LcovReader other = new LcovReader(writeLcov(lcov));
+        other.setNamePool(names);
+        FunctionData again = other.parse().elementAt(1).getFunctions();
+        assertTrue(functions.getName(1) == again.getName(0));
+        assertEquals(3, names.size());
+
+        Vector<SourceFileInfo> summary = new LcovReader(f).parseSummary();
+        assertEquals(null, summary.elementAt(0).getFunctions());
+        assertEquals(2, summary.elementAt(0).getFnf());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testBadFunction() throws Exception {
+        new LcovReader(writeLcov("SF:a/B.js\nFN:x,foo\nend_of_record\n")).parse();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testBadBranch() throws Exception {
+        new LcovReader(writeLcov("SF:a/B.js\nBRDA:1,0,x,1\nend_of_record\n")).parse();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testBadNumber() throws Exception {
+        new LcovReader(writeLcov("SF:a/B.js\nDA:1,x\nend_of_record\n")).parse();
+    }
+
+    @Test
+    public void testMissingCount() throws Exception {
+        File f = writeLcov("SF:a/B.js\nDA:5\nend_of_record\n");
+        try {
+            new LcovReader(f).parse();
+            fail();
+        } catch (IOException e) {
+            assertEquals("Malformed line at " + f.getPath() + ":2",
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void testParseLazy() throws Exception {
+        File f = new File("src/test/resources/coverage.lcov");
+        Vector<SourceFileInfo> full = new LcovReader(f).parse();
+        LcovReader r = new LcovReader(f);
+        r.setWindowSize(100);
+        Vector<SourceFileInfo> lazy = r.parseLazy();
+        assertEquals(full.size(), lazy.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals(full.elementAt(i).getFileName(), lazy.elementAt(i).getFileName());
+            assertEquals(full.elementAt(i).getLf(), lazy.elementAt(i).getLf());
+            assertEquals(full.elementAt(i).getLh(), lazy.elementAt(i).getLh());
+
+            final Map<Integer, Integer> visited = new HashMap<Integer, Integer>();
+            lazy.elementAt(i).forEachLine(new LineVisitor() {
+                public void line(final int lineNumber, final int hits) {
+                    visited.put(lineNumber, hits);
+                }
+            });
+            assertEquals(full.elementAt(i).getLineInfo(), visited);
+            assertEquals(full.elementAt(i).getLineInfo(), lazy.elementAt(i).getLineInfo());
+        }
+    }
+
+    @Test
+    public void testParseOffHeap() throws Exception {
+        File f = new File("src/test/resources/coverage.lcov");
+        Vector<SourceFileInfo> heap = new LcovReader(f).parse();
+        LcovReader r = new LcovReader(f);
+        r.setLineStorage(new OffHeapLineStorage());
+        Vector<SourceFileInfo> offHeap = r.parse();
+        assertEquals(heap.size(), offHeap.size());
+        for (int i = 0; i < heap.size(); i++) {
+            assertEquals(heap.elementAt(i).getLf(), offHeap.elementAt(i).getLf());
+            assertEquals(heap.elementAt(i).getLineInfo(), offHeap.elementAt(i).getLineInfo());
+        }
+    }
+
+    @Test
+    public void testRepeatedLinesCountOnce() throws Exception {
+        File f = writeLcov("SF:a.js\nDA:3,4\nDA:1,1\nDA:1,2\nDA:2,0\nDA:3,0\nend_of_record\n");
+        LcovReader offHeap = new LcovReader(f);
+        offHeap.setLineStorage(new OffHeapLineStorage());
+        Vector<Vector<SourceFileInfo>> parses = new Vector<Vector<SourceFileInfo>>();
+        parses.add(new LcovReader(f).parse());
+        parses.add(new LcovReader(f).parseSummary());
+        parses.add(new LcovReader(f).parseLazy());
+        parses.add(offHeap.parse());
+        for (Vector<SourceFileInfo> infos : parses) {
+            assertEquals(3, infos.elementAt(0).getLf());
+            assertEquals(1, infos.elementAt(0).getLh());
+        }
+
+        final Vector<Integer> visited = new Vector<Integer>();
+        parses.elementAt(2).elementAt(0).forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                visited.add(lineNumber);
+                visited.add(hits);
+            }
+        });
+        assertEquals("[1, 2, 2, 0, 3, 0]", visited.toString());
+    }
+
+    @Test
+    public void testLenient() throws Exception {
+        File f = writeLcov("DA:1,1\n"
+                + "SF:a/B.js\nDA:1,1\nDA:2,x\nDA:3\nLF:oops\nDA:4,0\nend_of_record\n"
+                + "SF:a/Truncated.js\nDA:1,1\n"
+                + "SF:a/C.js\nDA:5,2\nLF:1\nLH:1\nend_of_record\n"
+                + "SF:a/Killed.js\nDA:1,");
+        for (int mode = 0; mode < 3; mode++) {
+            LcovReader r = new LcovReader(f);
+            r.setLenient(true);
+            Vector<SourceFileInfo> sfi = mode == 0 ? r.parse() : mode == 1 ? r.parseLazy() : r.parseSummary();
+            assertEquals(2, sfi.size());
+            assertEquals("a/B.js", sfi.elementAt(0).getFileName());
+            assertEquals(2, sfi.elementAt(0).getLf());
+            assertEquals(1, sfi.elementAt(0).getLh());
+            if (mode < 2) {
+                assertEquals(2, sfi.elementAt(0).getLineInfo().size());
+                assertEquals(0, (int) sfi.elementAt(0).getLineInfo().get(4));
+            }
+            assertEquals("a/C.js", sfi.elementAt(1).getFileName());
+
+            ParseDiagnostics d = r.getDiagnostics();
+            assertEquals(4, d.getCount(ParseDiagnostics.Problem.MALFORMED_LINE));
+            assertEquals(1, d.getCount(ParseDiagnostics.Problem.OUTSIDE_RECORD));
+            assertEquals(2, d.getCount(ParseDiagnostics.Problem.UNTERMINATED_RECORD));
+            assertTrue(d.getSummary(), d.getSummary().startsWith("Skipped 4 malformed lines (first at "));
+        }
+    }
+
+    static File writeLcov(final String content) throws IOException {
+        File f = File.createTempFile("lcovr", ".lcov");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return f;
+    }
 }
@@ -25,6 +25,8 @@
  */
 package com.force.mobile.build.tools.lcovr;
 
+import java.io.File;
+import java.nio.file.Files;
 
 import org.apache.tools.ant.BuildFileTest;
 
@@ -42,4 +44,52 @@ public class LcovrTaskTest extends BuildFileTest {
     public void testSimple() {
         executeTarget("runLcov");
     }
+
+    public void testMaxMemory() {
+        executeTarget("runLcovMaxMemory");
+        assertLogContaining("runs spilled to disk");
+        assertLogContaining("Skipped parsing 1 duplicate inputs.");
+        assertLogContaining("Read information for 3 source files from 6 records.");
+    }
+
+    public void testFanOut() throws Exception {
+        new File("target/fanout").mkdirs();
+        executeTarget("runLcovFanOut");
+        assertTrue(new File("target/fanout/coverage.xml").length() > 0);
+        String json = new String(Files.readAllBytes(new File("target/fanout/coverage.json").toPath()), "UTF-8");
+        assertTrue(json, json.startsWith("{\"linesFound\":92,\"linesHit\":12,"));
+        assertTrue(json, json.contains("\"name\":\"com/mycompany/MyClass3.java\",\"linesFound\":43,\"linesHit\":12,"));
+        assertEquals(3, new LcovReader(new File("target/fanout/coverage.lcov")).parse().size());
+        assertTrue(new File("target/fanout/html/index.html").isFile());
+        assertEquals(3, CoverageIndex.open(new File("target/fanout/coverage.idx")).getFileCount());
+    }
+
+    public void testBatch() throws Exception {
+        new File("target/batch").mkdirs();
+        executeTarget("runLcovBatch");
+        assertLogContaining("Parsed 1 distinct inputs for 2 conversions.");
+        String a = new String(Files.readAllBytes(new File("target/batch/a.json").toPath()), "UTF-8");
+        String b = new String(Files.readAllBytes(new File("target/batch/b.json").toPath()), "UTF-8");
+        assertTrue(a, a.startsWith("{\"linesFound\":92,\"linesHit\":12,"));
+        assertTrue(b, b.startsWith("{\"linesFound\":92,\"linesHit\":12,"));
+        assertTrue(new File("target/batch/b.xml").length() > 0);
+    }
+
+    public void testBatchDiffCoverage() throws Exception {
+        new File("target/batch").mkdirs();
+        expectSpecificBuildException("runLcovBatchDiffCoverage", "changed lines are under the minimum",
+                "Diff coverage of changes.diff: 1 of 2 changed lines hit (50%). Expected at least 90.0%.");
+        assertTrue(new File("target/batch/html/index.html").isFile());
+    }
+
+    public void testBatchRejectsReadSettings() {
+        expectSpecificBuildException("runLcovBatchLenientConversion", "lenient is set on a conversion",
+                "<conversion> doesn't support [lenient]; set how inputs are read on <lcovbatch>.");
+    }
+
+    public void testParseSize() {
+        assertEquals(512L * 1024 * 1024, Lcovr.parseSize("512m"));
+        assertEquals(2048L, Lcovr.parseSize("2K"));
+        assertEquals(100L, Lcovr.parseSize("100"));
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class MainTest {
+
+    @Test
+    public void testStdin() throws Exception {
+        File json = File.createTempFile("lcovr", ".json");
+        json.deleteOnExit();
+        File lcov = File.createTempFile("lcovr", ".lcov");
+        lcov.deleteOnExit();
+        byte[] input = Files.readAllBytes(new File("src/test/resources/coverage.lcov").toPath());
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int status = Main.run(new String[] {"--json", json.getPath(), "--lcov", lcov.getPath()},
+                new ByteArrayInputStream(input), new PrintStream(err));
+        assertEquals(err.toString(), 0, status);
+        String s = new String(Files.readAllBytes(json.toPath()), "UTF-8");
+        assertTrue(s, s.startsWith("{\"linesFound\":92,\"linesHit\":12,"));
+        assertEquals(3, new LcovReader(lcov).parse().size());
+    }
+
+    @Test
+    public void testStdinAndFile() throws Exception {
+        File json = File.createTempFile("lcovr", ".json");
+        json.deleteOnExit();
+        byte[] input = "SF:com/mycompany/MyClass9.java\nDA:1,1\nend_of_record\n".getBytes("UTF-8");
+
+        int status = Main.run(new String[] {"src/test/resources/coverage.lcov", "-", "--json", json.getPath()},
+                new ByteArrayInputStream(input), new PrintStream(new ByteArrayOutputStream()));
+        assertEquals(0, status);
+        String s = new String(Files.readAllBytes(json.toPath()), "UTF-8");
+        assertTrue(s, s.startsWith("{\"linesFound\":93,\"linesHit\":13,"));
+    }
+
+    @Test
+    public void testUsage() throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(Main.USAGE, Main.run(new String[0], new ByteArrayInputStream(new byte[0]), new PrintStream(err)));
+        assertTrue(err.toString().startsWith("Usage:"));
+        assertEquals(Main.USAGE, Main.run(new String[] {"--bogus", "x"}, new ByteArrayInputStream(new byte[0]),
+                new PrintStream(new ByteArrayOutputStream())));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class MergePlannerTest {
+
+    private static List<File> shards(final int count) throws Exception {
+        List<File> inputs = new Vector<File>();
+        for (int shard = 0; shard < count; shard++) {
+            StringBuilder sb = new StringBuilder();
+            for (int file = 0; file < 5; file++) {
+                sb.append("SF:dir/File").append((shard + file) % 7).append(".js\n");
+                sb.append("DA:1,").append(shard).append('\n');
+                sb.append("DA:").append(10 + shard % 3).append(",1\n");
+                sb.append("end_of_record\n");
+            }
+            inputs.add(LcovReaderTest.writeLcov(sb.toString()));
+        }
+        return inputs;
+    }
+
+    private static Vector<SourceFileInfo> sequential(final List<File> inputs) throws Exception {
+        CoverageMerger merger = new CoverageMerger();
+        for (File input : inputs) {
+            for (SourceFileInfo info : new LcovReader(input).parse()) {
+                merger.add(info);
+            }
+        }
+        return merger.finish();
+    }
+
+    private static void assertSameMerge(final Vector<SourceFileInfo> expected,
+            final Vector<SourceFileInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.elementAt(i).getFileName(), actual.elementAt(i).getFileName());
+            assertEquals(expected.elementAt(i).getLf(), actual.elementAt(i).getLf());
+            assertEquals(expected.elementAt(i).getLh(), actual.elementAt(i).getLh());
+            assertEquals(expected.elementAt(i).getLineInfo(), actual.elementAt(i).getLineInfo());
+        }
+    }
+
+    @Test
+    public void testTreeMergeMatchesSequential() throws Exception {
+        List<File> inputs = shards(40);
+        MergePlanner planner = new MergePlanner(3, 4, Long.MAX_VALUE, null);
+        Vector<SourceFileInfo> actual = planner.merge(inputs);
+
+        // 40 inputs -> 14 runs -> 5 runs -> 2 runs -> final merge.
+        assertEquals(4, planner.getStageCount());
+        assertEquals(200, planner.getRecordCount());
+        assertSameMerge(sequential(inputs), actual);
+        assertEquals(7, actual.size());
+    }
+
+    @Test
+    public void testTreeMergeWithSpills() throws Exception {
+        List<File> inputs = shards(10);
+        MergePlanner planner = new MergePlanner(4, 2, 1, null);
+        Vector<SourceFileInfo> actual = planner.merge(inputs);
+
+        assertEquals(2, planner.getStageCount());
+        assertEquals(50, planner.getSpillCount());
+        assertSameMerge(sequential(inputs), actual);
+    }
+
+    @Test
+    public void testSingleStage() throws Exception {
+        List<File> inputs = shards(3);
+        MergePlanner planner = new MergePlanner(MergePlanner.DEFAULT_FAN_IN, 4, Long.MAX_VALUE, null);
+        Vector<SourceFileInfo> actual = planner.merge(inputs);
+
+        assertEquals(1, planner.getStageCount());
+        assertEquals(0, planner.getSpillCount());
+        assertSameMerge(sequential(inputs), actual);
+    }
+
+    @Test
+    public void testFailedMergeDeletesEveryRun() throws Exception {
+        List<File> inputs = shards(9);
+        inputs.set(0, LcovReaderTest.writeLcov("SF:dir/File0.js\nDA:1,x\nend_of_record\n"));
+        File temp = File.createTempFile("lcovr", "");
+        temp.delete();
+        temp.mkdir();
+        temp.deleteOnExit();
+        try {
+            new MergePlanner(3, 2, Long.MAX_VALUE, temp).merge(inputs);
+            fail();
+        } catch (NumberFormatException e) {
+            assertEquals(0, temp.list().length);
+        }
+    }
+}
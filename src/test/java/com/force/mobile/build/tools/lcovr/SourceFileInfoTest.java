@@ -29,12 +29,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
 import org.junit.Test;
 
+import com.force.mobile.build.tools.lcovr.data.LineVisitor;
+import com.force.mobile.build.tools.lcovr.data.OffHeapLineStorage;
 import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
 
 public class SourceFileInfoTest {
@@ -67,4 +72,28 @@ public class SourceFileInfoTest {
         assertEquals("com.mycompany", sfi.getSourcePackageName());
         assertEquals("MyClass", sfi.getSourceClassName());
     }
+
+    @Test
+    public void testMoveOffHeap() throws Exception {
+        SourceFileInfo sfi = new SourceFileInfo("com/mycompany/MyClass.java");
+        sfi.getLineInfo().put(9, 0);
+        sfi.getLineInfo().put(3, 2);
+        sfi.getLineInfo().put(5, 1);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>(sfi.getLineInfo());
+
+        OffHeapLineStorage direct = new OffHeapLineStorage(null, 16);
+        sfi.moveOffHeap(direct);
+        final List<Integer> order = new Vector<Integer>();
+        sfi.forEachLine(new LineVisitor() {
+            public void line(final int lineNumber, final int hits) {
+                order.add(lineNumber);
+            }
+        });
+        assertEquals("off-heap lines are sorted", Arrays.asList(3, 5, 9), order);
+
+        OffHeapLineStorage mapped = new OffHeapLineStorage(
+                new File(System.getProperty("java.io.tmpdir")), OffHeapLineStorage.DEFAULT_SEGMENT_SIZE);
+        sfi.moveOffHeap(mapped);
+        assertEquals(expected, sfi.getLineInfo());
+    }
 }
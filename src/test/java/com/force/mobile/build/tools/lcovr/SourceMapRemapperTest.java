@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.BranchData;
+import com.force.mobile.build.tools.lcovr.data.FunctionData;
+import com.force.mobile.build.tools.lcovr.data.SourceFileInfo;
+
+public class SourceMapRemapperTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        SourceMap map = new SourceMap(new String[] {"a", "b"}, "AAAA;AACA;;ACAA;AAAA,KAAC;ADCA;AAgBA");
+        assertEquals("a", map.getSource(1));
+        assertEquals(1, map.getLine(1));
+        assertEquals(2, map.getLine(2));
+        assertNull(map.getSource(3));
+        assertEquals("b", map.getSource(4));
+        assertEquals(2, map.getLine(4));
+        assertEquals("b", map.getSource(5));
+        assertEquals(2, map.getLine(5));
+        assertEquals("a", map.getSource(6));
+        assertEquals(3, map.getLine(6));
+        assertEquals(19, map.getLine(7));
+        assertNull(map.getSource(8));
+    }
+
+    @Test
+    public void testResolve() {
+        assertEquals("src/a.ts", SourceMap.resolve("dist", "", "../src/a.ts"));
+        assertEquals("dist/lib/a.ts", SourceMap.resolve("dist", "lib", "./a.ts"));
+        assertEquals("src/x.ts", SourceMap.resolve("dist", "", "webpack:///./src/x.ts"));
+        assertEquals("/abs/y.ts", SourceMap.resolve("dist", "", "/abs/y.ts"));
+        assertEquals("../z.ts", SourceMap.resolve("", "", "../z.ts"));
+    }
+
+    @Test
+    public void testRemap() throws Exception {
+        File dir = File.createTempFile("lcovr", "");
+        dir.delete();
+        new File(dir, "dist").mkdirs();
+        dir.deleteOnExit();
+        File mapFile = new File(dir, "dist/app.js.map");
+        mapFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(mapFile);
+        out.write(("{\"version\":3,\"file\":\"app.js\",\"sources\":[\"../src/a.ts\",\"../src/b.ts\"],"
+                + "\"names\":[],\"mappings\":\"AAAA;AACA;;ACAA;AAAA,KAAC;ADCA\"}").getBytes("UTF-8"));
+        out.close();
+
+        Vector<SourceFileInfo> infos = new LcovReader(LcovReaderTest.writeLcov(
+                "SF:dist/app.js\nDA:1,1\nDA:2,0\nDA:3,5\nDA:4,2\nDA:5,3\nDA:6,0\nDA:7,9\nend_of_record\n"
+                + "SF:other.js\nDA:1,1\nend_of_record\n")).parse();
+        SourceMapRemapper remapper = new SourceMapRemapper(Collections.singletonList(dir), 2);
+        Vector<SourceFileInfo> remapped = remapper.remap(infos);
+
+        assertEquals(1, remapper.getRemappedCount());
+        assertEquals(3, remapped.size());
+        assertEquals("other.js", remapped.elementAt(0).getFileName());
+        SourceFileInfo a = remapped.elementAt(1);
+        assertEquals("src/a.ts", a.getFileName());
+        assertEquals(3, a.getLf());
+        assertEquals(1, a.getLh());
+        assertEquals(0, (int) a.getLineInfo().get(3));
+        SourceFileInfo b = remapped.elementAt(2);
+        assertEquals("src/b.ts", b.getFileName());
+        assertEquals(1, b.getLf());
+        assertEquals(5, (int) b.getLineInfo().get(2));
+    }
+
+    @Test
+    public void testRemapBranchesAndFunctions() throws Exception {
+        File dir = File.createTempFile("lcovr", "");
+        dir.delete();
+        new File(dir, "dist").mkdirs();
+        dir.deleteOnExit();
+        File mapFile = new File(dir, "dist/app.js.map");
+        mapFile.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(mapFile);
+        out.write(("{\"version\":3,\"file\":\"app.js\",\"sources\":[\"../src/a.ts\",\"../src/b.ts\"],"
+                + "\"names\":[],\"mappings\":\"AAAA;AACA;;ACAA;AAAA,KAAC;ADCA\"}").getBytes("UTF-8"));
+        out.close();
+
+        Vector<SourceFileInfo> infos = new LcovReader(LcovReaderTest.writeLcov(
+                "SF:dist/app.js\nFN:1,6,f\nFN:4,5,g\nFN:3,h\nFNDA:2,f\nFNDA:0,g\nFNDA:1,h\n"
+                + "DA:1,1\nDA:2,1\nDA:4,0\nDA:5,3\nDA:6,0\n"
+                + "BRDA:2,0,0,1\nBRDA:2,0,1,0\nBRDA:3,0,0,7\nBRDA:4,0,0,2\nBRDA:5,0,0,3\nend_of_record\n")).parse();
+        Vector<SourceFileInfo> remapped =
+            new SourceMapRemapper(Collections.singletonList(dir), 1).remap(infos);
+
+        assertEquals(2, remapped.size());
+        SourceFileInfo a = remapped.elementAt(0);
+        assertEquals("src/a.ts", a.getFileName());
+        BranchData ab = a.getBranches();
+        assertEquals(2, ab.size());
+        assertEquals(2, ab.getLine(0));
+        assertEquals(1, ab.getTaken(0));
+        assertEquals(0, ab.getTaken(1));
+        assertEquals(2, a.getBrf());
+        assertEquals(1, a.getBrh());
+        FunctionData af = a.getFunctions();
+        assertEquals(1, af.size());
+        assertEquals("f", af.getName(0));
+        assertEquals(1, af.getLine(0));
+        assertEquals(3, af.getEndLine(0));
+        assertEquals(2, af.getHits(0));
+        assertEquals(1, a.getFnh());
+
+        SourceFileInfo b = remapped.elementAt(1);
+        assertEquals("src/b.ts", b.getFileName());
+        // generated lines 4 and 5 both land on line 2: the branches are summed
+        BranchData bb = b.getBranches();
+        assertEquals(1, bb.size());
+        assertEquals(2, bb.getLine(0));
+        assertEquals(5, bb.getTaken(0));
+        FunctionData bf = b.getFunctions();
+        assertEquals(1, bf.size());
+        assertEquals("g", bf.getName(0));
+        assertEquals(2, bf.getLine(0));
+        assertEquals(2, bf.getEndLine(0));
+        assertEquals(1, b.getFnf());
+        assertEquals(0, b.getFnh());
+    }
+}
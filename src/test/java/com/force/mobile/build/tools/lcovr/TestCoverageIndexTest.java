@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ * following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.force.mobile.build.tools.lcovr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.force.mobile.build.tools.lcovr.data.IntBitmap;
+import com.force.mobile.build.tools.lcovr.data.TestCoverageIndex;
+
+public class TestCoverageIndexTest {
+
+    @Test
+    public void testIntBitmap() {
+        IntBitmap b = new IntBitmap();
+        assertTrue(b.isEmpty());
+        assertTrue(b.add(70000));
+        assertTrue(b.add(3));
+        assertFalse(b.add(3));
+        // enough values to turn the first group into a bitset
+        for (int i = 0; i < 5000; i++) {
+            b.add(i * 2);
+        }
+        assertEquals(5002, b.cardinality());
+        assertTrue(b.contains(3));
+        assertTrue(b.contains(9998));
+        assertFalse(b.contains(9997));
+        assertTrue(b.contains(70000));
+
+        IntBitmap other = new IntBitmap();
+        other.add(5);
+        other.add(70001);
+        other.or(b);
+        assertEquals(5004, other.cardinality());
+        int[] values = other.toArray();
+        assertEquals(0, values[0]);
+        assertEquals(70001, values[values.length - 1]);
+    }
+
+    @Test
+    public void testParseTestNames() throws Exception {
+        File f = LcovReaderTest.writeLcov("TN:testA\nSF:a/B.js\nDA:1,1\nDA:2,0\nDA:3,4\nend_of_record\n"
+                + "TN:testB\nSF:a/B.js\nDA:2,1\nDA:3,1\nend_of_record\n"
+                + "SF:a/C.js\nDA:9,0\nend_of_record\n");
+        TestCoverageIndex index = new TestCoverageIndex();
+        LcovReader r = new LcovReader(f);
+        r.setTestIndex(index);
+        r.parseSummary();
+
+        assertEquals(Arrays.asList("testA", "testB"), index.getTestNames());
+        assertEquals(Arrays.asList("testA", "testB"), index.getTests("a/B.js"));
+        assertEquals(Arrays.asList("testA"), index.getTests("a/B.js", 1, 1));
+        assertEquals(Arrays.asList("testB"), index.getTests("a/B.js", 2, 2));
+        assertEquals(Arrays.asList("testA", "testB"), index.getTests("a/B.js", 2, 10));
+        assertEquals(Collections.emptyList(), index.getTests("a/C.js"));
+        assertArrayEquals(new Object[0], index.getTests("a/B.js", 20, 30).toArray());
+    }
+}